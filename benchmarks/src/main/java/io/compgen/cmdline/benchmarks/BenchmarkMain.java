@@ -0,0 +1,24 @@
+package io.compgen.cmdline.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks, writing the results as JSON (jmh-result.json) unless
+ * another result format or file is given.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+		if (!jmhArgs.contains("-rf")) {
+			jmhArgs.add("-rf");
+			jmhArgs.add("json");
+		}
+		if (!jmhArgs.contains("-rff")) {
+			jmhArgs.add("-rff");
+			jmhArgs.add("jmh-result.json");
+		}
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+	}
+}
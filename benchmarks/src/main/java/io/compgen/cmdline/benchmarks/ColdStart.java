@@ -0,0 +1,443 @@
+package io.compgen.cmdline.benchmarks;
+
+import io.compgen.cmdline.MainBuilder;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Process-level cold start benchmark.
+ *
+ * For each registry size (default: 10, 100 and 500 commands), this builds a
+ * tool jar (the library plus generated commands and a main class) and starts
+ * fresh JVMs with "java -jar tool.jar" for three cases:
+ *
+ *   list: no arguments (showCommands)
+ *   help: help cmd0 (showCommandHelp)
+ *   exec: cmd0 (a trivial @Exec that prints one line)
+ *
+ * For each case it records the time to the first byte of output (stdout or
+ * stderr), the total time, the peak RSS (VmHWM, Linux only) and the number of
+ * loaded classes (-Xlog:class+load, JDK 9+). Medians are reported.
+ *
+ * Results are written as JSON. With --baseline, they are compared to a stored
+ * baseline (written with --write-baseline, a tab-delimited file) and the run
+ * fails if any metric is worse than the allowed regression.
+ *
+ * Usage:
+ *   java -cp target/benchmarks.jar io.compgen.cmdline.benchmarks.ColdStart --write-baseline coldstart.tsv
+ *   java -cp target/benchmarks.jar io.compgen.cmdline.benchmarks.ColdStart --baseline coldstart.tsv
+ */
+@Command(name = "cold-start", desc = "Measure cold start time, RSS and loaded classes for synthetic registries")
+public class ColdStart {
+	private static final String[] CASES = new String[] { "list", "help", "exec" };
+
+	private List<Integer> sizes = Arrays.asList(10, 100, 500);
+	private int runs = 10;
+	private int warmup = 2;
+	private String output = "coldstart-result.json";
+	private String baseline = null;
+	private String writeBaseline = null;
+	private double maxTimeRegression = 20;
+	private double maxRssRegression = 20;
+	private double maxClassRegression = 5;
+	private double minTimeDelta = 10;
+	private String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+	private List<String> jvmArgs = new ArrayList<String>();
+
+	@Option(desc = "Registry sizes (default: 10,100,500)", name = "commands", helpValue = "n,n,...")
+	public void setSizes(String sizes) {
+		this.sizes = new ArrayList<Integer>();
+		for (String s: sizes.split(",")) {
+			this.sizes.add(Integer.parseInt(s.trim()));
+		}
+	}
+
+	@Option(desc = "Measured runs per case (default: 10)", name = "runs", helpValue = "n")
+	public void setRuns(int runs) {
+		this.runs = runs;
+	}
+
+	@Option(desc = "Unmeasured runs per case (default: 2)", name = "warmup", helpValue = "n")
+	public void setWarmup(int warmup) {
+		this.warmup = warmup;
+	}
+
+	@Option(desc = "JSON results file (default: coldstart-result.json)", name = "output", helpValue = "fname")
+	public void setOutput(String output) {
+		this.output = output;
+	}
+
+	@Option(desc = "Compare against this baseline, and fail on regressions", name = "baseline", helpValue = "fname")
+	public void setBaseline(String baseline) {
+		this.baseline = baseline;
+	}
+
+	@Option(desc = "Write the results as a new baseline", name = "write-baseline", helpValue = "fname")
+	public void setWriteBaseline(String writeBaseline) {
+		this.writeBaseline = writeBaseline;
+	}
+
+	@Option(desc = "Allowed time regression, percent (default: 20)", name = "max-time-regression", helpValue = "pct")
+	public void setMaxTimeRegression(double pct) {
+		this.maxTimeRegression = pct;
+	}
+
+	@Option(desc = "Allowed RSS regression, percent (default: 20)", name = "max-rss-regression", helpValue = "pct")
+	public void setMaxRssRegression(double pct) {
+		this.maxRssRegression = pct;
+	}
+
+	@Option(desc = "Allowed loaded class regression, percent (default: 5)", name = "max-class-regression", helpValue = "pct")
+	public void setMaxClassRegression(double pct) {
+		this.maxClassRegression = pct;
+	}
+
+	@Option(desc = "Ignore time differences smaller than this (default: 10ms)", name = "min-time-delta", helpValue = "ms")
+	public void setMinTimeDelta(double ms) {
+		this.minTimeDelta = ms;
+	}
+
+	@Option(desc = "Java binary (default: this JVM)", name = "java", helpValue = "path")
+	public void setJava(String java) {
+		this.java = java;
+	}
+
+	@Option(desc = "Extra JVM argument (ex: -XX:TieredStopAtLevel=1)", name = "jvm-arg", helpValue = "arg", allowMultiple = true)
+	public void addJvmArg(String arg) {
+		this.jvmArgs.add(arg);
+	}
+
+	@Exec
+	public void exec() throws Exception {
+		File work = Files.createTempDirectory("coldstart").toFile();
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		try {
+			for (int size: sizes) {
+				File jar = buildTool(work, size);
+				for (String c: CASES) {
+					measure(jar, size, c, results);
+				}
+			}
+		} finally {
+			Fixtures.delete(work);
+		}
+
+		writeJson(results);
+		System.err.println("Wrote results: " + output);
+		if (writeBaseline != null) {
+			writeBaseline(results);
+			System.err.println("Wrote baseline: " + writeBaseline);
+		}
+		if (baseline != null && !compare(results)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Builds a runnable jar with the library, the generated commands, and a main class.
+	 */
+	private File buildTool(File work, int size) throws IOException, URISyntaxException {
+		File dir = new File(work, "tool" + size);
+		Fixtures.writeRegistrySources(dir, size);
+		Fixtures.write(dir, "Main" + size, Fixtures.registryMainSource(size));
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < size; i++) {
+			names.add("Cmd" + i);
+		}
+		names.add("Main" + size);
+		Fixtures.compileAll(dir, names);
+
+		File jar = new File(work, "tool" + size + ".jar");
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Fixtures.PACKAGE + ".Main" + size);
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+		try {
+			addDir(jos, new File(dir, Fixtures.PACKAGE), Fixtures.PACKAGE + "/");
+			addLibrary(jos);
+		} finally {
+			jos.close();
+		}
+		return jar;
+	}
+
+	private static void addDir(JarOutputStream jos, File dir, String prefix) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File f: files) {
+			if (f.isDirectory()) {
+				addDir(jos, f, prefix + f.getName() + "/");
+			} else if (f.getName().endsWith(".class")) {
+				jos.putNextEntry(new JarEntry(prefix + f.getName()));
+				Files.copy(f.toPath(), jos);
+				jos.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Copies the library classes (but not the benchmarks or JMH) from wherever
+	 * MainBuilder was loaded (a jar, or a classes directory).
+	 */
+	private static void addLibrary(JarOutputStream jos) throws IOException, URISyntaxException {
+		File src = new File(MainBuilder.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		if (src.isDirectory()) {
+			addDir(jos, new File(src, "io"), "io/");
+			return;
+		}
+		JarFile jf = new JarFile(src);
+		try {
+			Enumeration<JarEntry> entries = jf.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry e = entries.nextElement();
+				if (e.isDirectory() || !e.getName().startsWith("io/compgen/cmdline/") || e.getName().startsWith("io/compgen/cmdline/benchmarks/")) {
+					continue;
+				}
+				jos.putNextEntry(new JarEntry(e.getName()));
+				InputStream is = jf.getInputStream(e);
+				try {
+					copy(is, jos);
+				} finally {
+					is.close();
+				}
+				jos.closeEntry();
+			}
+		} finally {
+			jf.close();
+		}
+	}
+
+	private void measure(File jar, int size, String c, Map<String, Double> results) throws IOException, InterruptedException {
+		List<Double> first = new ArrayList<Double>();
+		List<Double> total = new ArrayList<Double>();
+		List<Double> rss = new ArrayList<Double>();
+		List<Double> classes = new ArrayList<Double>();
+
+		boolean logClasses = !System.getProperty("java.specification.version").startsWith("1.");
+		File rssFile = new File(jar.getParentFile(), "rss");
+		File classFile = new File(jar.getParentFile(), "classes.log");
+
+		for (int i = 0; i < warmup + runs; i++) {
+			rssFile.delete();
+			classFile.delete();
+
+			List<String> cmd = new ArrayList<String>();
+			cmd.add(java);
+			cmd.addAll(jvmArgs);
+			cmd.add("-Dbench.rss=" + rssFile.getAbsolutePath());
+			if (logClasses) {
+				cmd.add("-Xlog:class+load=info:file=" + classFile.getAbsolutePath());
+			}
+			cmd.add("-jar");
+			cmd.add(jar.getAbsolutePath());
+			if (c.equals("help")) {
+				cmd.add("help");
+				cmd.add("cmd0");
+			} else if (c.equals("exec")) {
+				cmd.add("cmd0");
+			}
+
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			long start = System.nanoTime();
+			Process proc = pb.start();
+			InputStream is = proc.getInputStream();
+			int b = is.read();
+			long firstOutput = System.nanoTime();
+			copy(is, null);
+			int rc = proc.waitFor();
+			long end = System.nanoTime();
+			if (b == -1 || rc != 0) {
+				throw new IOException("Benchmark run failed (" + rc + "): " + cmd);
+			}
+
+			if (i < warmup) {
+				continue;
+			}
+			first.add((firstOutput - start) / 1e6);
+			total.add((end - start) / 1e6);
+			if (rssFile.exists()) {
+				rss.add(Double.parseDouble(new String(Files.readAllBytes(rssFile.toPath()), StandardCharsets.UTF_8).trim()));
+			}
+			if (logClasses && classFile.exists()) {
+				classes.add((double) countLines(classFile));
+			}
+		}
+
+		String key = size + "\t" + c;
+		results.put(key + "\tfirstOutputMs", median(first));
+		results.put(key + "\tfirstOutputMsP90", percentile(first, 0.9));
+		results.put(key + "\ttotalMs", median(total));
+		if (!rss.isEmpty()) {
+			results.put(key + "\trssKb", median(rss));
+		}
+		if (!classes.isEmpty()) {
+			results.put(key + "\tclasses", median(classes));
+		}
+		System.err.println(String.format("%4d commands  %-5s first output: %7.1f ms  total: %7.1f ms  rss: %s KB  classes: %s",
+				size, c, median(first), median(total),
+				rss.isEmpty() ? "-" : String.format("%.0f", median(rss)),
+				classes.isEmpty() ? "-" : String.format("%.0f", median(classes))));
+	}
+
+	/**
+	 * @return false if any metric is worse than the baseline by more than the allowed regression
+	 */
+	private boolean compare(Map<String, Double> results) throws IOException {
+		Map<String, Double> base = readBaseline(baseline);
+		boolean ok = true;
+		for (Map.Entry<String, Double> e: base.entrySet()) {
+			Double cur = results.get(e.getKey());
+			if (cur == null) {
+				continue;
+			}
+			String metric = e.getKey().substring(e.getKey().lastIndexOf('\t') + 1);
+			double prev = e.getValue();
+			double pct = prev == 0 ? 0 : (cur - prev) * 100 / prev;
+
+			double allowed;
+			boolean time = false;
+			if (metric.equals("rssKb")) {
+				allowed = maxRssRegression;
+			} else if (metric.equals("classes")) {
+				allowed = maxClassRegression;
+			} else {
+				allowed = maxTimeRegression;
+				time = true;
+			}
+
+			if (pct > allowed && (!time || cur - prev > minTimeDelta)) {
+				System.err.println(String.format("REGRESSION: %s: %.1f => %.1f (%+.1f%%, allowed: %.1f%%)", e.getKey().replace('\t', ' '), prev, cur, pct, allowed));
+				ok = false;
+			}
+		}
+		if (ok) {
+			System.err.println("No regressions (baseline: " + baseline + ")");
+		}
+		return ok;
+	}
+
+	private void writeJson(Map<String, Double> results) throws IOException {
+		PrintStream ps = new PrintStream(new FileOutputStream(output), false, "UTF-8");
+		try {
+			ps.println("{");
+			ps.println("  \"java\": \"" + System.getProperty("java.version") + "\",");
+			ps.println("  \"runs\": " + runs + ",");
+			ps.println("  \"results\": [");
+			boolean firstEntry = true;
+			for (Map.Entry<String, Double> e: results.entrySet()) {
+				String[] k = e.getKey().split("\t");
+				if (!firstEntry) {
+					ps.println(",");
+				}
+				firstEntry = false;
+				ps.print(String.format("    {\"commands\": %s, \"case\": \"%s\", \"metric\": \"%s\", \"value\": %.3f}", k[0], k[1], k[2], e.getValue()));
+			}
+			ps.println();
+			ps.println("  ]");
+			ps.println("}");
+		} finally {
+			ps.close();
+		}
+	}
+
+	private void writeBaseline(Map<String, Double> results) throws IOException {
+		PrintStream ps = new PrintStream(new FileOutputStream(writeBaseline), false, "UTF-8");
+		try {
+			ps.println("#commands\tcase\tmetric\tvalue");
+			for (Map.Entry<String, Double> e: results.entrySet()) {
+				ps.println(e.getKey() + "\t" + String.format("%.3f", e.getValue()));
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private static Map<String, Double> readBaseline(String fname) throws IOException {
+		Map<String, Double> base = new LinkedHashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fname), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#") || line.trim().equals("")) {
+					continue;
+				}
+				int idx = line.lastIndexOf('\t');
+				base.put(line.substring(0, idx), Double.parseDouble(line.substring(idx + 1)));
+			}
+		} finally {
+			reader.close();
+		}
+		return base;
+	}
+
+	private static double median(List<Double> vals) {
+		return percentile(vals, 0.5);
+	}
+
+	private static double percentile(List<Double> vals, double q) {
+		if (vals.isEmpty()) {
+			return 0;
+		}
+		List<Double> sorted = new ArrayList<Double>(vals);
+		Collections.sort(sorted);
+		int idx = (int) Math.ceil(q * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(sorted.size() - 1, idx)));
+	}
+
+	private static long countLines(File f) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+		try {
+			long n = 0;
+			while (reader.readLine() != null) {
+				n++;
+			}
+			return n;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void copy(InputStream is, OutputStream os) throws IOException {
+		byte[] buf = new byte[64 * 1024];
+		int n;
+		while ((n = is.read(buf)) != -1) {
+			if (os != null) {
+				os.write(buf, 0, n);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new MainBuilder().runClass(ColdStart.class, args);
+	}
+}
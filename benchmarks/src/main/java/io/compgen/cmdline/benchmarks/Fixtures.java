@@ -0,0 +1,232 @@
+package io.compgen.cmdline.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Synthetic command classes for benchmarks. The classes are generated and
+ * compiled at runtime (with javax.tools, so a JDK is required), so fixtures
+ * with 1000 options or 500 commands don't have to be checked in. Classes are
+ * compiled into a directory from the caller, which should delete() it when done
+ * (ex: in a @TearDown).
+ */
+public class Fixtures {
+	public static final String PACKAGE = "bench";
+
+	/**
+	 * A command ("opts" + N) with N options: opt0..optN-1. Every 10th option is a
+	 * boolean flag, every 5th can be given more than once, and the rest take a
+	 * value. It also takes a list of unnamed arguments. @Exec does nothing.
+	 */
+	public static String optionCommandSource(int options) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package " + PACKAGE + ";\n");
+		sb.append("import io.compgen.cmdline.annotation.*;\n");
+		sb.append("import java.util.List;\n");
+		sb.append("@Command(name=\"opts" + options + "\", desc=\"Command with " + options + " options\")\n");
+		sb.append("public class Opts" + options + " {\n");
+		sb.append("  public int calls = 0;\n");
+		for (int i = 0; i < options; i++) {
+			if (i % 10 == 0) {
+				sb.append("  @Option(desc=\"Flag " + i + "\", name=\"opt" + i + "\")\n");
+				sb.append("  public void setOpt" + i + "(boolean v) { calls++; }\n");
+			} else if (i % 5 == 0) {
+				sb.append("  @Option(desc=\"Repeated option " + i + "\", name=\"opt" + i + "\", helpValue=\"val\", allowMultiple=true)\n");
+				sb.append("  public void setOpt" + i + "(String v) { calls++; }\n");
+			} else {
+				sb.append("  @Option(desc=\"Option " + i + "\", name=\"opt" + i + "\", helpValue=\"val\", defaultValue=\"" + i + "\")\n");
+				sb.append("  public void setOpt" + i + "(String v) { calls++; }\n");
+			}
+		}
+		sb.append("  @UnnamedArg(name=\"FILE...\")\n");
+		sb.append("  public void setFiles(List<String> files) { calls++; }\n");
+		sb.append("  @Exec\n");
+		sb.append("  public void exec() { }\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * A small command ("cmd" + i) in one of five categories, for building large registries.
+	 */
+	public static String registryCommandSource(int i) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package " + PACKAGE + ";\n");
+		sb.append("import io.compgen.cmdline.annotation.*;\n");
+		sb.append("@Command(name=\"cmd" + i + "\", desc=\"Synthetic command " + i + "\", category=\"cat" + (i % 5) + "\")\n");
+		sb.append("public class Cmd" + i + " {\n");
+		for (int j = 0; j < 5; j++) {
+			sb.append("  @Option(desc=\"Option " + j + "\", name=\"opt" + j + "\", helpValue=\"val\")\n");
+			sb.append("  public void setOpt" + j + "(String v) { }\n");
+		}
+		sb.append("  @Exec\n");
+		sb.append("  public void exec() { System.out.println(\"ok\"); }\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * A main class ("Main" + count) that registers Cmd0..CmdN-1 and runs MainBuilder.
+	 * If the bench.rss property is set, the peak RSS (VmHWM, Linux only) is written
+	 * to that file at exit.
+	 */
+	public static String registryMainSource(int count) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package " + PACKAGE + ";\n");
+		sb.append("import io.compgen.cmdline.MainBuilder;\n");
+		sb.append("public class Main" + count + " {\n");
+		sb.append("  public static void main(String[] args) throws Exception {\n");
+		sb.append("    final String rss = System.getProperty(\"bench.rss\");\n");
+		sb.append("    if (rss != null) {\n");
+		sb.append("      Runtime.getRuntime().addShutdownHook(new Thread() {\n");
+		sb.append("        public void run() {\n");
+		sb.append("          try {\n");
+		sb.append("            for (String line: java.nio.file.Files.readAllLines(java.nio.file.Paths.get(\"/proc/self/status\"))) {\n");
+		sb.append("              if (line.startsWith(\"VmHWM:\")) {\n");
+		sb.append("                java.nio.file.Files.write(java.nio.file.Paths.get(rss), line.substring(6).trim().split(\" \")[0].getBytes());\n");
+		sb.append("              }\n");
+		sb.append("            }\n");
+		sb.append("          } catch (Exception e) {\n");
+		sb.append("          }\n");
+		sb.append("        }\n");
+		sb.append("      });\n");
+		sb.append("    }\n");
+		sb.append("    new MainBuilder().setProgName(\"bench\")");
+		for (int i = 0; i < count; i++) {
+			sb.append("\n      .addCommand(Cmd" + i + ".class)");
+		}
+		sb.append("\n      .findAndRun(args);\n");
+		sb.append("  }\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	public static Class<?> optionCommand(File dir, int options) throws IOException, ClassNotFoundException {
+		compile(dir, "Opts" + options, optionCommandSource(options));
+		return load(dir, "Opts" + options);
+	}
+
+	public static List<Class<?>> registryCommands(File dir, int count) throws IOException, ClassNotFoundException {
+		writeRegistrySources(dir, count);
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			names.add("Cmd" + i);
+		}
+		compileAll(dir, names);
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		URLClassLoader loader = loader(dir);
+		for (String name: names) {
+			classes.add(loader.loadClass(PACKAGE + "." + name));
+		}
+		return classes;
+	}
+
+	/**
+	 * Writes (but doesn't compile) the registry sources: Cmd0..CmdN-1
+	 */
+	public static void writeRegistrySources(File dir, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			write(dir, "Cmd" + i, registryCommandSource(i));
+		}
+	}
+
+	/**
+	 * Arguments for an "opts" + N command.
+	 *
+	 * @param shape "options": each option once; "repeated": one repeated option
+	 * given size times; "unnamed": size unnamed arguments
+	 */
+	public static String[] args(int options, String shape, int size) {
+		List<String> args = new ArrayList<String>();
+		args.add("opts" + options);
+		if (shape.equals("options")) {
+			for (int i = 0; i < options; i++) {
+				args.add("--opt" + i);
+				if (i % 10 != 0) {
+					args.add("v" + i);
+				}
+			}
+		} else if (shape.equals("repeated")) {
+			for (int i = 0; i < size; i++) {
+				args.add("--opt5");
+				args.add("v" + i);
+			}
+		} else if (shape.equals("unnamed")) {
+			for (int i = 0; i < size; i++) {
+				args.add("file" + i + ".txt");
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown shape: " + shape);
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	private static void compile(File dir, String name, String source) throws IOException {
+		write(dir, name, source);
+		List<String> names = new ArrayList<String>();
+		names.add(name);
+		compileAll(dir, names);
+	}
+
+	public static void write(File dir, String name, String source) throws IOException {
+		File pkg = new File(dir, PACKAGE);
+		pkg.mkdirs();
+		Files.write(new File(pkg, name + ".java").toPath(), source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static void compileAll(File dir, List<String> names) throws IOException {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			throw new IOException("A JDK is required to compile the benchmark fixtures");
+		}
+		List<String> args = new ArrayList<String>();
+		args.add("-nowarn");
+		args.add("-cp");
+		args.add(System.getProperty("java.class.path"));
+		args.add("-d");
+		args.add(dir.getAbsolutePath());
+		for (String name: names) {
+			args.add(new File(new File(dir, PACKAGE), name + ".java").getAbsolutePath());
+		}
+		OutputStream discard = new OutputStream() {
+			public void write(int b) {
+			}
+		};
+		int rc = javac.run(null, discard, new PrintStream(System.err), args.toArray(new String[args.size()]));
+		if (rc != 0) {
+			throw new IOException("Unable to compile benchmark fixtures");
+		}
+	}
+
+	/**
+	 * Recursively delete a fixture directory
+	 */
+	public static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child: children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+
+	private static Class<?> load(File dir, String name) throws IOException, ClassNotFoundException {
+		return loader(dir).loadClass(PACKAGE + "." + name);
+	}
+
+	private static URLClassLoader loader(File dir) throws IOException {
+		return new URLClassLoader(new URL[] { dir.toURI().toURL() }, Fixtures.class.getClassLoader());
+	}
+}
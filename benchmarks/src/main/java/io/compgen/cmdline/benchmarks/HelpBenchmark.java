@@ -0,0 +1,87 @@
+package io.compgen.cmdline.benchmarks;
+
+import io.compgen.cmdline.MainBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Help rendering: the command listing (showCommands) for registries of 10, 100
+ * and 500 commands, and the help for one command (showCommandHelp) with 10, 100
+ * and 1000 options.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpBenchmark {
+	@State(Scope.Benchmark)
+	public static class Registry {
+		@Param({ "10", "100", "500" })
+		public int commands;
+
+		MainBuilder builder;
+		File dir;
+
+		@Setup
+		public void setup() throws Exception {
+			dir = Files.createTempDirectory("bench-fixtures").toFile();
+			builder = new MainBuilder().setProgName("bench");
+			for (Class<?> clazz: Fixtures.registryCommands(dir, commands)) {
+				builder.addCommand(clazz);
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			Fixtures.delete(dir);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class OptionCommand {
+		@Param({ "10", "100", "1000" })
+		public int options;
+
+		MainBuilder builder;
+		Class<?> clazz;
+		File dir;
+
+		@Setup
+		public void setup() throws Exception {
+			dir = Files.createTempDirectory("bench-fixtures").toFile();
+			clazz = Fixtures.optionCommand(dir, options);
+			builder = new MainBuilder().setProgName("bench").addCommand(clazz);
+		}
+
+		@TearDown
+		public void tearDown() {
+			Fixtures.delete(dir);
+		}
+	}
+
+	@Benchmark
+	public void showCommands(Registry r) throws Exception {
+		r.builder.showCommands(Streams.NULL);
+	}
+
+	@Benchmark
+	public void showCommandHelp(OptionCommand c) throws Exception {
+		c.builder.showCommandHelp(c.clazz, Streams.NULL);
+	}
+}
@@ -0,0 +1,81 @@
+package io.compgen.cmdline.benchmarks;
+
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AbstractOutputCommand write throughput for the raw (buffered file) and gzip
+ * paths, in records/s. Each invocation opens the output, writes RECORDS
+ * records of RECORD_SIZE bytes one at a time (like most commands do), and closes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+	public static final int RECORDS = 100000;
+	public static final int RECORD_SIZE = 100;
+
+	public static class Sink extends AbstractOutputCommand {
+		public void writeRecords(byte[] record, int count) throws IOException {
+			for (int i = 0; i < count; i++) {
+				out.write(record);
+			}
+		}
+	}
+
+	@Param({ "raw", "gzip" })
+	public String mode;
+
+	private File dir;
+	private String filename;
+	private byte[] record;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("bench-output").toFile();
+		filename = new File(dir, mode.equals("gzip") ? "out.txt.gz" : "out.txt").getAbsolutePath();
+
+		// somewhat compressible, like typical tab-delimited output
+		record = new byte[RECORD_SIZE];
+		for (int i = 0; i < RECORD_SIZE - 1; i++) {
+			record[i] = (byte) (i % 10 == 9 ? '\t' : 'a' + (i * 7) % 26);
+		}
+		record[RECORD_SIZE - 1] = '\n';
+	}
+
+	@TearDown
+	public void tearDown() {
+		new File(filename).delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void write() throws IOException {
+		Sink sink = new Sink();
+		sink.setOutputName(filename);
+		sink.writeRecords(record, RECORDS);
+		sink.close();
+	}
+}
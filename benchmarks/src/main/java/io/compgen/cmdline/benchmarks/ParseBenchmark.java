@@ -0,0 +1,78 @@
+package io.compgen.cmdline.benchmarks;
+
+import io.compgen.cmdline.MainBuilder;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Argument parsing (extractArgs) and a full run (parsing, binding every option
+ * with findAndRunInner, and dispatch to a no-op @Exec) for commands with 10, 100
+ * and 1000 options.
+ *
+ * Shapes: "options" gives each option once, "repeated" gives one option 1000
+ * times, and "unnamed" gives 1000 unnamed arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+	public static final int SIZE = 1000;
+
+	@Param({ "10", "100", "1000" })
+	public int options;
+
+	@Param({ "options", "repeated", "unnamed" })
+	public String shape;
+
+	private MainBuilder builder;
+	private Class<?> clazz;
+	private String[] args;
+	private Method extractArgs;
+	private File dir;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = Files.createTempDirectory("bench-fixtures").toFile();
+		clazz = Fixtures.optionCommand(dir, options);
+		builder = new MainBuilder().addCommand(clazz);
+		args = Fixtures.args(options, shape, SIZE);
+
+		// extractArgs is private; the reflective call is small next to the parse itself
+		extractArgs = MainBuilder.class.getDeclaredMethod("extractArgs", String[].class, Class.class);
+		extractArgs.setAccessible(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+
+	@Benchmark
+	public Object extractArgs() throws Exception {
+		return extractArgs.invoke(builder, args, clazz);
+	}
+
+	@Benchmark
+	public int run() throws Exception {
+		return builder.run(args, Streams.empty(), Streams.NULL, Streams.NULL_PRINT);
+	}
+}
@@ -0,0 +1,27 @@
+package io.compgen.cmdline.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Discarding streams, so benchmarks don't measure the terminal.
+ */
+public class Streams {
+	public static final OutputStream NULL = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static final PrintStream NULL_PRINT = new PrintStream(NULL);
+
+	public static InputStream empty() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+}
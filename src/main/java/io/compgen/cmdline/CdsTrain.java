@@ -0,0 +1,156 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trains an AppCDS archive for this program and writes a launcher script that uses it.
+ *
+ * Training runs this program again in a child JVM in dry-run mode, which goes
+ * through the registration, argument parsing, binding and help paths of every
+ * registered command (including commands in groups) and records the loaded
+ * classes. The class list is then dumped to a shared archive (-Xshare:dump), or
+ * with --dynamic, a dynamic archive is written at exit (-XX:ArchiveClassesAtExit,
+ * JDK 13+).
+ *
+ * The archive is only valid for the same JVM and classpath, so the launcher
+ * (see Launcher) uses the absolute classpath and java binary used for training.
+ *
+ * Add it to your program with: builder.addCommand(CdsTrain.class)
+ */
+@Command(name = "cds-train", desc="Build an AppCDS archive and launcher script for faster startup", category="help", hidden=true)
+public class CdsTrain {
+	private MainBuilder builder = null;
+	private PrintStream stderr = System.err;
+	private String archive = null;
+	private String launcher = null;
+	private String mainClass = null;
+	private boolean dynamic = false;
+	private boolean dryRun = false;
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void setStderr(PrintStream stderr) {
+		this.stderr = stderr;
+	}
+
+	@Option(desc="Archive filename (default: prog.jsa)", name="archive", helpValue="fname")
+	public void setArchive(String archive) {
+		this.archive = archive;
+	}
+
+	@Option(desc="Launcher script filename (default: prog.sh)", name="launcher", helpValue="fname")
+	public void setLauncher(String launcher) {
+		this.launcher = launcher;
+	}
+
+	@Option(desc="Main class (default: detected from this JVM)", name="main", helpValue="class")
+	public void setMainClass(String mainClass) {
+		this.mainClass = mainClass;
+	}
+
+	@Option(desc="Write a dynamic CDS archive (JDK 13+)", name="dynamic")
+	public void setDynamic(boolean dynamic) {
+		this.dynamic = dynamic;
+	}
+
+	@Option(desc="Only exercise the commands (used by the training JVM)", name="dry-run", hide=true)
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	@Exec
+	public void exec() throws Exception {
+		if (dryRun) {
+			exerciseCommands(builder);
+			return;
+		}
+
+		String prog = builder.getProgName() == null ? "prog" : builder.getProgName();
+		if (archive == null) {
+			archive = prog + ".jsa";
+		}
+		if (launcher == null) {
+			launcher = prog + ".sh";
+		}
+
+		String java = Launcher.javaPath();
+		List<String> target = Launcher.mainTarget(mainClass, true);
+		String archivePath = new File(archive).getAbsolutePath();
+		String classList = archivePath + ".classlist";
+
+		List<String> train = new ArrayList<String>();
+		train.add(java);
+		if (dynamic) {
+			train.add("-XX:ArchiveClassesAtExit=" + archivePath);
+		} else {
+			train.add("-Xshare:off");
+			train.add("-XX:DumpLoadedClassList=" + classList);
+		}
+		train.addAll(target);
+		train.add("cds-train");
+		train.add("--dry-run");
+		run(train);
+
+		if (!dynamic) {
+			List<String> dump = new ArrayList<String>();
+			dump.add(java);
+			dump.add("-Xshare:dump");
+			dump.add("-XX:SharedClassListFile=" + classList);
+			dump.add("-XX:SharedArchiveFile=" + archivePath);
+			// the dump only needs the classpath, not the main class
+			dump.add("-cp");
+			dump.add(target.get(1));
+			run(dump);
+		}
+
+		// commands with their own @Command(cdsArchive) keep it
+		Launcher.write(builder, new File(launcher).getAbsoluteFile(), java, target, archivePath);
+		stderr.println("Wrote archive: " + archivePath);
+		stderr.println("Wrote launcher: " + new File(launcher).getAbsolutePath());
+	}
+
+	static void exerciseCommands(MainBuilder builder) throws Exception {
+		ByteArrayOutputStream discard = new ByteArrayOutputStream();
+		builder.showCommands(discard);
+		for (String cmd: builder.getCommandNames()) {
+			builder.dryRun(cmd, discard);
+			discard.reset();
+		}
+		for (String group: builder.getGroupNames()) {
+			exerciseCommands(builder.getGroup(group));
+		}
+	}
+
+	/**
+	 * Runs a child JVM, copying its output to stderr
+	 */
+	private void run(List<String> args) throws IOException, InterruptedException {
+		ProcessBuilder pb = new ProcessBuilder(args);
+		pb.redirectErrorStream(true);
+		Process proc = pb.start();
+		proc.getOutputStream().close();
+		InputStream is = proc.getInputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = is.read(buf)) != -1) {
+			stderr.write(buf, 0, n);
+		}
+		stderr.flush();
+		int rc = proc.waitFor();
+		if (rc != 0) {
+			throw new IOException("Command failed (" + rc + "): " + args);
+		}
+	}
+}
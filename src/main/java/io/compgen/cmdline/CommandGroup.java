@@ -0,0 +1,22 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.exceptions.MissingExecException;
+
+/**
+ * A nested set of commands (ex: "prog bam filter ..."), added with
+ * MainBuilder.addGroup(). The group's commands are only registered (and their
+ * classes only loaded) when the group is used:
+ *
+ *   builder.addGroup("bam", "Tools for BAM files", new CommandGroup() {
+ *       public void register(MainBuilder bam) throws MissingExecException {
+ *           bam.addCommand(BamFilter.class)
+ *              .addCommand(BamStats.class);
+ *       }
+ *   });
+ *
+ * The builder passed to register() has the same settings as its parent (help
+ * header and footer, metrics, pipelines, etc), and can have its own groups.
+ */
+public interface CommandGroup {
+	public void register(MainBuilder builder) throws MissingExecException;
+}
@@ -0,0 +1,148 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Option;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The options for a command class, indexed for argument parsing. This is built
+ * once per class (the first time the class is parsed) and then shared.
+ *
+ * Long options are known by their @Option name and by their method name
+ * (setFooBar => foobar), and can be given as any unique prefix of either.
+ * Char options (-c) have to match exactly.
+ *
+ * Two options can't have the same name or char name (for example, a command
+ * declaring its own --timeout on top of AbstractCommand's): building the model
+ * fails with an IllegalArgumentException instead of one silently replacing the
+ * other. MainBuilder.addCommand builds the model, so this shows up when the
+ * command is registered.
+ */
+class CommandModel {
+	static class OptionModel {
+		public final Method method;
+		public final Option option;
+		// the name used for this option in CmdArgList when it is given by prefix
+		public final String key;
+		public final boolean isBoolean;
+		public final boolean isInteger;
+
+		private OptionModel(Method method, Option option) {
+			this.method = method;
+			this.option = option;
+			this.key = MainBuilder.getOptionLongName(method) != null ? MainBuilder.getOptionLongName(method) : methodName(method);
+			this.isBoolean = MainBuilder.isOptionBoolean(method);
+			this.isInteger = MainBuilder.isOptionInteger(method);
+		}
+	}
+
+	private static final Map<Class<?>, CommandModel> models = new ConcurrentHashMap<Class<?>, CommandModel>();
+
+	public static CommandModel get(Class<?> clazz) {
+		CommandModel model = models.get(clazz);
+		if (model == null) {
+			model = new CommandModel(clazz);
+			models.put(clazz, model);
+		}
+		return model;
+	}
+
+	private final PrefixTrie<OptionModel> longOptions = new PrefixTrie<OptionModel>();
+	private final PrefixTrie<OptionModel> charOptions = new PrefixTrie<OptionModel>();
+
+	private CommandModel(Class<?> clazz) {
+		List<OptionModel> options = new ArrayList<OptionModel>();
+		for (Method m: clazz.getMethods()) {
+			Option opt = m.getAnnotation(Option.class);
+			if (opt == null || !MainBuilder.isOptionEnabled(clazz, opt)) {
+				continue;
+			}
+			OptionModel om = new OptionModel(m, opt);
+			options.add(om);
+			if (!opt.name().equals("")) {
+				add(clazz, longOptions, "--", opt.name(), om);
+			}
+			if (opt.charName().length() == 1) {
+				add(clazz, charOptions, "-", opt.charName(), om);
+			}
+		}
+		// method names (setFooBar => --foobar) are only aliases, so they don't
+		// replace an option with that name
+		for (OptionModel om: options) {
+			String name = methodName(om.method);
+			OptionModel existing = longOptions.get(name);
+			if (existing == null) {
+				longOptions.put(name, om);
+			} else if (existing != om && om.option.name().equals("") && existing.option.name().equals("")) {
+				throw duplicate(clazz, "--" + name, existing, om);
+			}
+		}
+	}
+
+	private static void add(Class<?> clazz, PrefixTrie<OptionModel> trie, String prefix, String name, OptionModel om) {
+		OptionModel existing = trie.get(name);
+		if (existing != null && existing != om) {
+			throw duplicate(clazz, prefix + name, existing, om);
+		}
+		trie.put(name, om);
+	}
+
+	private static IllegalArgumentException duplicate(Class<?> clazz, String name, OptionModel a, OptionModel b) {
+		return new IllegalArgumentException("Duplicate option " + name + " in " + clazz.getName() + ": "
+				+ a.method.getDeclaringClass().getSimpleName() + "." + a.method.getName() + " and "
+				+ b.method.getDeclaringClass().getSimpleName() + "." + b.method.getName());
+	}
+
+	/**
+	 * @return the long option for this name (or unique prefix), or null
+	 */
+	public OptionModel findLong(CharSequence s, int start, int end) {
+		if (start >= end) {
+			return null;
+		}
+		return longOptions.find(s, start, end);
+	}
+
+	/**
+	 * @return true if this is an exact long option name (not a prefix)
+	 */
+	public boolean isLongName(CharSequence s, int start, int end) {
+		return longOptions.get(s, start, end) != null;
+	}
+
+	public boolean isAmbiguous(String name) {
+		return name.length() > 0 && longOptions.isAmbiguous(name);
+	}
+
+	/**
+	 * @return the long option names starting with this prefix
+	 */
+	public List<String> completeLong(String prefix) {
+		return longOptions.complete(prefix);
+	}
+
+	/**
+	 * @return the option for a CmdArgList key (a char name, or a full long name)
+	 */
+	public OptionModel getOption(String key) {
+		if (key.length() == 1 && charOptions.get(key) != null) {
+			return charOptions.get(key);
+		}
+		return longOptions.get(key);
+	}
+
+	public OptionModel getChar(CharSequence s, int idx) {
+		return charOptions.get(s, idx, idx + 1);
+	}
+
+	private static String methodName(Method m) {
+		if (m.getName().startsWith("set")) {
+			return m.getName().substring(3).toLowerCase();
+		}
+		return m.getName().toLowerCase();
+	}
+}
@@ -0,0 +1,389 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.exceptions.MissingExecException;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Writes a static shell completion script (bash, zsh, or fish) for all of the
+ * registered commands, so that tab-completion doesn't need to start a JVM.
+ *
+ * Options that take a value complete filenames, unless the option is an integer.
+ * Boolean options don't take a value. Unnamed arguments complete filenames.
+ * Groups complete their own commands (this loads every group).
+ *
+ * Add it to your program with: builder.addCommand(Completion.class)
+ *
+ * Example (bash): prog completion bash > /etc/bash_completion.d/prog
+ */
+@Command(name = "completion", desc="Generate a shell completion script (bash, zsh, fish)", category="help", hidden=true)
+public class Completion {
+	private class OptSpec {
+		String charName = null;
+		String longName = null;
+		String desc;
+		boolean takesValue;
+		boolean isInt;
+		boolean multiple;
+	}
+
+	private class CmdSpec {
+		String name;
+		String desc;
+		List<OptSpec> opts = new ArrayList<OptSpec>();
+		boolean hasUnnamed = false;
+		// the group's commands (null for a command)
+		List<CmdSpec> subs = null;
+	}
+
+	private MainBuilder builder = null;
+	private OutputStream stdout = System.out;
+	private String shell = null;
+	private String progname = null;
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void setStdout(OutputStream stdout) {
+		this.stdout = stdout;
+	}
+
+	@Option(desc="Program name (default: the MainBuilder program name)", name="prog", helpValue="name")
+	public void setProgName(String progname) {
+		this.progname = progname;
+	}
+
+	@UnnamedArg(name="bash|zsh|fish")
+	public void setShell(String shell) {
+		this.shell = shell;
+	}
+
+	@Exec
+	public void exec() throws CommandArgumentException, MissingExecException {
+		if (progname == null) {
+			progname = builder.getProgName();
+		}
+		if (progname == null) {
+			throw new CommandArgumentException("Missing program name (use --prog)");
+		}
+
+		List<CmdSpec> cmds = buildSpecs(builder);
+		PrintStream out = new PrintStream(stdout);
+		if (shell.equals("bash")) {
+			writeBash(out, progname, cmds);
+		} else if (shell.equals("zsh")) {
+			writeZsh(out, progname, cmds);
+		} else if (shell.equals("fish")) {
+			writeFish(out, progname, cmds);
+		} else {
+			throw new CommandArgumentException("Unknown shell: " + shell);
+		}
+		out.flush();
+	}
+
+	private List<CmdSpec> buildSpecs(MainBuilder builder) throws MissingExecException {
+		SortedMap<String, CmdSpec> cmds = new TreeMap<String, CmdSpec>();
+		for (String name: builder.getCommandNames()) {
+			Class<?> clazz = builder.getCommandClass(name);
+			Command c = clazz.getAnnotation(Command.class);
+			if (c != null && (c.hidden() || c.deprecated())) {
+				continue;
+			}
+			CmdSpec spec = new CmdSpec();
+			spec.name = name;
+			spec.desc = c == null ? "" : c.desc();
+
+			SortedMap<String, OptSpec> opts = new TreeMap<String, OptSpec>();
+			for (Method m: clazz.getMethods()) {
+				if (m.getAnnotation(UnnamedArg.class) != null) {
+					spec.hasUnnamed = true;
+				}
+				Option opt = m.getAnnotation(Option.class);
+				if (opt == null || opt.hide() || !MainBuilder.isOptionEnabled(clazz, opt)) {
+					continue;
+				}
+				OptSpec os = new OptSpec();
+				os.longName = MainBuilder.getOptionLongName(m);
+				if (!opt.charName().equals("")) {
+					os.charName = opt.charName();
+				}
+				os.desc = opt.desc();
+				os.takesValue = !MainBuilder.isOptionBoolean(m);
+				os.isInt = MainBuilder.isOptionInteger(m);
+				os.multiple = opt.allowMultiple();
+				opts.put(os.longName != null ? os.longName : os.charName, os);
+			}
+			spec.opts.addAll(opts.values());
+			cmds.put(name, spec);
+		}
+		for (String name: builder.getGroupNames()) {
+			CmdSpec spec = new CmdSpec();
+			spec.name = name;
+			spec.desc = builder.getGroupDesc(name);
+			spec.subs = buildSpecs(builder.getGroup(name));
+			cmds.put(name, spec);
+		}
+		return new ArrayList<CmdSpec>(cmds.values());
+	}
+
+	private static void writeBash(PrintStream out, String prog, List<CmdSpec> cmds) {
+		String func = "_" + funcName(prog) + "_complete";
+		String names = names(cmds);
+
+		out.println("# bash completion for " + prog);
+		out.println(func + "() {");
+		out.println("    local cur prev");
+		out.println("    cur=\"${COMP_WORDS[COMP_CWORD]}\"");
+		out.println("    prev=\"${COMP_WORDS[COMP_CWORD-1]}\"");
+		out.println("    if [ \"$COMP_CWORD\" -eq 1 ]; then");
+		out.println("        COMPREPLY=( $(compgen -W \"help " + names + "\" -- \"$cur\") )");
+		out.println("        return 0");
+		out.println("    fi");
+		out.println("    case \"${COMP_WORDS[1]}\" in");
+		out.println("        help)");
+		out.println("            COMPREPLY=( $(compgen -W \"" + names + "\" -- \"$cur\") )");
+		out.println("            ;;");
+		writeBashCases(out, "        ", 1, cmds);
+		out.println("    esac");
+		out.println("    return 0");
+		out.println("}");
+		out.println("complete -o filenames -F " + func + " " + prog);
+	}
+
+	/**
+	 * Writes the case entries for these commands (word is the index of the command name in COMP_WORDS)
+	 */
+	private static void writeBashCases(PrintStream out, String indent, int word, List<CmdSpec> cmds) {
+		for (CmdSpec cmd: cmds) {
+			if (cmd.subs != null) {
+				out.println(indent + cmd.name + ")");
+				out.println(indent + "    if [ \"$COMP_CWORD\" -eq " + (word + 1) + " ]; then");
+				out.println(indent + "        COMPREPLY=( $(compgen -W \"" + names(cmd.subs) + "\" -- \"$cur\") )");
+				out.println(indent + "        return 0");
+				out.println(indent + "    fi");
+				out.println(indent + "    case \"${COMP_WORDS[" + (word + 1) + "]}\" in");
+				writeBashCases(out, indent + "        ", word + 1, cmd.subs);
+				out.println(indent + "    esac");
+				out.println(indent + "    ;;");
+				continue;
+			}
+			List<String> fileOpts = new ArrayList<String>();
+			List<String> valOpts = new ArrayList<String>();
+			StringBuilder all = new StringBuilder();
+			for (OptSpec opt: cmd.opts) {
+				for (String flag: flags(opt)) {
+					if (all.length() > 0) {
+						all.append(' ');
+					}
+					all.append(flag);
+					if (opt.takesValue) {
+						if (opt.isInt) {
+							valOpts.add(flag);
+						} else {
+							fileOpts.add(flag);
+						}
+					}
+				}
+			}
+			out.println(indent + cmd.name + ")");
+			if (fileOpts.size() > 0 || valOpts.size() > 0) {
+				out.println(indent + "    case \"$prev\" in");
+				if (fileOpts.size() > 0) {
+					out.println(indent + "        " + join(fileOpts, "|") + ")");
+					out.println(indent + "            COMPREPLY=( $(compgen -f -- \"$cur\") )");
+					out.println(indent + "            return 0 ;;");
+				}
+				if (valOpts.size() > 0) {
+					out.println(indent + "        " + join(valOpts, "|") + ")");
+					out.println(indent + "            COMPREPLY=()");
+					out.println(indent + "            return 0 ;;");
+				}
+				out.println(indent + "    esac");
+			}
+			out.println(indent + "    if [[ \"$cur\" == -* ]]; then");
+			out.println(indent + "        COMPREPLY=( $(compgen -W \"" + all + "\" -- \"$cur\") )");
+			if (cmd.hasUnnamed) {
+				out.println(indent + "    else");
+				out.println(indent + "        COMPREPLY=( $(compgen -f -- \"$cur\") )");
+			}
+			out.println(indent + "    fi");
+			out.println(indent + "    ;;");
+		}
+	}
+
+	private static void writeZsh(PrintStream out, String prog, List<CmdSpec> cmds) {
+		String func = "_" + funcName(prog);
+		out.println("#compdef " + prog);
+		out.println(func + "() {");
+		out.println("    local -a commands");
+		writeZshCommands(out, "    ", cmds, true);
+		out.println("    shift words");
+		out.println("    (( CURRENT-- ))");
+		out.println("    case \"$words[1]\" in");
+		out.println("        help)");
+		out.println("            # everything but help");
+		out.println("            shift commands");
+		out.println("            _describe 'command' commands");
+		out.println("            ;;");
+		writeZshCases(out, "        ", cmds);
+		out.println("    esac");
+		out.println("}");
+		out.println(func + " \"$@\"");
+	}
+
+	/**
+	 * Sets $commands to these commands, and completes them if this is the current word
+	 */
+	private static void writeZshCommands(PrintStream out, String indent, List<CmdSpec> cmds, boolean help) {
+		out.println(indent + "commands=(");
+		if (help) {
+			out.println(indent + "    'help:Help for a specific command'");
+		}
+		for (CmdSpec cmd: cmds) {
+			out.println(indent + "    '" + zshEscape(cmd.name + ":" + cmd.desc.replace(":", "\\:")) + "'");
+		}
+		out.println(indent + ")");
+		out.println(indent + "if (( CURRENT == 2 )); then");
+		out.println(indent + "    _describe 'command' commands");
+		out.println(indent + "    return");
+		out.println(indent + "fi");
+	}
+
+	private static void writeZshCases(PrintStream out, String indent, List<CmdSpec> cmds) {
+		for (CmdSpec cmd: cmds) {
+			out.println(indent + cmd.name + ")");
+			if (cmd.subs != null) {
+				writeZshCommands(out, indent + "    ", cmd.subs, false);
+				out.println(indent + "    shift words");
+				out.println(indent + "    (( CURRENT-- ))");
+				out.println(indent + "    case \"$words[1]\" in");
+				writeZshCases(out, indent + "        ", cmd.subs);
+				out.println(indent + "    esac");
+				out.println(indent + "    ;;");
+				continue;
+			}
+			out.print(indent + "    _arguments -s");
+			for (OptSpec opt: cmd.opts) {
+				String desc = "[" + zshEscape(opt.desc.replace("[", "\\[").replace("]", "\\]").replace(":", "\\:")) + "]";
+				String action = "";
+				if (opt.takesValue) {
+					action = opt.isInt ? ":N: " : ":file:_files";
+				}
+				List<String> flags = flags(opt);
+				out.println(" \\");
+				if (flags.size() == 1) {
+					out.print(indent + "        '" + (opt.multiple ? "*" : "") + flags.get(0) + desc + action + "'");
+				} else {
+					String exclude = opt.multiple ? "*" : "'(" + join(flags, " ") + ")'";
+					out.print(indent + "        " + exclude + "{" + join(flags, ",") + "}'" + desc + action + "'");
+				}
+			}
+			if (cmd.hasUnnamed) {
+				out.println(" \\");
+				out.print(indent + "        '*:file:_files'");
+			}
+			out.println();
+			out.println(indent + "    ;;");
+		}
+	}
+
+	private static void writeFish(PrintStream out, String prog, List<CmdSpec> cmds) {
+		out.println("# fish completion for " + prog);
+		out.println("complete -c " + prog + " -f");
+		out.println("complete -c " + prog + " -n __fish_use_subcommand -a help -d 'Help for a specific command'");
+		out.println("complete -c " + prog + " -n '__fish_seen_subcommand_from help' -a '" + names(cmds) + "'");
+		writeFishCommands(out, prog, null, cmds);
+	}
+
+	/**
+	 * @param parent the condition for the enclosing group (null at the top level)
+	 */
+	private static void writeFishCommands(PrintStream out, String prog, String parent, List<CmdSpec> cmds) {
+		String choose = parent == null ? "__fish_use_subcommand" : parent + "; and not __fish_seen_subcommand_from " + names(cmds);
+		for (CmdSpec cmd: cmds) {
+			out.println("complete -c " + prog + " -n '" + choose + "' -a " + cmd.name + " -d '" + shEscape(cmd.desc) + "'");
+		}
+		for (CmdSpec cmd: cmds) {
+			String seen = (parent == null ? "" : parent + "; and ") + "__fish_seen_subcommand_from " + cmd.name;
+			if (cmd.subs != null) {
+				writeFishCommands(out, prog, seen, cmd.subs);
+				continue;
+			}
+			String cond = " -n '" + seen + "'";
+			for (OptSpec opt: cmd.opts) {
+				StringBuilder sb = new StringBuilder("complete -c " + prog + cond);
+				if (opt.charName != null) {
+					sb.append(" -s " + opt.charName);
+				}
+				if (opt.longName != null) {
+					sb.append(" -l " + opt.longName);
+				}
+				if (opt.takesValue) {
+					sb.append(opt.isInt ? " -x" : " -r -F");
+				}
+				sb.append(" -d '" + shEscape(opt.desc) + "'");
+				out.println(sb.toString());
+			}
+			if (cmd.hasUnnamed) {
+				out.println("complete -c " + prog + cond + " -F");
+			}
+		}
+	}
+
+	private static String names(List<CmdSpec> cmds) {
+		StringBuilder names = new StringBuilder();
+		for (CmdSpec cmd: cmds) {
+			if (names.length() > 0) {
+				names.append(' ');
+			}
+			names.append(cmd.name);
+		}
+		return names.toString();
+	}
+
+	private static List<String> flags(OptSpec opt) {
+		List<String> flags = new ArrayList<String>();
+		if (opt.charName != null) {
+			flags.add("-" + opt.charName);
+		}
+		if (opt.longName != null) {
+			flags.add("--" + opt.longName);
+		}
+		return flags;
+	}
+
+	private static String join(List<String> vals, String delim) {
+		StringBuilder sb = new StringBuilder();
+		for (String v: vals) {
+			if (sb.length() > 0) {
+				sb.append(delim);
+			}
+			sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	private static String funcName(String prog) {
+		return prog.replaceAll("[^A-Za-z0-9_]", "_");
+	}
+
+	private static String shEscape(String s) {
+		return s.replace("'", "\\'");
+	}
+
+	private static String zshEscape(String s) {
+		return s.replace("'", "'\\''");
+	}
+}
@@ -0,0 +1,126 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.metrics.Journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Summarizes the invocation journal (see MainBuilder.setJournal): the number of
+ * runs, failures, and time, memory and input size percentiles for each command,
+ * and optionally for each command and option.
+ *
+ * Add it to your program with: builder.addCommand(JournalReport.class)
+ */
+@Command(name = "journal-report", desc="Summarize the command journal", category="help")
+public class JournalReport {
+	private MainBuilder builder = null;
+	private OutputStream stdout = System.out;
+	private List<String> filenames = null;
+	private boolean byOption = false;
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void setStdout(OutputStream stdout) {
+		this.stdout = stdout;
+	}
+
+	@Option(desc="Also summarize each option, for each command", name="by-option")
+	public void setByOption(boolean byOption) {
+		this.byOption = byOption;
+	}
+
+	@UnnamedArg(name="journal...", required=false)
+	public void setFilenames(List<String> filenames) {
+		this.filenames = filenames;
+	}
+
+	@Exec
+	public void exec() throws IOException, CommandArgumentException {
+		List<File> files = new ArrayList<File>();
+		if (filenames != null) {
+			for (String fname: filenames) {
+				files.add(new File(fname));
+			}
+		} else if (builder != null && builder.getJournal() != null) {
+			files.add(builder.getJournal().getFile());
+		} else {
+			throw new CommandArgumentException("Missing journal file");
+		}
+
+		SortedMap<String, List<Journal.Entry>> groups = new TreeMap<String, List<Journal.Entry>>();
+		for (File f: files) {
+			for (Journal.Entry e: Journal.read(f)) {
+				add(groups, e.command, e);
+				if (byOption) {
+					for (String opt: e.options) {
+						add(groups, e.command + " --" + opt, e);
+					}
+				}
+			}
+		}
+
+		PrintStream ps = new PrintStream(stdout);
+		ps.println("command\truns\tfailed\ttotal_p50_ms\ttotal_p90_ms\ttotal_p99_ms\texec_p50_ms\tstartup_p50_ms\tpeak_mem_p90_mb\tinput_p50_mb");
+		for (String key: groups.keySet()) {
+			List<Journal.Entry> entries = groups.get(key);
+			int n = entries.size();
+			int failed = 0;
+			double[] total = new double[n];
+			double[] exec = new double[n];
+			double[] startup = new double[n];
+			double[] mem = new double[n];
+			double[] input = new double[n];
+			for (int i = 0; i < n; i++) {
+				Journal.Entry e = entries.get(i);
+				if (e.exitCode != 0) {
+					failed++;
+				}
+				total[i] = e.totalNanos / 1000000.0;
+				exec[i] = e.execNanos / 1000000.0;
+				startup[i] = (e.parseNanos + e.bindNanos) / 1000000.0;
+				mem[i] = e.peakMemory / (1024.0 * 1024.0);
+				input[i] = e.inputBytes / (1024.0 * 1024.0);
+			}
+			Arrays.sort(total);
+			Arrays.sort(exec);
+			Arrays.sort(startup);
+			Arrays.sort(mem);
+			Arrays.sort(input);
+			ps.println(String.format(Locale.US, "%s\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f", key, n, failed,
+					percentile(total, 0.5), percentile(total, 0.9), percentile(total, 0.99), percentile(exec, 0.5),
+					percentile(startup, 0.5), percentile(mem, 0.9), percentile(input, 0.5)));
+		}
+		ps.flush();
+	}
+
+	private static void add(SortedMap<String, List<Journal.Entry>> groups, String key, Journal.Entry e) {
+		if (!groups.containsKey(key)) {
+			groups.put(key, new ArrayList<Journal.Entry>());
+		}
+		groups.get(key).add(e);
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted values
+	 */
+	private static double percentile(double[] sorted, double q) {
+		int idx = (int) Math.ceil(q * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+	}
+}
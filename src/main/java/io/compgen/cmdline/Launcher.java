@@ -0,0 +1,209 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.exceptions.MissingExecException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Writes a launcher script and command index that start the JVM with the tuning
+ * hints from each command's @Command annotation (gc, maxHeap, initialHeap,
+ * quickStart, cdsArchive, jvmArgs).
+ *
+ * The index is a tab-delimited file (command, JVM flags as shell-quoted words).
+ * The launcher looks up its first argument (or first two, for commands in a
+ * group) in the index using only shell builtins, so no extra processes are
+ * started. Commands without hints (and help) use the default flags (the "*"
+ * line).
+ *
+ * Add it to your program with: builder.addCommand(Launcher.class)
+ */
+@Command(name = "launcher", desc="Write a launcher script with per-command JVM flags", category="help", hidden=true)
+public class Launcher {
+	private MainBuilder builder = null;
+	private PrintStream stderr = System.err;
+	private String launcher = null;
+	private String mainClass = null;
+	private String archive = null;
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void setStderr(PrintStream stderr) {
+		this.stderr = stderr;
+	}
+
+	@Option(desc="Launcher script filename (default: prog.sh)", name="launcher", helpValue="fname")
+	public void setLauncher(String launcher) {
+		this.launcher = launcher;
+	}
+
+	@Option(desc="Main class (default: detected from this JVM)", name="main", helpValue="class")
+	public void setMainClass(String mainClass) {
+		this.mainClass = mainClass;
+	}
+
+	@Option(desc="Default CDS archive for commands that don't set one", name="archive", helpValue="fname")
+	public void setArchive(String archive) {
+		this.archive = archive;
+	}
+
+	@Exec
+	public void exec() throws IOException, CommandArgumentException, MissingExecException {
+		String prog = builder.getProgName() == null ? "prog" : builder.getProgName();
+		if (launcher == null) {
+			launcher = prog + ".sh";
+		}
+		File script = new File(launcher).getAbsoluteFile();
+		write(builder, script, javaPath(), mainTarget(mainClass, false), archive == null ? null : new File(archive).getAbsolutePath());
+		stderr.println("Wrote launcher: " + script);
+	}
+
+	/**
+	 * @return the JVM flags for the hints on this command
+	 */
+	public static List<String> jvmFlags(Command c, String defaultArchive) {
+		List<String> flags = new ArrayList<String>();
+		if (c != null) {
+			if (!c.gc().equals("")) {
+				flags.add("-XX:+Use" + c.gc() + "GC");
+			}
+			if (!c.initialHeap().equals("")) {
+				flags.add("-Xms" + c.initialHeap());
+			}
+			if (!c.maxHeap().equals("")) {
+				flags.add("-Xmx" + c.maxHeap());
+			}
+			if (c.quickStart()) {
+				flags.add("-XX:TieredStopAtLevel=1");
+			}
+			for (String arg: c.jvmArgs()) {
+				flags.add(arg);
+			}
+		}
+		if (c != null && !c.cdsArchive().equals("")) {
+			flags.add("-XX:SharedArchiveFile=" + new File(c.cdsArchive()).getAbsolutePath());
+			flags.add("-Xshare:auto");
+		} else if (defaultArchive != null) {
+			flags.add("-XX:SharedArchiveFile=" + defaultArchive);
+			flags.add("-Xshare:auto");
+		}
+		return flags;
+	}
+
+	/**
+	 * Writes the launcher script and its command index (script name + ".cmdidx")
+	 */
+	public static void write(MainBuilder builder, File script, String java, List<String> target, String defaultArchive) throws IOException, MissingExecException {
+		File index = new File(script.getPath() + ".cmdidx");
+
+		PrintStream ps = new PrintStream(new FileOutputStream(index));
+		try {
+			ps.println("*\t" + quote(jvmFlags(null, defaultArchive)));
+			SortedMap<String, Class<?>> cmds = builder.getAllCommands();
+			for (String cmd: cmds.keySet()) {
+				Command c = cmds.get(cmd).getAnnotation(Command.class);
+				ps.println(cmd + "\t" + quote(jvmFlags(c, defaultArchive)));
+			}
+		} finally {
+			ps.close();
+		}
+
+		ps = new PrintStream(new FileOutputStream(script));
+		try {
+			ps.println("#!/bin/sh");
+			ps.println("# Generated launcher: starts the JVM with the flags for the command given");
+			ps.println("# as the first argument (or \"group command\"), from the command index.");
+			ps.println("INDEX=" + quote(index.getAbsolutePath()));
+			ps.println("TAB=\"$(printf '\\t')\"");
+			ps.println("FLAGS=\"\"");
+			ps.println("if [ -f \"$INDEX\" ]; then");
+			ps.println("    while IFS=\"$TAB\" read -r name flags; do");
+			ps.println("        if [ \"$name\" = \"*\" ]; then");
+			ps.println("            FLAGS=\"$flags\"");
+			ps.println("        elif [ $# -gt 0 ] && { [ \"$name\" = \"$1\" ] || [ \"$name\" = \"$1 ${2:-}\" ]; }; then");
+			ps.println("            FLAGS=\"$flags\"");
+			ps.println("            break");
+			ps.println("        fi");
+			ps.println("    done < \"$INDEX\"");
+			ps.println("fi");
+			ps.println("set -- " + quote(target) + " \"$@\"");
+			ps.println("# the flags are quoted words, so paths with spaces are kept together");
+			ps.println("eval \"set -- $FLAGS\"' \"$@\"'");
+			ps.println("exec " + quote(java) + " $JAVA_OPTS \"$@\"");
+		} finally {
+			ps.close();
+		}
+		script.setExecutable(true);
+	}
+
+	static String javaPath() {
+		return new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+	}
+
+	/**
+	 * @return classpath arguments and main class (or -jar and the jar) for this JVM
+	 */
+	static List<String> mainTarget(String mainClass, boolean jarsOnly) throws CommandArgumentException {
+		List<String> target = new ArrayList<String>();
+		String main = mainClass;
+		if (main == null) {
+			String cmdline = System.getProperty("sun.java.command");
+			if (cmdline == null || cmdline.trim().equals("")) {
+				throw new CommandArgumentException("Unable to detect the main class (use --main)");
+			}
+			main = cmdline.split(" ")[0];
+		}
+
+		if (main.endsWith(".jar")) {
+			target.add("-jar");
+			target.add(new File(main).getAbsolutePath());
+		} else {
+			StringBuilder cp = new StringBuilder();
+			for (String el: System.getProperty("java.class.path").split(File.pathSeparator)) {
+				if (el.equals("")) {
+					continue;
+				}
+				if (jarsOnly && new File(el).isDirectory()) {
+					throw new CommandArgumentException("AppCDS archives require the classpath to only contain jar files: " + el);
+				}
+				if (cp.length() > 0) {
+					cp.append(File.pathSeparator);
+				}
+				cp.append(new File(el).getAbsolutePath());
+			}
+			target.add("-cp");
+			target.add(cp.toString());
+			target.add(main);
+		}
+		return target;
+	}
+
+	/**
+	 * @return the values as single-quoted shell words
+	 */
+	static String quote(List<String> vals) {
+		StringBuilder sb = new StringBuilder();
+		for (String v: vals) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(quote(v));
+		}
+		return sb.toString();
+	}
+
+	static String quote(String s) {
+		return "'" + s.replace("'", "'\\''") + "'";
+	}
+}
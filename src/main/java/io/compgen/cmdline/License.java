@@ -4,11 +4,19 @@ import io.compgen.cmdline.MainBuilder;
 import io.compgen.cmdline.annotation.Command;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Command(name = "license", desc="Show the license", category="help")
 public class License {
+	private OutputStream stdout = System.out;
+
+	public void setStdout(OutputStream stdout) {
+		this.stdout = stdout;
+	}
+
 	public void exec() throws IOException {
-		System.out.println(MainBuilder.readFile("LICENSE"));
+		stdout.write(MainBuilder.readResource("LICENSE"));
+		stdout.write('\n');
+		stdout.flush();
 	}
 }
-
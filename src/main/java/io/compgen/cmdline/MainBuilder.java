@@ -1,29 +1,56 @@
 package io.compgen.cmdline;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.compgen.cmdline.CommandModel.OptionModel;
 import io.compgen.cmdline.annotation.Cleanup;
+import io.compgen.cmdline.cache.ResourceCache;
+import io.compgen.cmdline.cache.ResultCache;
 import io.compgen.cmdline.annotation.Command;
 import io.compgen.cmdline.annotation.Exec;
 import io.compgen.cmdline.annotation.Option;
 import io.compgen.cmdline.annotation.UnknownArgs;
 import io.compgen.cmdline.annotation.UnnamedArg;
 import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.exceptions.CommandFailedException;
 import io.compgen.cmdline.exceptions.MissingCommandException;
 import io.compgen.cmdline.exceptions.MissingExecException;
 import io.compgen.cmdline.exceptions.UnknownArgumentException;
+import io.compgen.cmdline.impl.CancellationToken;
+import io.compgen.cmdline.impl.Checkpoint;
+import io.compgen.cmdline.impl.ShardSpec;
+import io.compgen.cmdline.io.ByteRingBuffer;
+import io.compgen.cmdline.io.PipeClosedException;
+import io.compgen.cmdline.log.Level;
+import io.compgen.cmdline.log.Log;
+import io.compgen.cmdline.metrics.Journal;
+import io.compgen.cmdline.metrics.MetricRegistry;
+import io.compgen.cmdline.progress.Progress;
 
 public class MainBuilder {
 	public class CmdArgList {
@@ -71,6 +98,12 @@ public class MainBuilder {
 		public final List<String> unnamed;
 		private List<String> usedArgs = new ArrayList<String>();
 
+		// phase timings (for the journal)
+		private long parseNanos = 0;
+		private long bindNanos = 0;
+		private long execNanos = 0;
+		private long cleanupNanos = 0;
+
 		public CmdArgs(CmdArgList cmdargs, List<String> unnamed) { //, Map<String, String> unknown) {
 			this.cmdargs = cmdargs;
 			this.unnamed = (unnamed == null) ? null: Collections.unmodifiableList(unnamed);
@@ -115,7 +148,38 @@ public class MainBuilder {
 		}
 	}
 
-	private static Map<String, Class<?>> execs = new HashMap<String, Class<?>>();
+	private class Group {
+		private final String name;
+		private final String desc;
+		private final String category;
+		private final CommandGroup loader;
+		private MainBuilder builder = null;
+
+		private Group(String name, String desc, String category, CommandGroup loader) {
+			this.name = name;
+			this.desc = desc;
+			this.category = category;
+			this.loader = loader;
+		}
+
+		private synchronized MainBuilder getBuilder() throws MissingExecException {
+			if (builder == null) {
+				MainBuilder child = newChild(name);
+				loader.register(child);
+				log.debug("Loaded group: %s (%s commands)", name, child.execs.size());
+				builder = child;
+			}
+			return builder;
+		}
+	}
+
+	private final Map<String, Class<?>> execs = new HashMap<String, Class<?>>();
+	private final Map<String, Group> groups = new HashMap<String, Group>();
+	// command and group names by unique prefix (rebuilt after addCommand/addGroup)
+	private volatile PrefixTrie<String> commandTrie = null;
+
+	// how long a SIGINT/SIGTERM waits for @Cleanup before the JVM exits
+	private static final long CANCEL_GRACE_MILLIS = 10000;
 
 	private String defaultCategory = "General";
 	private String progname = null;
@@ -123,45 +187,265 @@ public class MainBuilder {
 	private String helpHeader = null;
 	private String helpFooter = null;
 	
-	private boolean verbose = false;
+	private final Log log = new Log(System.err, Level.WARN);
+	// the number of run() calls in progress, so the last one can stop the log's writer thread
+	private final AtomicInteger activeRuns = new AtomicInteger();
+
+	private MetricRegistry metrics = null;
+	private String metricsFilename = null;
+	private MetricRegistry.Format metricsFormat = MetricRegistry.Format.PROMETHEUS;
+	private long metricsInterval = 0;
+
+	private long progressInterval = 1000;
+
+	private ResultCache resultCache = null;
+	private ResourceCache resourceCache = null;
+	private long resourceCacheSize = Runtime.getRuntime().maxMemory() / 4;
+
+	private String pipelineSeparator = null;
+	private int pipelineBufferSize = 1024 * 1024;
+
+	private Journal journal = null;
+	// the groups leading to this builder ("bam "), for the journal
+	private String path = "";
 	
 	public MainBuilder() {};
 	public MainBuilder(boolean verbose) {
-		this.verbose = verbose;
+		if (verbose) {
+			log.setLevel(Level.DEBUG);
+		}
 	};
 	
 	private String[] categoryOrder = null;
+
+	// help text is rendered once and then written out as bytes (cleared when
+	// a command is added or the header/footer/etc changes)
+	private volatile byte[] commandsHelp = null;
+	private final Map<Class<?>, byte[]> commandHelp = new ConcurrentHashMap<Class<?>, byte[]>();
+
+	private static final Map<String, byte[]> resources = new ConcurrentHashMap<String, byte[]>();
 	
 	public MainBuilder setCategoryOrder(String[] categoryOrder) {
 		this.categoryOrder = categoryOrder;
+		clearHelp();
 		return this;
 	}	
 	
 	public MainBuilder setDefaultUsage(String defaultUsage) {
 		this.defaultUsage = defaultUsage;
+		clearHelp();
 		return this;
 	}
 
 	public MainBuilder setProgName(String progname) {
 		this.progname = progname;
+		clearHelp();
 		return this;
 	}
 
 	public MainBuilder setHelpHeader(String helpHeader) {
 		this.helpHeader = helpHeader;
+		clearHelp();
 		return this;
 	}
 
 	public MainBuilder setHelpFooter(String helpFooter) {
 		this.helpFooter = helpFooter;
+		clearHelp();
 		return this;
 	}
 
 	public MainBuilder setDefaultCategory(String defaultCategory) {
 		this.defaultCategory = defaultCategory;
+		clearHelp();
+		return this;
+	}
+
+	private void clearHelp() {
+		commandsHelp = null;
+		commandHelp.clear();
+	}
+
+	/**
+	 * Write a metrics snapshot to this file at the end of the run
+	 * @param intervalSecs if > 0, also write a snapshot every N seconds while the command runs
+	 */
+	public MainBuilder setMetricsOutput(String filename, MetricRegistry.Format format, long intervalSecs) {
+		this.metricsFilename = filename;
+		this.metricsFormat = format;
+		this.metricsInterval = intervalSecs;
 		return this;
 	}
 
+	/**
+	 * Cache the outputs of @Command(cacheable=true) commands in this directory,
+	 * keeping at most maxBytes of results.
+	 * 
+	 * @param hashContents include a hash of each input file's contents in the key
+	 * (default is to only use the path, size and modification time)
+	 */
+	public MainBuilder setResultCache(String dir, long maxBytes, boolean hashContents) {
+		this.resultCache = new ResultCache(new File(dir), maxBytes);
+		this.resultCache.setHashContents(hashContents);
+		return this;
+	}
+
+	/**
+	 * Memory budget for shared resources that aren't in use (see ResourceCache).
+	 * (default: 1/4 of the max heap)
+	 */
+	public MainBuilder setResourceCacheSize(long maxBytes) {
+		this.resourceCacheSize = maxBytes;
+		synchronized (this) {
+			if (resourceCache != null) {
+				resourceCache.setMaxBytes(maxBytes);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * The resources (indexes, models, etc) shared by the commands run from this
+	 * builder. Commands get this by defining setResourceCache(ResourceCache).
+	 */
+	public synchronized ResourceCache getResourceCache() {
+		if (resourceCache == null) {
+			resourceCache = new ResourceCache(resourceCacheSize);
+		}
+		return resourceCache;
+	}
+
+	/**
+	 * Allow running multiple commands as an in-process pipeline, with stages
+	 * separated by this argument. Ex: with "::", 
+	 * 
+	 *   prog filter in.txt :: annotate - :: stats -
+	 *
+	 * runs all three commands in one JVM, each on its own thread, with each stage's
+	 * stdout connected to the next stage's stdin. (default: disabled)
+	 */
+	public MainBuilder setPipelineSeparator(String pipelineSeparator) {
+		this.pipelineSeparator = pipelineSeparator;
+		return this;
+	}
+
+	/**
+	 * Size of the in-memory buffer between pipeline stages (default: 1MB)
+	 */
+	public MainBuilder setPipelineBufferSize(int pipelineBufferSize) {
+		this.pipelineBufferSize = pipelineBufferSize;
+		return this;
+	}
+
+	/**
+	 * Append a record for each command run (timings, options, input sizes, exit
+	 * code, peak memory) to this file. See Journal and JournalReport.
+	 */
+	public MainBuilder setJournal(String filename) {
+		this.journal = filename == null ? null : new Journal(filename);
+		return this;
+	}
+
+	public Journal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * How often the progress line is redrawn (default: 1000ms)
+	 */
+	public MainBuilder setProgressInterval(long millis) {
+		this.progressInterval = millis;
+		return this;
+	}
+
+	/**
+	 * The builder's log (for argument parsing and registration). Each command
+	 * gets its own Log, writing to that run's stderr, with this log's level.
+	 */
+	public Log getLog() {
+		return log;
+	}
+
+	public synchronized MetricRegistry getMetrics() {
+		if (metrics == null) {
+			metrics = new MetricRegistry();
+		}
+		return metrics;
+	}
+
+	/**
+	 * Adds a group of subcommands (prog name cmd ...). The group's commands aren't
+	 * registered until the group is used (see CommandGroup).
+	 */
+	public MainBuilder addGroup(String name, String desc, CommandGroup group) {
+		return addGroup(name, desc, "", group);
+	}
+
+	public MainBuilder addGroup(String name, String desc, String category, CommandGroup group) {
+		log.debug("Added group: %s", name);
+		groups.put(name, new Group(name, desc, category, group));
+		commandTrie = null;
+		clearHelp();
+		return this;
+	}
+
+	public SortedSet<String> getGroupNames() {
+		return new TreeSet<String>(groups.keySet());
+	}
+
+	/**
+	 * @return the builder for this group's commands (this will load the group)
+	 */
+	public MainBuilder getGroup(String name) throws MissingExecException {
+		Group g = groups.get(name);
+		return g == null ? null : g.getBuilder();
+	}
+
+	public String getGroupDesc(String name) {
+		Group g = groups.get(name);
+		return g == null ? null : g.desc;
+	}
+
+	/**
+	 * @return every command class by its full name ("cmd" or "group cmd"),
+	 * including the commands in groups (this will load all of the groups)
+	 */
+	public SortedMap<String, Class<?>> getAllCommands() throws MissingExecException {
+		SortedMap<String, Class<?>> all = new TreeMap<String, Class<?>>(execs);
+		for (String name: getGroupNames()) {
+			for (Map.Entry<String, Class<?>> e: getGroup(name).getAllCommands().entrySet()) {
+				all.put(name + " " + e.getKey(), e.getValue());
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * A builder for a group, with this builder's settings
+	 */
+	private MainBuilder newChild(String name) {
+		MainBuilder child = new MainBuilder();
+		child.log.setLevel(log.getLevel());
+		child.progname = progname == null ? name : progname + " " + name;
+		child.helpHeader = helpHeader;
+		child.helpFooter = helpFooter;
+		child.defaultCategory = defaultCategory;
+		child.metricsFilename = metricsFilename;
+		child.metricsFormat = metricsFormat;
+		child.metricsInterval = metricsInterval;
+		if (metricsFilename != null) {
+			child.metrics = getMetrics();
+		}
+		child.progressInterval = progressInterval;
+		child.resultCache = resultCache;
+		child.pipelineSeparator = pipelineSeparator;
+		child.pipelineBufferSize = pipelineBufferSize;
+		child.journal = journal;
+		child.resourceCache = getResourceCache();
+		child.path = path + name + " ";
+		return child;
+	}
+
 	
 	public MainBuilder addCommand(Class<?> clazz) throws MissingExecException {
 		String name = clazz.getSimpleName();
@@ -177,11 +461,14 @@ public class MainBuilder {
 			throw new MissingExecException("Could not find a valid @Exec method for class: "+clazz.getName());
 		}
 
-		if (verbose) {
-			System.err.println("Added command: " + name + " => "+clazz.getName());
-		}
+		// fails if two options have the same name
+		CommandModel.get(clazz);
+
+		log.debug("Added command: %s => %s", name, clazz.getName());
 		
 		execs.put(name, clazz);
+		commandTrie = null;
+		clearHelp();
 		return this;
 	}
 
@@ -190,7 +477,17 @@ public class MainBuilder {
 	}
 
 	public void showCommands(OutputStream out) throws MissingCommandException {
-		PrintStream ps = new PrintStream(out);
+		byte[] buf = commandsHelp;
+		if (buf == null) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			writeCommands(new PrintStream(baos));
+			buf = baos.toByteArray();
+			commandsHelp = buf;
+		}
+		writeBytes(buf, out);
+	}
+
+	private void writeCommands(PrintStream ps) throws MissingCommandException {
 		if (helpHeader != null) {
 			ps.println(helpHeader);
 			ps.println();
@@ -204,7 +501,9 @@ public class MainBuilder {
 		boolean hasExperimental = false;
 		
 		int minsize = 4;
-		String spacer = "    ";
+		for (String name : groups.keySet()) {
+			minsize = Math.max(minsize, name.length() + 4);
+		}
 		for (String cmd : execs.keySet()) {
 			if (cmd.length() > minsize) {
 	            Command c = execs.get(cmd).getAnnotation(Command.class);
@@ -236,16 +535,13 @@ public class MainBuilder {
 				}
 
 				if (!c.desc().equals("")) {
-					spacer = "";
-					for (int i = c.experimental() ? cmd.length()+1: cmd.length(); i < minsize; i++) {
-						spacer += " ";
+					StringBuilder sb = new StringBuilder("  ").append(cmd);
+					if (c.experimental()) {
+						sb.append('*');
 					}
-					spacer += " - ";
-					if (c.experimental()) { 
-                        progs.get(cat).add("  " + cmd + "*" + spacer + c.desc());
-                    } else {
-					    progs.get(cat).add("  " + cmd + spacer + c.desc());
-				    }   
+					pad(sb, minsize + 2);
+					sb.append(" - ").append(c.desc());
+					progs.get(cat).add(sb.toString());
 				} else {
                     if (c.experimental()) { 
                         progs.get(cat).add("  " + cmd + "*");
@@ -258,6 +554,19 @@ public class MainBuilder {
 			}
 		}
 
+		for (Group g : groups.values()) {
+			String cat = g.category.equals("") ? defaultCategory: g.category;
+			if (!progs.containsKey(cat)) {
+				progs.put(cat, new ArrayList<String>());
+			}
+			StringBuilder sb = new StringBuilder("  ").append(g.name).append(" ...");
+			if (!g.desc.equals("")) {
+				pad(sb, minsize + 2);
+				sb.append(" - ").append(g.desc);
+			}
+			progs.get(cat).add(sb.toString());
+		}
+
 		List<String> cats = new ArrayList<String>();
 		if (categoryOrder == null) {
 			cats.addAll(progs.keySet());
@@ -309,14 +618,25 @@ public class MainBuilder {
 	}
 
 	public void showCommandHelp(String cmd, OutputStream out) throws MissingCommandException {
-		if (!execs.containsKey(cmd)) {
+		Class<?> clazz = findCommand(cmd);
+		if (clazz == null) {
 			throw new MissingCommandException();
 		}
-		Class<?> clazz = execs.get(cmd);
 		showCommandHelp(clazz, out);
 	}
 	
 	public void showCommandHelp(Class<?> clazz, OutputStream out) throws MissingCommandException {
+		byte[] buf = commandHelp.get(clazz);
+		if (buf == null) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			writeCommandHelp(clazz, new PrintStream(baos));
+			buf = baos.toByteArray();
+			commandHelp.put(clazz, buf);
+		}
+		writeBytes(buf, out);
+	}
+
+	private void writeCommandHelp(Class<?> clazz, PrintStream ps) throws MissingCommandException {
 		SortedMap<String, OptionHelp> opts = new TreeMap<String, OptionHelp>();
 		SortedMap<String, OptionHelp> reqOptions = new TreeMap<String, OptionHelp>();
 		int minsize = 4;
@@ -325,7 +645,7 @@ public class MainBuilder {
 		for (Method m: clazz.getMethods()) {
 			Option opt = m.getAnnotation(Option.class);
 			if (opt != null) {
-				if (opt.hide()) {
+				if (opt.hide() || !isOptionEnabled(clazz, opt)) {
 					continue;
 				}
 				String k = "";
@@ -385,8 +705,6 @@ public class MainBuilder {
 			}
 		}
 
-		PrintStream ps = new PrintStream(out);
-		
 		if (helpHeader != null) {
 			ps.println(helpHeader);
 			ps.println();
@@ -423,37 +741,7 @@ public class MainBuilder {
 		}
 		
 		for (String k:reqOptions.keySet()) {
-			String spacer = "";
-			OptionHelp optHelp = reqOptions.get(k);
-			for (int i=optHelp.size(); i<minsize; i++) {
-				spacer += " ";
-			}
-
-			String s = "  ";
-			
-			if (!optHelp.charName.equals("")) {
-				s += "-" + optHelp.charName;
-				if (!optHelp.name.equals("")) {
-					s += " ";
-				}
-			} else if (showCharOptions) {
-				s += "   ";
-			}
-			
-			if (!optHelp.name.equals("")) {
-				s += "--" + optHelp.name;
-			}
-			
-			if (!optHelp.isBoolean) {
-				s += " " + optHelp.helpVal;
-			}
-			if (optHelp.name.equals("")) {
-				s += "    ";
-			}
-
-			s += spacer + "  : " + optHelp.desc;
-			
-			ps.println(s);
+			ps.println(formatOption(reqOptions.get(k), minsize, showCharOptions));
 			
 		}
 		if (opts.size() > 0) {
@@ -462,37 +750,7 @@ public class MainBuilder {
 		}
 		
 		for (String k:opts.keySet()) {
-			String spacer = "";
-			OptionHelp optHelp = opts.get(k);
-			for (int i=optHelp.size(); i<minsize; i++) {
-				spacer += " ";
-			}
-
-			String s = "  ";
-			
-			if (!optHelp.charName.equals("")) {
-				s += "-" + optHelp.charName;
-				if (!optHelp.name.equals("")) {
-					s += " ";
-				}
-			} else if (showCharOptions) {
-				s += "   ";
-			}
-			
-			if (!optHelp.name.equals("")) {
-				s += "--" + optHelp.name;
-			}
-			
-			if (!optHelp.isBoolean) {
-				s += " " + optHelp.helpVal;
-			}
-			if (optHelp.name.equals("")) {
-				s += "    ";
-			}
-
-			s += spacer + "  : " + optHelp.desc;
-			
-			ps.println(s);
+			ps.println(formatOption(opts.get(k), minsize, showCharOptions));
 			
 //			int spacePos = k.indexOf(' ');		
 //			if (k.endsWith("  ")) {
@@ -521,45 +779,429 @@ public class MainBuilder {
     	ps.println();
 	}
 
+	private static String formatOption(OptionHelp optHelp, int minsize, boolean showCharOptions) {
+		StringBuilder sb = new StringBuilder("  ");
+		
+		if (!optHelp.charName.equals("")) {
+			sb.append('-').append(optHelp.charName);
+			if (!optHelp.name.equals("")) {
+				sb.append(' ');
+			}
+		} else if (showCharOptions) {
+			sb.append("   ");
+		}
+		
+		if (!optHelp.name.equals("")) {
+			sb.append("--").append(optHelp.name);
+		}
+		
+		if (!optHelp.isBoolean) {
+			sb.append(' ').append(optHelp.helpVal);
+		}
+		if (optHelp.name.equals("")) {
+			sb.append("    ");
+		}
+
+		for (int i=optHelp.size(); i<minsize; i++) {
+			sb.append(' ');
+		}
+		sb.append("  : ").append(optHelp.desc);
+		return sb.toString();
+	}
+
+	private static void pad(StringBuilder sb, int len) {
+		while (sb.length() < len) {
+			sb.append(' ');
+		}
+	}
+
+	private static void writeBytes(byte[] buf, OutputStream out) {
+		// PrintStream keeps the old behavior of not throwing IOExceptions here
+		PrintStream ps = (out instanceof PrintStream) ? (PrintStream) out : new PrintStream(out);
+		ps.write(buf, 0, buf.length);
+		ps.flush();
+	}
+
 	public void runClass(Class<?> clazz, String[] args) throws Exception {
 		CmdArgs cmdargs = extractArgs(args, clazz, 0);
-		findAndRunInner(clazz, cmdargs);
+		int retcode = findAndRunInner(clazz, cmdargs, System.in, System.out, System.err);
+		if (retcode != 0) {
+			System.exit(retcode);
+		}
+	}
+
+	/**
+	 * Walks the registration, argument parsing, binding and help paths for a
+	 * command (the same code as a real run, with no arguments), without calling
+	 * @Exec or @Cleanup. This is used to load (and record) the classes a normal
+	 * run would need (see CdsTrain). Option setters are called with their
+	 * default values, except for output options (so no files are written). Help
+	 * and any errors are written to out.
+	 */
+	void dryRun(String cmd, OutputStream out) throws Exception {
+		Class<?> clazz = execs.get(cmd);
+		PrintStream ps = out instanceof PrintStream ? (PrintStream) out : new PrintStream(out);
+		CmdArgs cmdargs = extractArgs(new String[] { cmd }, clazz);
+		if (runCommand(clazz, cmdargs, new ByteArrayInputStream(new byte[0]), ps, ps, true) == 0) {
+			// (help was already shown for missing arguments)
+			showCommandHelp(clazz, ps);
+		}
+		ps.flush();
 	}
 
 	public boolean isValidCommand(String cmd) {
 		return execs.containsKey(cmd);
 	}
+
+	/**
+	 * @return the command with this name, or the one (visible) command that starts
+	 * with it, or null.
+	 */
+	public Class<?> findCommand(String cmd) {
+		if (execs.containsKey(cmd)) {
+			return execs.get(cmd);
+		}
+		String name = findName(cmd);
+		return name == null ? null : execs.get(name);
+	}
+
+	/**
+	 * @return the group with this name (or unique prefix), or null
+	 */
+	private Group findGroup(String name) {
+		if (groups.containsKey(name)) {
+			return groups.get(name);
+		}
+		String full = findName(name);
+		return full == null ? null : groups.get(full);
+	}
+
+	private String findName(String prefix) {
+		return prefix.length() > 0 ? getCommandTrie().find(prefix) : null;
+	}
+
+	private PrefixTrie<String> getCommandTrie() {
+		PrefixTrie<String> trie = commandTrie;
+		if (trie == null) {
+			trie = new PrefixTrie<String>();
+			for (Map.Entry<String, Class<?>> e: execs.entrySet()) {
+				// hidden and deprecated commands have to be given in full
+				Command c = e.getValue().getAnnotation(Command.class);
+				if (c == null || (!c.hidden() && !c.deprecated())) {
+					trie.put(e.getKey(), e.getKey());
+				}
+			}
+			for (String name: groups.keySet()) {
+				trie.put(name, name);
+			}
+			commandTrie = trie;
+		}
+		return trie;
+	}
+
+	private void showUnknownCommand(String cmd, PrintStream ps) throws MissingCommandException {
+		if (cmd.length() > 0 && getCommandTrie().isAmbiguous(cmd)) {
+			ps.println("ERROR: Ambiguous command: " + cmd + " (" + String.join(", ", getCommandTrie().complete(cmd)) + ")");
+		} else {
+			ps.println("ERROR: Unknown command: " + cmd);
+		}
+		ps.println();
+		showCommands(ps);
+	}
+
+	public SortedSet<String> getCommandNames() {
+		return new TreeSet<String>(execs.keySet());
+	}
+
+	public Class<?> getCommandClass(String cmd) {
+		return execs.get(cmd);
+	}
+
+	public String getProgName() {
+		return progname;
+	}
+
+	/**
+	 * The long option name for this method: either @Option.name, or the name derived
+	 * from the method (setFooBar => foobar). Returns null if the option only has a charName.
+	 */
+	public static String getOptionLongName(Method m) {
+		Option opt = m.getAnnotation(Option.class);
+		if (opt == null) {
+			return null;
+		}
+		if (!opt.name().equals("")) {
+			return opt.name();
+		}
+		if (!opt.charName().equals("")) {
+			return null;
+		}
+		if (m.getName().startsWith("set")) {
+			return m.getName().substring(3).toLowerCase();
+		}
+		return m.getName().toLowerCase();
+	}
 	
+	/**
+	 * Runs the command and exits with its return code (only if it isn't 0).
+	 */
 	public void findAndRun(String[] args) throws Exception {
-		if (args.length == 0) {
-			showCommands();
-			return;
-		} else if (args[0].equals("help")) {
-			if (args.length == 1) {
-				showCommands();
-				return;
-			} else if (!execs.containsKey(args[1])) {
-				System.err.println("ERROR: Unknown command: " + args[1]);
-				System.err.println();
-				showCommands();
-				System.exit(1);
-			} else{
-				showCommandHelp(args[1]);
+		int retcode = run(args, System.in, System.out, System.err);
+		if (retcode != 0) {
+			System.exit(retcode);
+		}
+	}
+
+	/**
+	 * Runs the command with these streams as its stdin, stdout and stderr (help
+	 * and error messages are written to err). This doesn't call System.exit(),
+	 * so it can be used to run commands in-process (see CommandHarness). It is
+	 * safe to call from multiple threads at once.
+	 *
+	 * @return the exit code (0 for success)
+	 */
+	public int run(String[] args, InputStream in, OutputStream out, OutputStream err) throws Exception {
+		PrintStream errps = err instanceof PrintStream ? (PrintStream) err : new PrintStream(err, true);
+		activeRuns.incrementAndGet();
+		try {
+			if (args.length == 0) {
+				showCommands(errps);
+				return 0;
+			} else if (pipelineSeparator != null && Arrays.asList(args).contains(pipelineSeparator)) {
+				return runPipeline(args, in, out, errps);
+			} else if (args[0].equals("help")) {
+				Group group = args.length > 1 ? findGroup(args[1]) : null;
+				if (args.length == 1) {
+					showCommands(errps);
+				} else if (group != null) {
+					// help bam => the group's commands, help bam filter => the command
+					String[] sub = new String[args.length - 1];
+					sub[0] = "help";
+					System.arraycopy(args, 2, sub, 1, args.length - 2);
+					return group.getBuilder().run(sub, in, out, errps);
+				} else if (findCommand(args[1]) == null) {
+					showUnknownCommand(args[1], errps);
+					return 1;
+				} else{
+					showCommandHelp(args[1], errps);
+				}
+				return 0;
 			}
-			return;
-		} else if (!execs.containsKey(args[0])) {
-			System.err.println("ERROR: Unknown command: " + args[0]);
-			System.err.println();
-			showCommands();
-			System.exit(1);
+
+			Group group = findGroup(args[0]);
+			if (group != null) {
+				return group.getBuilder().run(Arrays.copyOfRange(args, 1, args.length), in, out, errps);
+			}
+	
+			Class<?> clazz = findCommand(args[0]);
+			if (clazz == null) {
+				showUnknownCommand(args[0], errps);
+				return 1;
+			}
+			CmdArgs cmdargs = extractArgs(args, clazz);
+			return findAndRunInner(clazz, cmdargs, in, out, errps);
+		} finally {
+			// builder-level messages (argument parsing, journal) are written by a
+			// daemon thread, so make sure they are out before returning. The thread
+			// isn't needed between runs (it is restarted if there is more to log).
+			if (activeRuns.decrementAndGet() == 0) {
+				log.close();
+			} else {
+				log.flush();
+			}
+			errps.flush();
+		}
+	}
+
+	private int runPipeline(String[] args, final InputStream stdin, final OutputStream stdout, final PrintStream stderr) throws Exception {
+		List<String[]> stages = new ArrayList<String[]>();
+		int start = 0;
+		for (int i = 0; i <= args.length; i++) {
+			if (i == args.length || args[i].equals(pipelineSeparator)) {
+				String[] stage = Arrays.copyOfRange(args, start, i);
+				if (stage.length == 0) {
+					stderr.println("ERROR: Empty pipeline stage");
+					return 1;
+				}
+				stages.add(stage);
+				start = i + 1;
+			}
+		}
+
+		// parse all of the stages before starting any of them
+		final int n = stages.size();
+		final MainBuilder[] builders = new MainBuilder[n];
+		final Class<?>[] classes = new Class<?>[n];
+		final CmdArgs[] cmdargs = new CmdArgs[n];
+		for (int i = 0; i < n; i++) {
+			String[] stage = stages.get(i);
+			// a stage can be a command in a group (bam filter ...)
+			MainBuilder b = this;
+			int pos = 0;
+			Group group;
+			while (pos < stage.length && (group = b.findGroup(stage[pos])) != null) {
+				b = group.getBuilder();
+				pos++;
+			}
+			if (pos == stage.length) {
+				stderr.println("ERROR: Missing command: " + String.join(" ", stage));
+				stderr.println();
+				b.showCommands(stderr);
+				return 1;
+			}
+			classes[i] = b.findCommand(stage[pos]);
+			if (classes[i] == null) {
+				b.showUnknownCommand(stage[pos], stderr);
+				return 1;
+			}
+			builders[i] = b;
+			cmdargs[i] = b.extractArgs(stage, classes[i], pos + 1);
 		}
 
-		Class<?> clazz = execs.get(args[0]);
-		CmdArgs cmdargs = extractArgs(args, clazz);
-		findAndRunInner(clazz, cmdargs);
+		final ByteRingBuffer[] pipes = new ByteRingBuffer[n - 1];
+		for (int i = 0; i < n - 1; i++) {
+			pipes[i] = new ByteRingBuffer(pipelineBufferSize);
+		}
+
+		final Throwable[] errors = new Throwable[n];
+		final int[] retcodes = new int[n];
+		Thread[] threads = new Thread[n];
+		for (int i = 0; i < n; i++) {
+			final int idx = i;
+			final ByteRingBuffer inPipe = i == 0 ? null : pipes[i - 1];
+			final ByteRingBuffer outPipe = i == n - 1 ? null : pipes[i];
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					InputStream in = inPipe == null ? stdin : inPipe.getInputStream();
+					OutputStream out = outPipe == null ? stdout : new BufferedOutputStream(outPipe.getOutputStream(), 64 * 1024);
+					try {
+						retcodes[idx] = builders[idx].findAndRunInner(classes[idx], cmdargs[idx], in, out, stderr);
+						out.flush();
+					} catch (PipeClosedException e) {
+						if (retcodes[idx] == 0) {
+							retcodes[idx] = PipeClosedException.EXIT_CODE;
+						}
+					} catch (Throwable t) {
+						errors[idx] = t;
+					} finally {
+						if (outPipe != null) {
+							if (errors[idx] != null) {
+								outPipe.closeWriter(new IOException("Upstream pipeline stage failed", errors[idx]));
+							} else if (retcodes[idx] != 0) {
+								outPipe.closeWriter(new IOException("Upstream pipeline stage failed (" + retcodes[idx] + ")"));
+							} else {
+								outPipe.closeWriter(null);
+							}
+						}
+						if (inPipe != null) {
+							// upstream writes will now fail, like writing to a closed pipe
+							inPipe.closeReader();
+						}
+					}
+				}
+			}, "pipeline-" + i + "-" + stages.get(i)[0]);
+		}
+
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		stdout.flush();
+
+		for (Throwable t: errors) {
+			if (t instanceof Exception) {
+				throw (Exception) t;
+			} else if (t != null) {
+				throw new RuntimeException(t);
+			}
+		}
+		// like "set -o pipefail", the last stage to fail sets the return code. A stage
+		// stopped because the next one quit reading didn't fail.
+		int retcode = 0;
+		for (int i = 0; i < n; i++) {
+			if (retcodes[i] == PipeClosedException.EXIT_CODE && i < n - 1 && pipes[i].isReaderClosed()) {
+				continue;
+			}
+			if (retcodes[i] != 0) {
+				retcode = retcodes[i];
+			}
+		}
+		return retcode;
 	}
 	
-	private void findAndRunInner(Class<?> clazz, CmdArgs cmdargs) throws Exception {
+	private int findAndRunInner(Class<?> clazz, CmdArgs cmdargs, InputStream stdin, OutputStream stdout, PrintStream stderr) throws Exception {
+		if (journal == null) {
+			return runCommand(clazz, cmdargs, stdin, stdout, stderr);
+		}
+
+		Journal.Entry entry = new Journal.Entry();
+		Command c = clazz.getAnnotation(Command.class);
+		entry.command = path + (c == null ? clazz.getSimpleName() : c.name());
+		addJournalArgs(entry, clazz, cmdargs);
+		entry.exitCode = 1;
+		long start = System.nanoTime();
+		try {
+			entry.exitCode = runCommand(clazz, cmdargs, stdin, stdout, stderr);
+			return entry.exitCode;
+		} finally {
+			entry.parseNanos = cmdargs.parseNanos;
+			entry.bindNanos = cmdargs.bindNanos;
+			entry.execNanos = cmdargs.execNanos;
+			entry.cleanupNanos = cmdargs.cleanupNanos;
+			entry.totalNanos = cmdargs.parseNanos + System.nanoTime() - start;
+			entry.peakMemory = Journal.peakMemory();
+			try {
+				journal.append(entry);
+			} catch (IOException e) {
+				log.warn("Unable to write to journal: %s", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Adds the options given (by their full names) and the sizes of any input files
+	 * (arguments that are existing files, other than outputs).
+	 */
+	private void addJournalArgs(Journal.Entry entry, Class<?> clazz, CmdArgs cmdargs) {
+		CommandModel model = CommandModel.get(clazz);
+		SortedSet<String> options = new TreeSet<String>();
+		List<String> values = new ArrayList<String>();
+		for (CmdArgValue cav: cmdargs.cmdargs.getArgValues()) {
+			OptionModel om = model.getOption(cav.arg);
+			options.add(om == null ? cav.arg : om.key);
+			if (om == null || !om.option.output()) {
+				values.add(cav.val);
+			}
+		}
+		entry.options.addAll(options);
+		if (cmdargs.unnamed != null) {
+			values.addAll(cmdargs.unnamed);
+		}
+		for (String val: values) {
+			if (val.equals("") || val.equals("-")) {
+				continue;
+			}
+			File f = new File(val);
+			if (f.isFile()) {
+				entry.inputs++;
+				entry.inputBytes += f.length();
+			}
+		}
+	}
+
+	private int runCommand(Class<?> clazz, CmdArgs cmdargs, InputStream stdin, OutputStream stdout, PrintStream stderr) throws Exception {
+		return runCommand(clazz, cmdargs, stdin, stdout, stderr, false);
+	}
+
+	/**
+	 * @param bindOnly stop after the command is set up (handles injected, options
+	 * and arguments set, but not outputs), without calling @Exec or @Cleanup
+	 * (see dryRun)
+	 */
+	private int runCommand(Class<?> clazz, CmdArgs cmdargs, InputStream stdin, OutputStream stdout, PrintStream stderr, boolean bindOnly) throws Exception {
+		long bindStart = System.nanoTime();
 		List<String> errors = new ArrayList<String>();
 
 		Method execMethod = findExecMethod(clazz);
@@ -568,70 +1210,84 @@ public class MainBuilder {
 		}
 
 		Object obj = clazz.newInstance();
-		if (verbose) {
-			String val = "";
+		if (log.isDebugEnabled()) {
+			StringBuilder val = new StringBuilder();
 			for (CmdArgValue cav:cmdargs.cmdargs.getArgValues()) {
-				if (!val.equals("")) {
-					val+=", ";
+				if (val.length() > 0) {
+					val.append(", ");
 				}
-				val += cav.arg;
+				val.append(cav.arg);
 			}
-			System.err.println("Valid args: "+val);
+			log.debug("Valid args: " + val);
 		}
 		
+		// each run gets its own log and progress, writing to its own stderr
+		final Log cmdLog = new Log(stderr, log.getLevel());
+		final Progress progress = new Progress(stderr, progressInterval);
+		if (stderr != System.err) {
+			// stderr is being captured (not a terminal)
+			progress.setQuiet(true);
+		}
+		final CancellationToken token = new CancellationToken();
 		try {
-			for (Method m: clazz.getMethods()) {
-				if (m.getName().equals("setMainBuilder") && m.getParameterTypes().length == 1 && m.getParameterTypes()[0].equals(MainBuilder.class)) {
-					m.invoke(obj, this);
+			// --shard, --checkpoint and --resume are only handled here for commands
+			// that ask for the injected objects (AbstractCommand, and for checkpoints,
+			// @Command(checkpoint=true)); for other commands, they are just the
+			// command's own options.
+			ShardSpec shard = ShardSpec.ALL;
+			if (cmdargs.cmdargs.contains("shard") && hasInjectedSetter(clazz, ShardSpec.class)) {
+				List<String> vals = cmdargs.cmdargs.get("shard");
+				shard = ShardSpec.parse(vals.get(vals.size() - 1));
+			}
+			Checkpoint checkpoint = Checkpoint.NONE;
+			if (isCheckpointCommand(clazz) && hasInjectedSetter(clazz, Checkpoint.class)) {
+				if (cmdargs.cmdargs.contains("checkpoint")) {
+					List<String> vals = cmdargs.cmdargs.get("checkpoint");
+					checkpoint = new Checkpoint(new File(shard.shardName(vals.get(vals.size() - 1))), cmdargs.cmdargs.contains("resume"));
+					if (checkpoint.isResumed()) {
+						cmdLog.info("Resuming from checkpoint: %s", checkpoint.getFile());
+					}
+				} else if (cmdargs.cmdargs.contains("resume")) {
+					throw new CommandArgumentException("--resume requires --checkpoint");
 				}
-				
+			}
+			injectHandles(obj, clazz, stdin, stdout, stderr, cmdLog, progress, shard, token, checkpoint);
+
+			for (Method m: clazz.getMethods()) {
 				// for this method, find the appropriate arguments in the cmdArgList
 				
 				Option opt = m.getAnnotation(Option.class);
-				if (opt != null) {
+				if (opt != null && !isOptionEnabled(clazz, opt)) {
+					// (the model doesn't know about it, so it can't have been given)
+					continue;
+				} else if (opt != null && bindOnly && opt.output()) {
+					// setting an output can create (or truncate) the file, and there is no
+					// @Cleanup to close it
+					continue;
+				} else if (opt != null) {
 					List<String> vals = null;
-					if (verbose) {
-						System.err.println("Option: "+opt.name()+"/"+opt.charName());
-					}
+					log.debug("Option: %s/%s", opt.name(), opt.charName());
 
-					if (cmdargs.cmdargs.contains(opt.charName())) {
-						// look for -c charName values
-						vals = cmdargs.cmdargs.get(opt.charName());
-						cmdargs.setArgUsed(opt.charName());
-					} else if (cmdargs.cmdargs.contains(opt.name())) {
-						// look for --name values
-						vals = cmdargs.cmdargs.get(opt.name());
-						cmdargs.setArgUsed(opt.name());
-					} else {
-						// look for --methodname values (setMethodName => --methodname)
-						String k;
-						if (m.getName().startsWith("set")) {
-							k = m.getName().substring(3).toLowerCase();
-						} else {
-							k = m.getName().toLowerCase();
-						}
-						if (cmdargs.cmdargs.contains(k)) {
-							vals = cmdargs.cmdargs.get(k);
-							cmdargs.setArgUsed(k);
-						}
+					String k = findOptionKey(m, opt, cmdargs.cmdargs);
+					if (k != null) {
+						vals = cmdargs.cmdargs.get(k);
+						cmdargs.setArgUsed(k);
 					}
-					if (verbose && vals != null) {
+					if (log.isDebugEnabled() && vals != null) {
 						for (String val: vals) {
-							System.err.println("arg: "+opt.charName()+" => "+ val);
+							log.debug("arg: %s => %s", opt.charName(), val);
 						}
 					}
 
 					if (opt.showHelp() && vals != null) {
-						showCommandHelp(clazz);
-						System.exit(1);
+						showCommandHelp(clazz, stderr);
+						return 1;
 					}
 					
 					if (vals == null) {
 						// missing value, try defaults
 						if (!opt.defaultValue().equals("")) {
-							if (verbose) {
-								System.err.println("arg: "+opt.name()+" => "+opt.defaultValue());
-							}
+							log.debug("arg: %s => %s", opt.name(), opt.defaultValue());
 							invokeMethod(obj, m, opt.defaultValue());
 						} else if (opt.required()) {
 							errors.add("Missing argument: "+opt.name());
@@ -641,9 +1297,7 @@ public class MainBuilder {
 							if (val.equals("")) {
 								// naked option w/o value
 								invokeMethodBoolean(obj, m, true);
-								if (verbose) {
-									System.err.println("arg: "+opt.name()+" => "+true);
-								}
+								log.debug("arg: %s => true", opt.name());
 							} else {
 								invokeMethod(obj, m, val);
 							}
@@ -688,102 +1342,438 @@ public class MainBuilder {
 				}
 			}
 			
-			if (errors.size() == 0) {
-				execMethod.invoke(obj);
-				for (Method m: clazz.getMethods()) {
-					Cleanup cleanup = m.getAnnotation(Cleanup.class);
-					if (cleanup != null) {
-						m.invoke(obj);
+			if (errors.size() == 0 && bindOnly) {
+				progress.done();
+				cmdLog.flush();
+				return 0;
+			} else if (errors.size() == 0) {
+				if (metricsFilename != null && metricsInterval > 0) {
+					// (the reporter is shared by concurrent runs, so it logs to the builder's log)
+					getMetrics().startReporter(metricsFilename, metricsFormat, metricsInterval, log);
+				}
+				List<File> cacheOutputs = null;
+				String cacheKey = null;
+				if (resultCache != null) {
+					Command c = clazz.getAnnotation(Command.class);
+					if (c != null && c.cacheable()) {
+						cacheOutputs = getOutputFiles(clazz, cmdargs, shard, false);
+						if (cacheOutputs != null) {
+							cacheKey = getCacheKey(clazz, cmdargs, cacheOutputs);
+						}
 					}
 				}
 
+				// on SIGINT/SIGTERM, cancel the command and give @Cleanup a chance to run
+				final CountDownLatch done = new CountDownLatch(1);
+				final Thread execThread = Thread.currentThread();
+				Thread hook = new Thread("cancel-" + clazz.getSimpleName()) {
+					public void run() {
+						// this hook also runs if the command calls System.exit() itself,
+						// in which case the exec thread can't finish until the hooks do.
+						for (StackTraceElement el: execThread.getStackTrace()) {
+							if (el.getClassName().equals("java.lang.Shutdown")) {
+								return;
+							}
+						}
+						token.cancel("Interrupted");
+						try {
+							done.await(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+						} catch (InterruptedException e) {
+						}
+					}
+				};
+				Runtime.getRuntime().addShutdownHook(hook);
+
+				List<File> cached = null;
+				try {
+					Exception execError = null;
+					long execStart = System.nanoTime();
+					cmdargs.bindNanos = execStart - bindStart;
+					token.start(execThread);
+					try {
+						if (cacheKey != null && (cached = resultCache.fetch(cacheKey, cacheOutputs)) != null) {
+							cmdLog.info("Restoring outputs from cache: %s", cacheKey);
+						} else {
+							execMethod.invoke(obj);
+						}
+					} catch (Exception e) {
+						execError = e;
+					} finally {
+						token.stop();
+						// clear any interrupt from cancel(), so @Cleanup can still do I/O
+						Thread.interrupted();
+					}
+					long cleanupStart = System.nanoTime();
+					cmdargs.execNanos = cleanupStart - execStart;
+
+					// @Cleanup always runs (to close/flush outputs), even if @Exec failed
+					for (Method m: clazz.getMethods()) {
+						Cleanup cleanup = m.getAnnotation(Cleanup.class);
+						if (cleanup != null) {
+							try {
+								m.invoke(obj);
+							} catch (Exception e) {
+								if (execError == null) {
+									execError = e;
+								} else if (!PipeClosedException.isCause(e)) {
+									cmdLog.warn("Error in @Cleanup %s: %s", m.getName(), e.getCause() == null ? e : e.getCause());
+								}
+							}
+						}
+					}
+
+					try {
+						// wait for the last commit to be written
+						checkpoint.close();
+					} catch (IOException e) {
+						if (execError == null) {
+							execError = e;
+						} else {
+							cmdLog.warn("Error writing checkpoint: %s", e);
+						}
+					}
+					cmdargs.cleanupNanos = System.nanoTime() - cleanupStart;
+
+					if (token.isCancelled() && checkpoint.isEnabled()) {
+						// keep the outputs, so the command can be resumed
+						cmdLog.info("Progress saved to checkpoint: %s", checkpoint.getFile());
+						throw new CancellationException(token.getReason());
+					} else if (token.isCancelled()) {
+						// partial outputs from a cancelled command are removed
+						List<File> outputs = getOutputFiles(clazz, cmdargs, shard, true);
+						for (File f: outputs) {
+							if (f.exists()) {
+								cmdLog.info("Removing partial output: %s", f);
+								f.delete();
+							}
+						}
+						throw new CancellationException(token.getReason());
+					} else if (execError != null) {
+						throw execError;
+					}
+					
+					if (cached != null) {
+						// only after @Cleanup, so closing the (unused) outputs can't overwrite them
+						resultCache.install(cached, cacheOutputs);
+					} else if (cacheKey != null) {
+						resultCache.store(cacheKey, cacheOutputs);
+					}
+					checkpoint.delete();
+				} finally {
+					if (cached != null) {
+						resultCache.discard(cached);
+					}
+					try {
+						Runtime.getRuntime().removeShutdownHook(hook);
+					} catch (IllegalStateException e) {
+						// already shutting down
+					}
+					progress.done();
+					writeMetrics();
+					cmdLog.flush();
+					done.countDown();
+				}
+				return 0;
 			} else {
+				cmdLog.flush();
 				for (String error: errors) {
-					System.err.println("ERROR: "+error);
+					stderr.println("ERROR: "+error);
 				}
-				System.err.println();
-				showCommandHelp(clazz);
-				System.exit(1);
+				stderr.println();
+				showCommandHelp(clazz, stderr);
+				return 1;
 			}
 		} catch (Exception e) {
-			if (e instanceof CommandArgumentException) {
-				System.err.println("ERROR: " + e.getMessage());
-				System.err.println();
-				showCommandHelp(clazz);
-				System.exit(1);
+			cmdLog.flush();
+			if (token.isCancelled()) {
+				stderr.println("ERROR: " + token.getReason());
+				return token.isTimedOut() ? 124 : 130;
+			} else if (PipeClosedException.isCause(e)) {
+				// the next pipeline stage stopped reading early, like SIGPIPE
+				return PipeClosedException.EXIT_CODE;
+			} else if (e.getCause() != null && e.getCause() instanceof CommandFailedException) {
+				stderr.println("ERROR: " + e.getCause().getMessage());
+				return ((CommandFailedException) e.getCause()).getExitCode();
+			} else if (e instanceof CommandArgumentException) {
+				stderr.println("ERROR: " + e.getMessage());
+				stderr.println();
+				showCommandHelp(clazz, stderr);
+				return 1;
 			} else if (e.getCause() != null && e.getCause() instanceof CommandArgumentException) {
-				System.err.println("ERROR: " + e.getCause().getMessage());
-				System.err.println();
-				showCommandHelp(clazz);
-				System.exit(1);
+				stderr.println("ERROR: " + e.getCause().getMessage());
+				stderr.println();
+				showCommandHelp(clazz, stderr);
+				return 1;
 			} else {
-				System.err.println("ERROR: " + e.getMessage());
-				e.printStackTrace();					
-				System.exit(1);
+				stderr.println("ERROR: " + e.getMessage());
+				e.printStackTrace(stderr);
+				return 1;
 			}
+		} finally {
+			cmdLog.close();
 		}
 	}
 
-	private Method findExecMethod(Class<?> clazz) {
-		Method namedExecMethod = null;
+	/**
+	 * @return the key for this option that was given on the command line (-c, --name,
+	 * or --methodname), or null if the option wasn't given.
+	 */
+	private String findOptionKey(Method m, Option opt, CmdArgList cmdargs) {
+		if (cmdargs.contains(opt.charName())) {
+			// look for -c charName values
+			return opt.charName();
+		} else if (cmdargs.contains(opt.name())) {
+			// look for --name values
+			return opt.name();
+		}
+		// look for --methodname values (setMethodName => --methodname)
+		String k;
+		if (m.getName().startsWith("set")) {
+			k = m.getName().substring(3).toLowerCase();
+		} else {
+			k = m.getName().toLowerCase();
+		}
+		if (cmdargs.contains(k)) {
+			return k;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the output files (@Option(output=true)) for this command, or null if
+	 * any output is stdout (and the results can't be cached). With skipStdout, stdout
+	 * outputs are skipped instead. Output setters are expected to add the shard to
+	 * their filenames (ShardSpec.shardName), the same way AbstractOutputCommand does.
+	 * 
+	 * The files are ordered by the canonical name of their option (getMethods() has
+	 * no fixed order), so the result cache can match them up between runs.
+	 */
+	private List<File> getOutputFiles(Class<?> clazz, CmdArgs cmdargs, ShardSpec shard, boolean skipStdout) {
+		SortedMap<String, Method> outputOpts = new TreeMap<String, Method>();
 		for (Method m: clazz.getMethods()) {
-			if (m.getName().equals("exec") && m.getParameterTypes().length == 0) {
-				namedExecMethod = m;
+			Option opt = m.getAnnotation(Option.class);
+			if (opt != null && opt.output() && isOptionEnabled(clazz, opt)) {
+				outputOpts.put(getOptionLongName(m) != null ? getOptionLongName(m) : opt.charName(), m);
 			}
-			Exec exec = m.getAnnotation(Exec.class);
-			if (exec != null) {
-				return m;
+		}
+
+		List<File> outputs = new ArrayList<File>();
+		for (Method m: outputOpts.values()) {
+			Option opt = m.getAnnotation(Option.class);
+			String k = findOptionKey(m, opt, cmdargs.cmdargs);
+			List<String> vals = new ArrayList<String>();
+			if (k != null) {
+				vals.addAll(cmdargs.cmdargs.get(k));
+			} else if (!opt.defaultValue().equals("")) {
+				vals.add(opt.defaultValue());
+			}
+			for (String val: vals) {
+				if (val.equals("-") || val.equals("")) {
+					if (skipStdout) {
+						continue;
+					}
+					log.debug("Not caching results, output to stdout");
+					return null;
+				}
+				outputs.add(new File(shard.shardName(val)));
 			}
 		}
-		return namedExecMethod;
+		if (outputs.size() == 0 && !skipStdout) {
+			return null;
+		}
+		return outputs;
 	}
 
-	private boolean isOptionKnown(Class<?> clazz, String name) {
-		for (Method m:clazz.getMethods()) {
+	/**
+	 * The cache key is derived from the command, the normalized arguments (options
+	 * sorted by canonical name, except for @Option(cacheKey=false) options, like
+	 * -v or --timeout), the unnamed arguments, and the fingerprints of any
+	 * arguments that are existing (non-output) files. The jar holding the command
+	 * is also included, so rebuilding the program invalidates its results.
+	 * 
+	 * @return the key, or null if the results can't be cached (reads from stdin)
+	 */
+	private String getCacheKey(Class<?> clazz, CmdArgs cmdargs, List<File> outputs) throws IOException {
+		SortedMap<String, List<String>> normalized = new TreeMap<String, List<String>>();
+		List<String> used = new ArrayList<String>();
+		for (Method m: clazz.getMethods()) {
 			Option opt = m.getAnnotation(Option.class);
-			if (opt != null) {
-				if (opt.name().equals(name)) {
-					return true;
+			if (opt == null || !isOptionEnabled(clazz, opt)) {
+				continue;
+			}
+			String k = findOptionKey(m, opt, cmdargs.cmdargs);
+			if (k != null) {
+				used.add(k);
+				if (opt.cacheKey()) {
+					String canonical = getOptionLongName(m) != null ? getOptionLongName(m) : opt.charName();
+					normalized.put(canonical, cmdargs.cmdargs.get(k));
 				}
-				String k;
-				if (m.getName().startsWith("set")) {
-					k = m.getName().substring(3).toLowerCase();
-				} else {
-					k = m.getName().toLowerCase();
+			}
+		}
+		for (CmdArgValue cav: cmdargs.cmdargs.getArgValues()) {
+			if (!used.contains(cav.arg)) {
+				if (!normalized.containsKey(cav.arg)) {
+					normalized.put(cav.arg, new ArrayList<String>());
 				}
+				normalized.get(cav.arg).add(cav.val);
+			}
+		}
 
-				if (k.equals(name)) {
-					return true;
+		List<String> args = new ArrayList<String>();
+		List<String> values = new ArrayList<String>();
+		for (String k: normalized.keySet()) {
+			for (String val: normalized.get(k)) {
+				args.add(k + "=" + val);
+				values.add(val);
+			}
+		}
+		if (cmdargs.unnamed != null) {
+			args.add("--");
+			for (String val: cmdargs.unnamed) {
+				args.add(val);
+				values.add(val);
+			}
+		}
+
+		List<File> inputs = new ArrayList<File>();
+		for (String val: values) {
+			if (val.equals("-")) {
+				log.debug("Not caching results, input from stdin");
+				return null;
+			}
+			File f = new File(val);
+			if (f.isFile() && !outputs.contains(f)) {
+				inputs.add(f);
+			}
+		}
+		if (clazz.getProtectionDomain().getCodeSource() != null) {
+			try {
+				File jar = new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+				if (jar.isFile()) {
+					inputs.add(jar);
 				}
-				
+			} catch (Exception e) {
+				// unknown code location
 			}
 		}
-		return false;
+
+		Command c = clazz.getAnnotation(Command.class);
+		return resultCache.key(c.name() + ":" + clazz.getName(), args, inputs);
 	}
 
-	private boolean isOptionKnown(Class<?> clazz, char charName) {
-		for (Method m:clazz.getMethods()) {
-			Option opt = m.getAnnotation(Option.class);
-			if (opt != null) {
-				if (opt.charName().equals(""+charName)) {
-					return true;
-				}
+	/**
+	 * Setters (name => parameter type) that MainBuilder calls on a command to
+	 * hand it framework-provided objects.
+	 */
+	private static final Map<String, Class<?>> injectedSetters = new HashMap<String, Class<?>>();
+	static {
+		injectedSetters.put("setMainBuilder", MainBuilder.class);
+		injectedSetters.put("setMetrics", MetricRegistry.class);
+		injectedSetters.put("setProgress", Progress.class);
+		injectedSetters.put("setLog", Log.class);
+		injectedSetters.put("setStdin", InputStream.class);
+		injectedSetters.put("setStdout", OutputStream.class);
+		injectedSetters.put("setStderr", PrintStream.class);
+		injectedSetters.put("setShardSpec", ShardSpec.class);
+		injectedSetters.put("setCancellationToken", CancellationToken.class);
+		injectedSetters.put("setCheckpoint", Checkpoint.class);
+		injectedSetters.put("setResourceCache", ResourceCache.class);
+	}
+
+	public static boolean isInjectedSetter(Method m) {
+		return m.getParameterTypes().length == 1 && m.getParameterTypes()[0].equals(injectedSetters.get(m.getName()));
+	}
+
+	private static boolean isCheckpointCommand(Class<?> clazz) {
+		Command c = clazz.getAnnotation(Command.class);
+		return c != null && c.checkpoint();
+	}
+
+	/**
+	 * @return false for options the command doesn't take, even though it has them
+	 * (--checkpoint and --resume are only for @Command(checkpoint=true))
+	 */
+	static boolean isOptionEnabled(Class<?> clazz, Option opt) {
+		return !opt.checkpoint() || isCheckpointCommand(clazz);
+	}
+
+	private static boolean hasInjectedSetter(Class<?> clazz, Class<?> type) {
+		for (Method m: clazz.getMethods()) {
+			if (isInjectedSetter(m) && m.getParameterTypes()[0].equals(type)) {
+				return true;
 			}
 		}
 		return false;
 	}
 
-	private boolean isOptionBoolean(Class<?> clazz, String name) {
-		for (Method m:clazz.getMethods()) {
-			Option opt = m.getAnnotation(Option.class);
-			if (opt != null && (opt.name().equals(name) || opt.charName().equals(name))) {
-				return isOptionBoolean(m);
+	/**
+	 * Calls the setter for each framework-provided object the command asks for
+	 * (setMainBuilder, setMetrics, setProgress, setLog, setStdin, setStdout, setStderr,
+	 * setShardSpec, setCancellationToken, setCheckpoint, setResourceCache).
+	 * This happens before any options are set. 
+	 */
+	private void injectHandles(Object obj, Class<?> clazz, InputStream stdin, OutputStream stdout, PrintStream stderr, Log cmdLog, Progress progress, ShardSpec shard, CancellationToken token, Checkpoint checkpoint) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+		for (Method m: clazz.getMethods()) {
+			if (!isInjectedSetter(m)) {
+				continue;
+			}
+			Class<?> param = m.getParameterTypes()[0];
+			if (param.equals(MainBuilder.class)) {
+				m.invoke(obj, this);
+			} else if (param.equals(MetricRegistry.class)) {
+				m.invoke(obj, getMetrics());
+			} else if (param.equals(Progress.class)) {
+				m.invoke(obj, progress);
+			} else if (param.equals(Log.class)) {
+				m.invoke(obj, cmdLog);
+			} else if (param.equals(InputStream.class)) {
+				m.invoke(obj, stdin);
+			} else if (param.equals(OutputStream.class)) {
+				m.invoke(obj, stdout);
+			} else if (param.equals(PrintStream.class)) {
+				m.invoke(obj, stderr);
+			} else if (param.equals(ShardSpec.class)) {
+				m.invoke(obj, shard);
+			} else if (param.equals(CancellationToken.class)) {
+				m.invoke(obj, token);
+			} else if (param.equals(Checkpoint.class)) {
+				m.invoke(obj, checkpoint);
+			} else if (param.equals(ResourceCache.class)) {
+				m.invoke(obj, getResourceCache());
 			}
 		}
-		return false;
 	}
-	
-	private boolean isOptionBoolean(Method m) {
+
+	private void writeMetrics() {
+		if (metricsFilename == null || metrics == null) {
+			return;
+		}
+		if (metricsInterval > 0) {
+			// started for this run (the reporter keeps going for any other runs)
+			metrics.stopReporter();
+		}
+		try {
+			metrics.writeFile(metricsFilename, metricsFormat);
+		} catch (IOException e) {
+			System.err.println("WARNING: Unable to write metrics: " + e.getMessage());
+		}
+	}
+
+	private Method findExecMethod(Class<?> clazz) {
+		Method namedExecMethod = null;
+		for (Method m: clazz.getMethods()) {
+			if (m.getName().equals("exec") && m.getParameterTypes().length == 0) {
+				namedExecMethod = m;
+			}
+			Exec exec = m.getAnnotation(Exec.class);
+			if (exec != null) {
+				return m;
+			}
+		}
+		return namedExecMethod;
+	}
+
+	public static boolean isOptionBoolean(Method m) {
 		if (m.getParameterTypes().length == 0) {
 			return true;
 		} else if (m.getParameterTypes().length == 1) {
@@ -795,17 +1785,7 @@ public class MainBuilder {
 		return false;
 	}
 	
-	private boolean isOptionInteger(Class<?> clazz, String name) {
-		for (Method m:clazz.getMethods()) {
-			Option opt = m.getAnnotation(Option.class);
-			if (opt != null && (opt.name().equals(name) || opt.charName().equals(name))) {
-				return isOptionInteger(m);
-			}
-		}
-		return false;
-	}
-	
-	private boolean isOptionInteger(Method m) {
+	public static boolean isOptionInteger(Method m) {
 		if (m.getParameterTypes().length > 0) {
 			Class<?> param = m.getParameterTypes()[0];
 			if (param.equals(Integer.class) || param.equals(Integer.TYPE) || param.equals(Long.class) || param.equals(Long.TYPE)) {
@@ -819,6 +1799,8 @@ public class MainBuilder {
 		return extractArgs(args, clazz, 1);
 	}
 	private CmdArgs extractArgs(String[] args, Class<?> clazz, int startIndex) throws UnknownArgumentException {
+		long start = System.nanoTime();
+		CommandModel model = CommandModel.get(clazz);
 		CmdArgList cmdargs = new CmdArgList();
 		List<String> unnamed = null;
 		
@@ -834,49 +1816,68 @@ public class MainBuilder {
 				unnamed = new ArrayList<String>();
 				i++;
 			} else if (arg.startsWith("--")) {
-				if (!isOptionKnown(clazz, arg.substring(2))) {
+				// --name, --name=value, or a unique prefix of the name (--na)
+				int eq = arg.indexOf('=');
+				int end = eq > -1 ? eq : arg.length();
+				OptionModel om = model.findLong(arg, 2, end);
+				if (om == null) {
+					String name = arg.substring(2, end);
+					if (model.isAmbiguous(name)) {
+						throw new UnknownArgumentException(clazz, "Ambiguous argument: "+ arg + " (--" + String.join(", --", model.completeLong(name)) + ")");
+					}
 					throw new UnknownArgumentException(clazz, "Unknown argument: "+ arg);
 				}
-				if (i+1 < args.length) {
-					if (verbose) {
-						System.err.println("arg: " + arg +", is boolean? " + isOptionBoolean(clazz, arg.substring(2)));
+				String key = model.isLongName(arg, 2, end) ? arg.substring(2, end) : om.key;
+				if (eq > -1) {
+					String val = arg.substring(eq+1);
+					if (om.isBoolean && val.equals("true")) {
+						cmdargs.add(key, "");
+					} else if (!om.isBoolean || om.method.getParameterTypes().length > 0 || !val.equals("false")) {
+						// (a flag without a parameter is just not set for --flag=false)
+						cmdargs.add(key, val);
+					}
+					i += 1;
+				} else if (i+1 < args.length) {
+					if (log.isDebugEnabled()) {
+						log.debug("arg: %s, is boolean? %s", arg, om.isBoolean);
 					}
-					if (isOptionInteger(clazz, arg.substring(2))) {
-						cmdargs.add(arg.substring(2), args[i+1]);
+					if (om.isInteger) {
+						cmdargs.add(key, args[i+1]);
 						i += 2;
 						continue;						
-					} else if (args[i+1].equals("-") && !isOptionBoolean(clazz, arg.substring(2))) {
-						cmdargs.add(arg.substring(2), args[i+1]);
+					} else if (args[i+1].equals("-") && !om.isBoolean) {
+						cmdargs.add(key, args[i+1]);
 						i += 2;
 						continue;						
-					} else if (args[i+1].startsWith("-") || isOptionBoolean(clazz, arg.substring(2))) {
-						cmdargs.add(arg.substring(2), "");
+					} else if (args[i+1].startsWith("-") || om.isBoolean) {
+						cmdargs.add(key, "");
 						i += 1;
 						continue;
 					} else {
-						cmdargs.add(arg.substring(2), args[i+1]);
+						cmdargs.add(key, args[i+1]);
 						i += 2;
 						continue;						
 					}
 				} else {
-					cmdargs.add(arg.substring(2), "");
+					cmdargs.add(key, "");
 					i += 1;
 				}
 			} else if (arg.startsWith("-") && !arg.equals("-")) {
 				for (int j=1; j<arg.length(); j++) {
-					if (!isOptionKnown(clazz, arg.charAt(j))) {
+					OptionModel om = model.getChar(arg, j);
+					if (om == null) {
 						throw new UnknownArgumentException(clazz, "Unknown argument: "+ arg);
 					}
 					if (j == arg.length()-1) {
-						if (isOptionInteger(clazz, ""+arg.charAt(j))) {
+						if (om.isInteger) {
 							cmdargs.add(""+arg.charAt(j), args[i+1]);
 							i += 2;
 							break;
-						} else if ((args.length > (i+1) && args[i+1].equals("-")) && !isOptionBoolean(clazz, ""+arg.charAt(j))) {
+						} else if ((args.length > (i+1) && args[i+1].equals("-")) && !om.isBoolean) {
 							cmdargs.add(""+arg.charAt(j), args[i+1]);
 							i += 2;
 							continue;
-						} else if ((args.length > (i+1) && args[i+1].startsWith("-")) || isOptionBoolean(clazz, ""+arg.charAt(j))) {
+						} else if ((args.length > (i+1) && args[i+1].startsWith("-")) || om.isBoolean) {
 							cmdargs.add(""+arg.charAt(j), "");
 							i += 1;
 							continue;
@@ -886,10 +1887,10 @@ public class MainBuilder {
 							break;						
 						} else {
 							cmdargs.add(""+arg.charAt(j), "");
+							i += 1;
 						}
 					} else {
 						cmdargs.add(""+arg.charAt(j), "");
-						i += 1;
 					}
 				}
 			} else {			
@@ -899,29 +1900,29 @@ public class MainBuilder {
 			}
 		}
 
-		if (verbose) {
+		if (log.isDebugEnabled()) {
 			for (CmdArgValue cav:cmdargs.getArgValues()) {
-				System.err.println("["+cav.arg+"] => "+ cav.val);
+				log.debug("[%s] => %s", cav.arg, cav.val);
 			}
-			String val = "";
+			StringBuilder val = new StringBuilder();
 			if (unnamed != null) {
 				for (String un:unnamed) {
-					if (!val.equals("")) {
-						val+=", ";
+					if (val.length() > 0) {
+						val.append(", ");
 					}
-					val += un;
+					val.append(un);
 				}
 			}
-			System.err.println("unnamed => " + val);
+			log.debug("unnamed => " + val);
 		}
 
-		return new CmdArgs(cmdargs, unnamed);
+		CmdArgs out = new CmdArgs(cmdargs, unnamed);
+		out.parseNanos = System.nanoTime() - start;
+		return out;
 	}
 
 	public void invokeMethod(Object obj, Method m, String val) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, CommandArgumentException {
-		if (verbose) {
-			System.err.println("Invoking: "+m.getName() + "("+val+")");
-		}
+		log.debug("Invoking: %s(%s)", m.getName(), val);
 		Class<?> param = m.getParameterTypes()[0];
 		if (val == null) {
 			m.invoke(obj, new Object[] {null});
@@ -943,15 +1944,16 @@ public class MainBuilder {
 			m.invoke(obj, Float.parseFloat(val));
 		} else if (param.equals(Double.class) || param.equals(Double.TYPE)) {
 			m.invoke(obj, Double.parseDouble(val));
+		} else if ((param.equals(Boolean.class) || param.equals(Boolean.TYPE)) && (val.equals("true") || val.equals("false"))) {
+			// --flag=true / --flag=false
+			m.invoke(obj, Boolean.parseBoolean(val));
 		} else {
 			throw new CommandArgumentException(m, param.getName(), param.getClass(), val );
 		}
 	}
 
 	public void invokeMethodBoolean(Object obj, Method m, boolean val) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, CommandArgumentException {
-		if (verbose) {
-			System.err.println("Invoking: "+m.getName() + "("+val+")");
-		}
+		log.debug("Invoking: %s(%s)", m.getName(), val);
 		if (m.getParameterTypes().length == 0) {
 			m.invoke(obj);
 		} else {
@@ -965,16 +1967,33 @@ public class MainBuilder {
 	}
 
 	public static String readFile(String fname) throws IOException {
-		String s = "";
+		return new String(readResource(fname), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the contents of a classpath resource (read once per process)
+	 */
+	public static byte[] readResource(String fname) throws IOException {
+		byte[] buf = resources.get(fname);
+		if (buf != null) {
+			return buf;
+		}
 		InputStream is = MainBuilder.class.getClassLoader().getResourceAsStream(fname);
 		if (is == null) {
 			throw new IOException("Can't load file: "+fname);
 		}
-		int c;
-		while ((c = is.read()) > -1) {
-			s += (char) c;
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = is.read(chunk)) > -1) {
+				baos.write(chunk, 0, n);
+			}
+			buf = baos.toByteArray();
+		} finally {
+			is.close();
 		}
-		is.close();
-		return s;
+		resources.put(fname, buf);
+		return buf;
 	}
 }
@@ -0,0 +1,195 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Cleanup;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnknownArgs;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.MissingExecException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Generates GraalVM native-image configuration (reflect-config.json and
+ * resource-config.json) for all registered commands.
+ *
+ * MainBuilder finds commands, options, and @Exec methods reflectively, so a
+ * native image needs every command class, its constructor, and each method
+ * MainBuilder may invoke registered for reflection. This writes that list from
+ * the same registry used at runtime, so it can't drift from the code. Commands
+ * in groups are included (this loads every group).
+ *
+ * Run it as a hidden command from the build:
+ *   prog native-image-config -o src/main/resources/META-INF/native-image/group/artifact
+ */
+@Command(name = "native-image-config", desc="Write GraalVM native-image reflection/resource config", category="help", hidden=true)
+public class NativeImageConfig {
+	private static final List<Class<? extends Annotation>> annotations = new ArrayList<Class<? extends Annotation>>();
+	static {
+		annotations.add(Command.class);
+		annotations.add(Option.class);
+		annotations.add(UnnamedArg.class);
+		annotations.add(Exec.class);
+		annotations.add(Cleanup.class);
+		annotations.add(UnknownArgs.class);
+	}
+
+	private MainBuilder builder = null;
+	private String outputDir = ".";
+	private List<String> resources = new ArrayList<String>();
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	@Option(desc="Output directory", charName="o", name="output", defaultValue=".", helpValue="dir")
+	public void setOutputDir(String outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	@Option(desc="Extra classpath resource to include (LICENSE and VERSION are always included)", name="resource", helpValue="name", allowMultiple=true)
+	public void setResource(String resource) {
+		this.resources.add(resource);
+	}
+
+	@Exec
+	public void exec() throws IOException, MissingExecException {
+		write(builder, new File(outputDir), resources);
+	}
+
+	public static void write(MainBuilder builder, File dir, List<String> extraResources) throws IOException, MissingExecException {
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory: " + dir);
+		}
+		writeFile(new File(dir, "reflect-config.json"), reflectConfig(builder));
+		writeFile(new File(dir, "resource-config.json"), resourceConfig(extraResources));
+	}
+
+	/**
+	 * @return the methods MainBuilder may call reflectively on this command class
+	 */
+	public static List<Method> reflectedMethods(Class<?> clazz) {
+		List<Method> methods = new ArrayList<Method>();
+		for (Method m: clazz.getMethods()) {
+			if (m.getName().equals("exec") && m.getParameterTypes().length == 0) {
+				methods.add(m);
+			} else if (MainBuilder.isInjectedSetter(m)) {
+				methods.add(m);
+			} else {
+				for (Class<? extends Annotation> ann: annotations) {
+					if (m.isAnnotationPresent(ann)) {
+						methods.add(m);
+						break;
+					}
+				}
+			}
+		}
+		return methods;
+	}
+
+	public static String reflectConfig(MainBuilder builder) throws MissingExecException {
+		// declaring class => methods (inherited methods have to be registered on the class that declares them)
+		SortedMap<String, Map<String, Method>> entries = new TreeMap<String, Map<String, Method>>();
+		List<String> commandClasses = new ArrayList<String>();
+
+		for (Class<?> clazz: builder.getAllCommands().values()) {
+			commandClasses.add(clazz.getName());
+			if (!entries.containsKey(clazz.getName())) {
+				entries.put(clazz.getName(), new LinkedHashMap<String, Method>());
+			}
+			for (Method m: reflectedMethods(clazz)) {
+				String owner = m.getDeclaringClass().getName();
+				if (!entries.containsKey(owner)) {
+					entries.put(owner, new LinkedHashMap<String, Method>());
+				}
+				entries.get(owner).put(methodJson(m), m);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("[\n");
+		boolean first = true;
+		for (Class<? extends Annotation> ann: annotations) {
+			if (!first) {
+				sb.append(",\n");
+			}
+			first = false;
+			sb.append("  {\"name\":\"" + ann.getName() + "\",\"queryAllDeclaredMethods\":true,\"allDeclaredMethods\":true}");
+		}
+		for (String name: entries.keySet()) {
+			sb.append(",\n");
+			sb.append("  {\"name\":\"" + name + "\",\"queryAllPublicMethods\":true,\"methods\":[");
+			boolean firstMethod = true;
+			if (commandClasses.contains(name)) {
+				sb.append("{\"name\":\"<init>\",\"parameterTypes\":[]}");
+				firstMethod = false;
+			}
+			for (Method m: entries.get(name).values()) {
+				if (!firstMethod) {
+					sb.append(",");
+				}
+				firstMethod = false;
+				sb.append(methodJson(m));
+			}
+			sb.append("]}");
+		}
+		sb.append("\n]\n");
+		return sb.toString();
+	}
+
+	public static String resourceConfig(List<String> extraResources) {
+		List<String> names = new ArrayList<String>();
+		names.add("LICENSE");
+		names.add("VERSION");
+		if (extraResources != null) {
+			names.addAll(extraResources);
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"resources\":{\"includes\":[\n");
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				sb.append(",\n");
+			}
+			// native-image resource patterns are regexes, so quote the name
+			sb.append("  {\"pattern\":\"\\\\Q" + names.get(i) + "\\\\E\"}");
+		}
+		sb.append("\n]}}\n");
+		return sb.toString();
+	}
+
+	public static String methodJson(Method m) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"name\":\"" + m.getName() + "\",\"parameterTypes\":[");
+		Class<?>[] params = m.getParameterTypes();
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("\"" + params[i].getTypeName() + "\"");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void writeFile(File f, String contents) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		try {
+			w.write(contents);
+		} finally {
+			w.close();
+		}
+	}
+}
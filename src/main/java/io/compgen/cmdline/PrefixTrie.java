@@ -0,0 +1,166 @@
+package io.compgen.cmdline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact trie of names (option names, command names) that can be looked up
+ * by their full name or by any unique prefix (ex: --out for --output).
+ *
+ * Each node records the value stored below it, if there is only one, so a
+ * lookup is a single walk down the trie with no allocations. More than one
+ * name can map to the same value (aliases), and that still counts as unique.
+ *
+ * Names are added once (when the trie is built), then it is only read, so
+ * lookups are safe from multiple threads.
+ */
+public class PrefixTrie<V> {
+	private static final char[] NO_LABELS = new char[0];
+
+	private static class Node<V> {
+		private char[] labels = NO_LABELS;
+		private Node<V>[] children = null;
+
+		private V value = null;
+		private V only = null;
+		private boolean ambiguous = false;
+
+		private Node<V> child(char c) {
+			int idx = Arrays.binarySearch(labels, c);
+			return idx < 0 ? null : children[idx];
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node<V> addChild(char c) {
+			int idx = Arrays.binarySearch(labels, c);
+			if (idx >= 0) {
+				return children[idx];
+			}
+			idx = -(idx + 1);
+			char[] l = new char[labels.length + 1];
+			Node<V>[] ch = (Node<V>[]) new Node<?>[labels.length + 1];
+			System.arraycopy(labels, 0, l, 0, idx);
+			System.arraycopy(labels, idx, l, idx + 1, labels.length - idx);
+			if (children != null) {
+				System.arraycopy(children, 0, ch, 0, idx);
+				System.arraycopy(children, idx, ch, idx + 1, labels.length - idx);
+			}
+			l[idx] = c;
+			ch[idx] = new Node<V>();
+			labels = l;
+			children = ch;
+			return ch[idx];
+		}
+
+		private void mark(V val) {
+			if (only == null) {
+				only = val;
+			} else if (only != val) {
+				ambiguous = true;
+			}
+		}
+	}
+
+	private final Node<V> root = new Node<V>();
+	private int size = 0;
+
+	/**
+	 * Adds a name. If the name is already present, the first value is kept.
+	 * @return true if the name was added
+	 */
+	public boolean put(String name, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Missing value for: " + name);
+		}
+		Node<V> node = root;
+		for (int i = 0; i < name.length(); i++) {
+			node = node.addChild(name.charAt(i));
+		}
+		if (node.value != null) {
+			return false;
+		}
+		node.value = value;
+
+		node = root;
+		node.mark(value);
+		for (int i = 0; i < name.length(); i++) {
+			node = node.child(name.charAt(i));
+			node.mark(value);
+		}
+		size++;
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value for this exact name, or null
+	 */
+	public V get(CharSequence name) {
+		return get(name, 0, name.length());
+	}
+
+	public V get(CharSequence s, int start, int end) {
+		Node<V> node = walk(s, start, end);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * @return the value for this name, or for the one name (value) that starts with it.
+	 * Returns null if there is no match, or if the prefix is ambiguous (see isAmbiguous).
+	 */
+	public V find(CharSequence name) {
+		return find(name, 0, name.length());
+	}
+
+	public V find(CharSequence s, int start, int end) {
+		Node<V> node = walk(s, start, end);
+		if (node == null) {
+			return null;
+		}
+		if (node.value != null) {
+			return node.value;
+		}
+		return node.ambiguous ? null : node.only;
+	}
+
+	public boolean isAmbiguous(CharSequence name) {
+		Node<V> node = walk(name, 0, name.length());
+		return node != null && node.value == null && node.ambiguous;
+	}
+
+	/**
+	 * @return all of the names starting with this prefix (sorted). This is meant for
+	 * error messages and completion.
+	 */
+	public List<String> complete(String prefix) {
+		List<String> out = new ArrayList<String>();
+		Node<V> node = walk(prefix, 0, prefix.length());
+		if (node != null) {
+			collect(node, new StringBuilder(prefix), out);
+		}
+		return out;
+	}
+
+	private void collect(Node<V> node, StringBuilder sb, List<String> out) {
+		if (node.value != null) {
+			out.add(sb.toString());
+		}
+		for (int i = 0; i < node.labels.length; i++) {
+			sb.append(node.labels[i]);
+			collect(node.children[i], sb, out);
+			sb.setLength(sb.length() - 1);
+		}
+	}
+
+	private Node<V> walk(CharSequence s, int start, int end) {
+		Node<V> node = root;
+		for (int i = start; i < end && node != null; i++) {
+			node = node.child(s.charAt(i));
+		}
+		return node;
+	}
+}
@@ -0,0 +1,456 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.exceptions.CommandFailedException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a workflow of commands (from this program) in one JVM. Each step lists
+ * its input and output files, and steps run as soon as the steps that make
+ * their inputs are done, in parallel (up to --threads).
+ *
+ * The workflow file has one block per step:
+ *
+ *   # comments
+ *   [sort]
+ *   in: reads.txt
+ *   out: reads.sorted.txt
+ *   run: sort -o reads.sorted.txt reads.txt
+ *
+ *   [stats]
+ *   in: reads.sorted.txt
+ *   out: stats.txt
+ *   run: stats reads.sorted.txt
+ *   stdout: stats.txt
+ *
+ * "in", "out" and "after" (other step names) can list more than one file, and
+ * can be given more than once. A step depends on the steps that make its
+ * inputs, and on any "after" steps. "stdout" writes the step's stdout to a file
+ * (otherwise it goes to this command's stdout; with more than one thread, it is
+ * held until the step is done, so the outputs of parallel steps don't interleave).
+ *
+ * A step is skipped if all of its outputs exist and are newer than all of its
+ * inputs (unless --force). If a step fails, its outputs are removed and the
+ * steps that depend on it aren't run, but other steps are.
+ *
+ * Add it to your program with: builder.addCommand(Workflow.class)
+ */
+@Command(name = "workflow", desc="Run a workflow of commands, in parallel where possible")
+public class Workflow {
+	private enum State {
+		WAITING, DONE, UP_TO_DATE, FAILED, SKIPPED
+	}
+
+	private static class Step {
+		private final String name;
+		private final int line;
+		private final List<String> inputs = new ArrayList<String>();
+		private final List<String> outputs = new ArrayList<String>();
+		private final List<String> after = new ArrayList<String>();
+		private String[] args = null;
+		private String stdout = null;
+
+		private final List<Step> deps = new ArrayList<Step>();
+		private final List<Step> dependents = new ArrayList<Step>();
+		private int waitingOn = 0;
+		private State state = State.WAITING;
+
+		private Step(String name, int line) {
+			this.name = name;
+			this.line = line;
+		}
+	}
+
+	private MainBuilder builder = null;
+	private OutputStream stdout = System.out;
+	private PrintStream stderr = System.err;
+
+	private String filename = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean force = false;
+	private boolean dryRun = false;
+
+	public void setMainBuilder(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void setStdout(OutputStream stdout) {
+		this.stdout = stdout;
+	}
+
+	public void setStderr(PrintStream stderr) {
+		this.stderr = stderr;
+	}
+
+	@Option(desc="Number of steps to run at once (default: number of CPUs)", name="threads", helpValue="N")
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@Option(desc="Run all steps, even if their outputs are up to date", name="force")
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	@Option(desc="Show the steps that would run", name="dry-run")
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	@UnnamedArg(name="workflow")
+	public void setFilename(String filename) {
+		this.filename = filename;
+	}
+
+	@Exec
+	public void exec() throws Exception {
+		List<Step> steps = parse(filename);
+		link(steps);
+
+		List<Step> ready = new ArrayList<Step>();
+		for (Step s: steps) {
+			if (s.waitingOn == 0) {
+				ready.add(s);
+			}
+		}
+
+		final PrintStream out = new PrintStream(stdout, true);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		CompletionService<Integer> running = new ExecutorCompletionService<Integer>(pool);
+		Map<Future<Integer>, Step> futures = new HashMap<Future<Integer>, Step>();
+		int failed = 0;
+		try {
+			while (!ready.isEmpty() || !futures.isEmpty()) {
+				while (!ready.isEmpty()) {
+					// up to date steps can make their dependents ready right away
+					final Step s = ready.remove(0);
+					if (!force && isUpToDate(s)) {
+						stderr.println("[" + s.name + "] up to date");
+						finish(s, State.UP_TO_DATE, ready);
+						continue;
+					} else if (dryRun) {
+						stderr.println("[" + s.name + "] would run: " + String.join(" ", s.args));
+						finish(s, State.DONE, ready);
+						continue;
+					}
+					stderr.println("[" + s.name + "] starting");
+					futures.put(running.submit(new Callable<Integer>() {
+						public Integer call() throws Exception {
+							return runStep(s, out);
+						}
+					}), s);
+				}
+
+				if (futures.isEmpty()) {
+					continue;
+				}
+				Future<Integer> f = running.take();
+				Step s = futures.remove(f);
+				int rc;
+				try {
+					rc = f.get();
+				} catch (Exception e) {
+					Throwable cause = e.getCause() == null ? e : e.getCause();
+					stderr.println("[" + s.name + "] ERROR: " + cause);
+					rc = 1;
+				}
+				if (rc == 0) {
+					stderr.println("[" + s.name + "] done");
+					finish(s, State.DONE, ready);
+				} else {
+					stderr.println("[" + s.name + "] FAILED (" + rc + ")");
+					failed++;
+					finish(s, State.FAILED, ready);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		for (Step s: steps) {
+			if (s.state == State.SKIPPED) {
+				stderr.println("[" + s.name + "] not run (an earlier step failed)");
+			}
+		}
+		if (failed > 0) {
+			throw new CommandFailedException(failed + " workflow step(s) failed");
+		}
+	}
+
+	/**
+	 * Runs a step. If it fails, its outputs are removed (like make's
+	 * .DELETE_ON_ERROR), so partial files aren't seen as up to date later.
+	 */
+	private int runStep(Step s, PrintStream out) throws Exception {
+		int rc = 1;
+		try {
+			rc = runCommand(s, out);
+			return rc;
+		} finally {
+			if (rc != 0) {
+				List<String> outputs = new ArrayList<String>(s.outputs);
+				if (s.stdout != null) {
+					outputs.add(s.stdout);
+				}
+				for (String fname: outputs) {
+					File f = new File(fname);
+					if (f.exists()) {
+						stderr.println("[" + s.name + "] removing output: " + fname);
+						f.delete();
+					}
+				}
+			}
+		}
+	}
+
+	private int runCommand(Step s, PrintStream out) throws Exception {
+		InputStream stdin = new ByteArrayInputStream(new byte[0]);
+		if (s.stdout == null && threads <= 1) {
+			return builder.run(s.args, stdin, out, stderr);
+		} else if (s.stdout == null) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			try {
+				return builder.run(s.args, stdin, buf, stderr);
+			} finally {
+				synchronized (out) {
+					buf.writeTo(out);
+					out.flush();
+				}
+			}
+		}
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(s.stdout));
+		try {
+			return builder.run(s.args, stdin, os, stderr);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Marks a step as finished, and queues any dependents that are now ready
+	 * (or marks them as skipped, if this step failed).
+	 */
+	private static void finish(Step s, State state, List<Step> ready) {
+		s.state = state;
+		for (Step dep: s.dependents) {
+			if (dep.state != State.WAITING) {
+				continue;
+			}
+			if (state == State.FAILED || state == State.SKIPPED) {
+				finish(dep, State.SKIPPED, ready);
+			} else if (--dep.waitingOn == 0) {
+				ready.add(dep);
+			}
+		}
+	}
+
+	private static boolean isUpToDate(Step s) {
+		if (s.outputs.isEmpty()) {
+			return false;
+		}
+		long oldestOutput = Long.MAX_VALUE;
+		for (String out: s.outputs) {
+			File f = new File(out);
+			if (!f.exists()) {
+				return false;
+			}
+			oldestOutput = Math.min(oldestOutput, f.lastModified());
+		}
+		for (String in: s.inputs) {
+			File f = new File(in);
+			if (!f.exists() || f.lastModified() > oldestOutput) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Connects each step to the steps making its inputs (and its "after" steps),
+	 * and checks for cycles.
+	 */
+	private static void link(List<Step> steps) throws CommandArgumentException {
+		Map<String, Step> byName = new HashMap<String, Step>();
+		Map<String, Step> byOutput = new HashMap<String, Step>();
+		for (Step s: steps) {
+			if (s.args == null) {
+				throw new CommandArgumentException("Workflow step [" + s.name + "] is missing \"run:\"");
+			}
+			if (byName.containsKey(s.name)) {
+				throw new CommandArgumentException("Duplicate workflow step: " + s.name);
+			}
+			byName.put(s.name, s);
+			for (String out: s.outputs) {
+				String key = new File(out).getAbsolutePath();
+				if (byOutput.containsKey(key)) {
+					throw new CommandArgumentException("Output " + out + " is made by more than one step: " + byOutput.get(key).name + ", " + s.name);
+				}
+				byOutput.put(key, s);
+			}
+		}
+		for (Step s: steps) {
+			for (String in: s.inputs) {
+				Step dep = byOutput.get(new File(in).getAbsolutePath());
+				if (dep != null && dep != s && !s.deps.contains(dep)) {
+					s.deps.add(dep);
+				}
+			}
+			for (String name: s.after) {
+				Step dep = byName.get(name);
+				if (dep == null) {
+					throw new CommandArgumentException("Unknown workflow step: " + name + " (line " + s.line + ")");
+				}
+				if (!s.deps.contains(dep)) {
+					s.deps.add(dep);
+				}
+			}
+			s.waitingOn = s.deps.size();
+			for (Step dep: s.deps) {
+				dep.dependents.add(s);
+			}
+		}
+
+		// any steps left after removing the ones without (remaining) dependencies are in a cycle
+		Map<Step, Integer> remaining = new HashMap<Step, Integer>();
+		List<Step> queue = new ArrayList<Step>();
+		for (Step s: steps) {
+			remaining.put(s, s.deps.size());
+			if (s.deps.isEmpty()) {
+				queue.add(s);
+			}
+		}
+		int seen = 0;
+		while (!queue.isEmpty()) {
+			Step s = queue.remove(queue.size() - 1);
+			seen++;
+			for (Step dep: s.dependents) {
+				int n = remaining.get(dep) - 1;
+				remaining.put(dep, n);
+				if (n == 0) {
+					queue.add(dep);
+				}
+			}
+		}
+		if (seen < steps.size()) {
+			List<String> names = new ArrayList<String>();
+			for (Step s: steps) {
+				if (remaining.get(s) > 0) {
+					names.add(s.name);
+				}
+			}
+			throw new CommandArgumentException("Workflow has a cycle: " + String.join(", ", names));
+		}
+	}
+
+	private static List<Step> parse(String filename) throws IOException, CommandArgumentException {
+		List<Step> out = new ArrayList<Step>();
+		Step cur = null;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8));
+		try {
+			String line;
+			int lineno = 0;
+			while ((line = reader.readLine()) != null) {
+				lineno++;
+				line = line.trim();
+				if (line.equals("") || line.startsWith("#")) {
+					continue;
+				}
+				if (line.startsWith("[") && line.endsWith("]")) {
+					cur = new Step(line.substring(1, line.length() - 1).trim(), lineno);
+					out.add(cur);
+					continue;
+				}
+				int colon = line.indexOf(':');
+				if (cur == null || colon == -1) {
+					throw new CommandArgumentException("Invalid workflow line " + lineno + ": " + line);
+				}
+				String key = line.substring(0, colon).trim();
+				List<String> vals = split(line.substring(colon + 1), lineno);
+				if (key.equals("in")) {
+					cur.inputs.addAll(vals);
+				} else if (key.equals("out")) {
+					cur.outputs.addAll(vals);
+				} else if (key.equals("after")) {
+					cur.after.addAll(vals);
+				} else if (key.equals("run")) {
+					cur.args = vals.toArray(new String[vals.size()]);
+				} else if (key.equals("stdout") && vals.size() == 1) {
+					cur.stdout = vals.get(0);
+				} else {
+					throw new CommandArgumentException("Invalid workflow line " + lineno + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return out;
+	}
+
+	/**
+	 * Splits on whitespace, with '...' or "..." quoting
+	 */
+	private static List<String> split(String s, int lineno) throws CommandArgumentException {
+		List<String> out = new ArrayList<String>();
+		StringBuilder sb = null;
+		char quote = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else {
+					sb.append(c);
+				}
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+				if (sb == null) {
+					sb = new StringBuilder();
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (sb != null) {
+					out.add(sb.toString());
+					sb = null;
+				}
+			} else {
+				if (sb == null) {
+					sb = new StringBuilder();
+				}
+				sb.append(c);
+			}
+		}
+		if (quote != 0) {
+			throw new CommandArgumentException("Unmatched quote on workflow line " + lineno);
+		}
+		if (sb != null) {
+			out.add(sb.toString());
+		}
+		return out;
+	}
+}
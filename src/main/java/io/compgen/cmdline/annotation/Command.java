@@ -18,4 +18,35 @@ public @interface Command {
     boolean experimental() default false;
     boolean deprecated() default false;
 	boolean hidden() default false;
+
+	/**
+	 * The output files only depend on the arguments and input files, so results can
+	 * be restored from the result cache (see MainBuilder.setResultCache). Output
+	 * files must be marked with @Option(output=true).
+	 */
+	boolean cacheable() default false;
+
+	/**
+	 * The command can save its progress and be resumed (see
+	 * io.compgen.cmdline.impl.Checkpoint), so it takes the --checkpoint and
+	 * --resume options from AbstractCommand.
+	 */
+	boolean checkpoint() default false;
+
+	/*
+	 * JVM tuning hints, used by the generated launcher (see io.compgen.cmdline.Launcher)
+	 */
+
+	/** Preferred garbage collector (Serial, Parallel, G1, Z, Shenandoah) */
+	String gc() default "";
+	/** Maximum heap size (-Xmx), ex: 512m, 8g */
+	String maxHeap() default "";
+	/** Initial heap size (-Xms) */
+	String initialHeap() default "";
+	/** Short-lived command: stop JIT at C1 (-XX:TieredStopAtLevel=1) */
+	boolean quickStart() default false;
+	/** CDS archive to use for this command (see CdsTrain) */
+	String cdsArchive() default "";
+	/** Any other JVM arguments */
+	String[] jvmArgs() default {};
 }
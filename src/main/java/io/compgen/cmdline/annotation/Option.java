@@ -22,4 +22,13 @@ public @interface Option {
 
 	boolean hide() default false;
 	boolean showHelp() default false;
+
+	/** The value is an output filename (used by @Command(cacheable=true)) */
+	boolean output() default false;
+
+	/** The value changes how the command runs, but not its outputs, so it isn't part of the cache key */
+	boolean cacheKey() default true;
+
+	/** Only an option for commands with @Command(checkpoint=true) */
+	boolean checkpoint() default false;
 }
@@ -0,0 +1,245 @@
+package io.compgen.cmdline.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of large read-only resources (indexes, annotation tables,
+ * models), shared by the commands run from one MainBuilder (ex: in a batch,
+ * pipeline, or long-lived embedded process).
+ *
+ * Commands get the cache by defining setResourceCache(ResourceCache), and
+ * lease resources by key:
+ *
+ *   Lease<Index> lease = cache.acquire("index:" + path, new ResourceCache.Loader<Index>() {
+ *       public Index load() throws Exception {
+ *           return Index.load(path);
+ *       }
+ *       public long size(Index index) {
+ *           return index.sizeInBytes();
+ *       }
+ *   });
+ *   try {
+ *       lease.get().lookup(...);
+ *   } finally {
+ *       lease.close();
+ *   }
+ *
+ * If another invocation is already loading the same key, acquire() waits for
+ * that load instead of starting another one. Resources are reference counted;
+ * once a resource isn't leased, it can be evicted (least recently used first)
+ * when the total size is over the memory budget. Resources in use are never
+ * evicted, so the budget can be exceeded while they are leased. Evicted
+ * resources that are Closeable are closed.
+ */
+public class ResourceCache {
+	public static abstract class Loader<T> {
+		public abstract T load() throws Exception;
+
+		/**
+		 * @return the (approximate) memory used by this resource (default: 0, not counted)
+		 */
+		public long size(T value) {
+			return 0;
+		}
+	}
+
+	public class Lease<T> implements Closeable {
+		private final Entry entry;
+		private boolean released = false;
+
+		private Lease(Entry entry) {
+			this.entry = entry;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get() {
+			if (released) {
+				throw new IllegalStateException("Lease has been released: " + entry.key);
+			}
+			return (T) entry.value;
+		}
+
+		public String getKey() {
+			return entry.key;
+		}
+
+		/**
+		 * Releases the resource (it stays cached, but can now be evicted)
+		 */
+		@Override
+		public void close() {
+			synchronized (ResourceCache.this) {
+				if (released) {
+					return;
+				}
+				released = true;
+				entry.refs--;
+				evict();
+			}
+		}
+	}
+
+	private static class Entry {
+		private final String key;
+		private Object value = null;
+		private long size = 0;
+		private int refs = 0;
+		private boolean loaded = false;
+		private Exception error = null;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long maxBytes;
+	private long totalBytes = 0;
+
+	private long hits = 0;
+	private long loads = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param maxBytes memory budget for resources that aren't in use
+	 */
+	public ResourceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Returns the resource for this key, loading it if needed. The lease must be
+	 * closed when the command is done with the resource.
+	 *
+	 * @throws Exception the loader's exception, if the load failed (failed loads
+	 * aren't cached; the next acquire() will try again)
+	 */
+	public <T> Lease<T> acquire(String key, Loader<T> loader) throws Exception {
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(key);
+				entries.put(key, entry);
+				load = true;
+				loads++;
+			} else {
+				hits++;
+			}
+			entry.refs++;
+			if (!load) {
+				// someone else is loading it
+				while (!entry.loaded && entry.error == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						entry.refs--;
+						throw e;
+					}
+				}
+				if (entry.error != null) {
+					entry.refs--;
+					throw entry.error;
+				}
+				return new Lease<T>(entry);
+			}
+		}
+
+		T value;
+		long size;
+		try {
+			value = loader.load();
+			size = loader.size(value);
+		} catch (Throwable t) {
+			synchronized (this) {
+				entry.error = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+				entry.refs--;
+				entries.remove(key);
+				notifyAll();
+			}
+			if (t instanceof Exception) {
+				throw (Exception) t;
+			}
+			throw (Error) t;
+		}
+
+		synchronized (this) {
+			entry.value = value;
+			entry.size = size;
+			entry.loaded = true;
+			totalBytes += size;
+			notifyAll();
+			evict();
+		}
+		return new Lease<T>(entry);
+	}
+
+	/**
+	 * Removes all of the resources that aren't in use
+	 */
+	public synchronized void clear() {
+		long max = maxBytes;
+		maxBytes = -1;
+		evict();
+		maxBytes = max;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getLoads() {
+		return loads;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// called with the lock held
+	private void evict() {
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+		List<Entry> removed = new ArrayList<Entry>();
+		Iterator<Entry> it = entries.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Entry e = it.next();
+			if (e.loaded && e.refs == 0) {
+				it.remove();
+				totalBytes -= e.size;
+				evictions++;
+				removed.add(e);
+			}
+		}
+		for (Entry e: removed) {
+			if (e.value instanceof Closeable) {
+				try {
+					((Closeable) e.value).close();
+				} catch (IOException ex) {
+					// nothing else we can do here
+				}
+			}
+		}
+	}
+}
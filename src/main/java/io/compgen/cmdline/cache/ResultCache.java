@@ -0,0 +1,258 @@
+package io.compgen.cmdline.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Local content-addressed cache of command output files.
+ *
+ * The key is a SHA-256 of the command, its normalized arguments, and a
+ * fingerprint (path, size, mtime, and optionally a content hash) of each input
+ * file. Each entry is a directory named by the key holding a copy of each
+ * output file.
+ *
+ * Entries are populated in a temporary directory and renamed into place, so a
+ * partially written entry is never visible. Outputs are restored the same way
+ * (fetch() copies them next to the outputs, install() moves them into place).
+ * When the cache is larger than its size limit, the least recently used entries
+ * (by directory mtime, which is updated on each hit) are removed.
+ */
+public class ResultCache {
+	private static final String TMP_PREFIX = ".tmp-";
+
+	private final File root;
+	private final long maxBytes;
+	private boolean hashContents = false;
+
+	public ResultCache(File root, long maxBytes) {
+		this.root = root;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Also include a hash of the contents of each input file in the key
+	 * (default: only path, size, and modification time)
+	 */
+	public void setHashContents(boolean hashContents) {
+		this.hashContents = hashContents;
+	}
+
+	public String key(String command, List<String> args, List<File> inputs) throws IOException {
+		MessageDigest md = sha256();
+		update(md, command);
+		for (String arg: args) {
+			update(md, arg);
+		}
+		for (File f: inputs) {
+			update(md, f.getAbsolutePath());
+			update(md, Long.toString(f.length()));
+			update(md, Long.toString(f.lastModified()));
+			if (hashContents && f.isFile()) {
+				InputStream is = new FileInputStream(f);
+				try {
+					byte[] buf = new byte[64 * 1024];
+					int n;
+					while ((n = is.read(buf)) > 0) {
+						md.update(buf, 0, n);
+					}
+				} finally {
+					is.close();
+				}
+			}
+		}
+		return hex(md.digest());
+	}
+
+	/**
+	 * Copy the cached outputs for this key into place.
+	 *
+	 * @return false if there is no (complete) entry for this key
+	 */
+	public boolean restore(String key, List<File> outputs) {
+		List<File> copies = fetch(key, outputs);
+		if (copies == null) {
+			return false;
+		}
+		try {
+			install(copies, outputs);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			discard(copies);
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the cached outputs for this key next to each output (see install()),
+	 * so the entry can't be evicted before it is used.
+	 *
+	 * @return the copies, or null if there is no (complete) entry for this key
+	 */
+	public List<File> fetch(String key, List<File> outputs) {
+		File entry = new File(root, key);
+		if (!entry.isDirectory()) {
+			return null;
+		}
+		List<File> copies = new ArrayList<File>();
+		try {
+			for (int i = 0; i < outputs.size(); i++) {
+				File src = new File(entry, Integer.toString(i));
+				File dest = outputs.get(i).getAbsoluteFile();
+				File tmp = new File(dest.getParentFile(), TMP_PREFIX + dest.getName() + "-" + UUID.randomUUID());
+				// the entry could have been evicted by another process
+				if (!src.isFile()) {
+					discard(copies);
+					return null;
+				}
+				copies.add(tmp);
+				Files.copy(src.toPath(), tmp.toPath());
+			}
+		} catch (IOException e) {
+			discard(copies);
+			return null;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		return copies;
+	}
+
+	/**
+	 * Move the copies from fetch() into place.
+	 */
+	public void install(List<File> copies, List<File> outputs) throws IOException {
+		for (int i = 0; i < outputs.size(); i++) {
+			Files.move(copies.get(i).toPath(), outputs.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Remove any copies from fetch() that weren't installed
+	 */
+	public void discard(List<File> copies) {
+		for (File tmp: copies) {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Add the outputs for this key to the cache, then evict old entries if the cache is too large.
+	 */
+	public void store(String key, List<File> outputs) throws IOException {
+		if (!root.exists() && !root.mkdirs() && !root.isDirectory()) {
+			throw new IOException("Unable to create cache directory: " + root);
+		}
+		File entry = new File(root, key);
+		if (entry.exists()) {
+			return;
+		}
+		File tmp = new File(root, TMP_PREFIX + UUID.randomUUID());
+		if (!tmp.mkdir()) {
+			throw new IOException("Unable to create cache directory: " + tmp);
+		}
+		try {
+			for (int i = 0; i < outputs.size(); i++) {
+				Files.copy(outputs.get(i).toPath(), new File(tmp, Integer.toString(i)).toPath());
+			}
+			Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// another process may have populated the same key first
+			if (!entry.exists()) {
+				throw e;
+			}
+		} finally {
+			if (tmp.exists()) {
+				delete(tmp);
+			}
+		}
+		evict();
+	}
+
+	public void evict() {
+		File[] entries = root.listFiles();
+		if (entries == null) {
+			return;
+		}
+		List<File> valid = new ArrayList<File>();
+		long total = 0;
+		for (File f: entries) {
+			if (f.isDirectory() && !f.getName().startsWith(TMP_PREFIX)) {
+				valid.add(f);
+				total += size(f);
+			}
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+
+		// oldest first
+		File[] sorted = valid.toArray(new File[valid.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (int i = 0; i < sorted.length && total > maxBytes; i++) {
+			long sz = size(sorted[i]);
+			// move out of the way first, so no reader sees a partial entry
+			File doomed = new File(root, TMP_PREFIX + UUID.randomUUID());
+			if (sorted[i].renameTo(doomed)) {
+				delete(doomed);
+				total -= sz;
+			}
+		}
+	}
+
+	private static long size(File dir) {
+		long total = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				total += f.length();
+			}
+		}
+		return total;
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
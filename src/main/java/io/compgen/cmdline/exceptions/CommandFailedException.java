@@ -0,0 +1,29 @@
+package io.compgen.cmdline.exceptions;
+
+/**
+ * Thrown from @Exec when the command has already reported its own errors: only
+ * the message is shown (no help or stack trace), and the run exits with this
+ * exit code.
+ */
+public class CommandFailedException extends Exception {
+	private final int exitCode;
+
+	public CommandFailedException(String s) {
+		this(s, 1);
+	}
+
+	public CommandFailedException(String s, int exitCode) {
+		super(s);
+		this.exitCode = exitCode;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 6051782355720938141L;
+
+}
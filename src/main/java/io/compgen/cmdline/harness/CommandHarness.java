@@ -0,0 +1,100 @@
+package io.compgen.cmdline.harness;
+
+import io.compgen.cmdline.MainBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs commands in-process, with their stdin, stdout and stderr connected to
+ * in-memory buffers, for end-to-end tests without starting a JVM per case.
+ *
+ *   CommandHarness harness = new CommandHarness(new MainBuilder().addCommand(MyCmd.class));
+ *   CommandResult r = harness.run("mycmd", "-n", "3");
+ *   assertEquals(0, r.getExitCode());
+ *   assertEquals("...", r.getStdout());
+ *
+ * Cases can be run in parallel with runAll(). Commands should use the injected
+ * streams (AbstractCommand's stdin/stdout/stderr) instead of System.in/out/err,
+ * and not call System.exit().
+ */
+public class CommandHarness {
+	private final MainBuilder builder;
+
+	public CommandHarness(MainBuilder builder) {
+		this.builder = builder;
+	}
+
+	public CommandResult run(String... args) {
+		return run(new byte[0], args);
+	}
+
+	public CommandResult runWithInput(String stdin, String... args) {
+		return run(stdin.getBytes(StandardCharsets.UTF_8), args);
+	}
+
+	public CommandResult run(byte[] stdin, String... args) {
+		return run(new ByteArrayInputStream(stdin), args);
+	}
+
+	public CommandResult run(InputStream stdin, String... args) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream errps = new PrintStream(err, true);
+
+		int exitCode;
+		Throwable exception = null;
+		long start = System.nanoTime();
+		try {
+			exitCode = builder.run(args, stdin, out, errps);
+		} catch (Throwable t) {
+			exception = t;
+			exitCode = 1;
+			t.printStackTrace(errps);
+		}
+		long elapsed = System.nanoTime() - start;
+		errps.flush();
+		return new CommandResult(args, exitCode, out.toByteArray(), err.toByteArray(), exception, elapsed);
+	}
+
+	/**
+	 * Runs each case (arguments, with an empty stdin) on a pool of threads.
+	 *
+	 * @return the results, in the same order as the cases
+	 */
+	public List<CommandResult> runAll(List<String[]> cases, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<CommandResult>> futures = new ArrayList<Future<CommandResult>>();
+			for (final String[] args: cases) {
+				futures.add(pool.submit(new Callable<CommandResult>() {
+					public CommandResult call() {
+						return run(args);
+					}
+				}));
+			}
+			List<CommandResult> results = new ArrayList<CommandResult>();
+			for (Future<CommandResult> f: futures) {
+				try {
+					results.add(f.get());
+				} catch (ExecutionException e) {
+					// run() catches everything, so this would be an Error
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package io.compgen.cmdline.harness;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The exit code and captured output of a command run with CommandHarness.
+ */
+public class CommandResult {
+	private final String[] args;
+	private final int exitCode;
+	private final byte[] stdout;
+	private final byte[] stderr;
+	private final Throwable exception;
+	private final long elapsedNanos;
+
+	public CommandResult(String[] args, int exitCode, byte[] stdout, byte[] stderr, Throwable exception, long elapsedNanos) {
+		this.args = args;
+		this.exitCode = exitCode;
+		this.stdout = stdout;
+		this.stderr = stderr;
+		this.exception = exception;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public String[] getArgs() {
+		return args;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	public boolean isSuccess() {
+		return exitCode == 0;
+	}
+
+	public byte[] getStdoutBytes() {
+		return stdout;
+	}
+
+	public byte[] getStderrBytes() {
+		return stderr;
+	}
+
+	public String getStdout() {
+		return new String(stdout, StandardCharsets.UTF_8);
+	}
+
+	public String getStderr() {
+		return new String(stderr, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return an exception thrown out of MainBuilder.run() (exit code 1), or null
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "CommandResult" + Arrays.toString(args) + " exit=" + exitCode + (exception != null ? " exception=" + exception : "");
+	}
+}
@@ -1,14 +1,123 @@
 package io.compgen.cmdline.impl;
 
 import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.log.Level;
+import io.compgen.cmdline.log.Log;
+import io.compgen.cmdline.progress.Progress;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 
 public abstract class AbstractCommand  {
     protected boolean verbose = false;
+    protected int verbosity = 0;
+    protected boolean quiet = false;
+    protected Progress progress = null;
+    protected Log log = null;
+    protected ShardSpec shard = ShardSpec.ALL;
+    protected CancellationToken cancel = new CancellationToken();
+    protected Checkpoint checkpoint = Checkpoint.NONE;
+
+    /*
+     * Standard input/output/error for this command. These are System.in/out/err,
+     * unless the command is run as part of an in-process pipeline (or with
+     * MainBuilder.run()).
+     */
+    protected InputStream stdin = System.in;
+    protected OutputStream stdout = System.out;
+    protected PrintStream stderr = System.err;
 
-    @Option(desc = "Verbose output", charName = "v")
+    /**
+     * Can be given more than once (-v, -vv, -vvv) to raise the log level.
+     */
+    @Option(desc = "Verbose output (-vv for more)", charName = "v", allowMultiple=true, cacheKey=false)
     public void setVerbose(boolean verbose) {
         this.verbose = verbose;
+        if (verbose) {
+            verbosity++;
+        } else {
+            verbosity = 0;
+        }
+        if (log != null && !log.isEnabled(Level.fromVerbosity(verbosity))) {
+            log.setLevel(Level.fromVerbosity(verbosity));
+        }
+    }
+
+    @Option(desc = "Don't show progress", name="quiet", cacheKey=false)
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+        if (progress != null) {
+            progress.setQuiet(quiet);
+        }
+    }
+
+    /**
+     * The shard is also injected (setShardSpec) before any options are set, so
+     * other option setters (like output filenames) can use it.
+     */
+    @Option(desc = "Only process shard i of n", name="shard", helpValue="i/n")
+    public void setShard(String shard) throws CommandArgumentException {
+        this.shard = ShardSpec.parse(shard);
+    }
+
+    @Option(desc = "Stop if the command takes longer than this, ex: 90s, 30m, 2h", name="timeout", helpValue="time", cacheKey=false)
+    public void setTimeout(String timeout) throws CommandArgumentException {
+        cancel.setTimeout(CancellationToken.parseDuration(timeout));
     }
+
+    /**
+     * The checkpoint is set up (and restored, with --resume) by MainBuilder and
+     * injected (setCheckpoint) before any options are set, since output setters
+     * need it. MainBuilder reads --checkpoint and --resume itself (only for
+     * commands with @Command(checkpoint=true)), so these setters are intentionally
+     * empty: they only declare the options (for help and argument checking). Use
+     * the injected checkpoint (checkpoint.getFile(), checkpoint.isResumed()).
+     */
+    @Option(desc = "Save progress to this file, so the command can be resumed", name="checkpoint", helpValue="fname", cacheKey=false, checkpoint=true)
+    public void setCheckpointFile(String fname) {
+    }
+
+    /**
+     * See setCheckpointFile (handled by MainBuilder)
+     */
+    @Option(desc = "Resume from the --checkpoint file (if it exists)", name="resume", cacheKey=false, checkpoint=true)
+    public void setResume(boolean resume) {
+    }
+
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public void setCancellationToken(CancellationToken cancel) {
+        this.cancel = cancel;
+    }
+
+    public void setShardSpec(ShardSpec shard) {
+        this.shard = shard;
+    }
+
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    public void setLog(Log log) {
+        this.log = log;
+    }
+
+    public void setStdin(InputStream stdin) {
+        this.stdin = stdin;
+    }
+
+    public void setStdout(OutputStream stdout) {
+        this.stdout = stdout;
+    }
+
+    public void setStderr(PrintStream stderr) {
+        this.stderr = stderr;
+    }
+
     @Option(desc = "Show help", charName = "h", name="help", showHelp=true)
     public void showHelp() {}
 }
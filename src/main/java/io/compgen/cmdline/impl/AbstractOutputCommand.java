@@ -2,31 +2,90 @@ package io.compgen.cmdline.impl;
 
 import io.compgen.cmdline.annotation.Cleanup;
 import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.io.BufferedFileOutputStream;
+import io.compgen.cmdline.io.ChannelOutputStream;
 
-import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 
 public abstract class AbstractOutputCommand extends AbstractCommand {
-    protected OutputStream out = System.out;
+    protected OutputStream out = stdout;
 
-    @Option(desc="Output filename (optionally gzip/bzip2 compressed)", charName="o", defaultValue="-", name="output", helpValue="fname")
+    private String outputName = null;
+    private boolean largeOutput = false;
+    private boolean directIO = false;
+    private long expectedSize = -1;
+    private boolean opened = false;
+
+    /**
+     * With --shard, the shard is added to the filename (out.txt.gz => out.shard-03-of-16.txt.gz).
+     * With --checkpoint, the file is kept in step with the checkpoint (see Checkpoint.openOutput).
+     */
+    @Option(desc="Output filename (optionally gzip/bzip2 compressed)", charName="o", defaultValue="-", name="output", helpValue="fname", output=true)
     public void setOutputName(String outputName) throws IOException {
+        this.outputName = shard.shardName(outputName);
+        openOutput();
+    }
+
+    /**
+     * For very large outputs: large block writes, synced to disk as they go (see ChannelOutputStream).
+     */
+    @Option(desc="Write the output file in large blocks (for very large files)", name="large-output", cacheKey=false)
+    public void setLargeOutput(boolean largeOutput) throws IOException {
+        this.largeOutput = largeOutput;
+        reopenOutput();
+    }
+
+    @Option(desc="Write the output file without using the page cache (implies --large-output)", name="direct-io", cacheKey=false)
+    public void setDirectIO(boolean directIO) throws IOException {
+        this.directIO = directIO;
+        reopenOutput();
+    }
+
+    @Option(desc="Expected output file size, checked against the free space, ex: 200G (implies --large-output)", name="expected-size", helpValue="size", cacheKey=false)
+    public void setExpectedSize(String size) throws IOException, CommandArgumentException {
+        this.expectedSize = Sizes.parse(size);
+        reopenOutput();
+    }
+
+    /*
+     * Options can be given in any order, so the output is re-opened if a write
+     * mode option comes after -o (nothing has been written yet).
+     */
+    private void reopenOutput() throws IOException {
+        if (opened && !checkpoint.isEnabled()) {
+            out.close();
+            openOutput();
+        }
+    }
+
+    private void openOutput() throws IOException {
+        opened = !outputName.equals("-");
         if (outputName.equals("-")) {
-            out = System.out;
+            out = stdout;
+        } else if (checkpoint.isEnabled()) {
+            out = checkpoint.openOutput(outputName);
+        } else if (largeOutput || directIO || expectedSize > 0) {
+            ChannelOutputStream cos = new ChannelOutputStream(outputName);
+            cos.setDirect(directIO);
+            cos.setExpectedSize(expectedSize);
+            out = outputName.endsWith(".gz") ? new GZIPOutputStream(cos, 64 * 1024) : cos;
         } else if (outputName.endsWith(".gz")) {
             out = new GZIPOutputStream(new FileOutputStream(outputName));
         } else {
-            out = new BufferedOutputStream(new FileOutputStream(outputName));
+            out = new BufferedFileOutputStream(outputName);
         }
     }
     
     @Cleanup
     public void close() throws IOException {
-        if (out != System.out) {
+        if (out != stdout) {
             out.close();
+        } else {
+            out.flush();
         }
     }
 }
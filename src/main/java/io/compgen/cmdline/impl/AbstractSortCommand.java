@@ -0,0 +1,72 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.annotation.Cleanup;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import io.compgen.cmdline.io.TempDir;
+import io.compgen.cmdline.sort.ExternalSorter;
+import io.compgen.cmdline.sort.RecordCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Base class for commands that need to sort (or group) more data than fits in
+ * memory. Sorters from newSorter() spill to a private directory under --tmpdir,
+ * which is removed after the command is done.
+ */
+public abstract class AbstractSortCommand extends AbstractOutputCommand {
+    protected String tmpDirName = null;
+    protected long sortMem = Runtime.getRuntime().maxMemory() / 4;
+    protected int sortThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private TempDir tmpDir = null;
+    private final List<ExternalSorter<?>> sorters = new ArrayList<ExternalSorter<?>>();
+
+    @Option(desc="Directory for temporary files (default: $TMPDIR)", name="tmpdir", helpValue="dir", cacheKey=false)
+    public void setTmpDir(String tmpDirName) {
+        this.tmpDirName = tmpDirName;
+    }
+
+    @Option(desc="Memory to use for sorting, ex: 512M, 2G (default: 1/4 of the heap)", name="sort-mem", helpValue="size", cacheKey=false)
+    public void setSortMem(String sortMem) throws CommandArgumentException {
+        this.sortMem = Sizes.parse(sortMem);
+    }
+
+    @Option(desc="Threads to use for sorting (default: up to 4)", name="sort-threads", helpValue="n", cacheKey=false)
+    public void setSortThreads(int sortThreads) {
+        this.sortThreads = sortThreads;
+    }
+
+    /**
+     * @return a new sorter that uses --sort-mem and --sort-threads. Sorters are closed
+     * (and their temporary files removed) after the command is done.
+     */
+    protected <T> ExternalSorter<T> newSorter(Comparator<? super T> comparator, RecordCodec<T> codec) throws IOException {
+        ExternalSorter<T> sorter = new ExternalSorter<T>(comparator, codec, getTempDir(), sortMem, sortThreads);
+        sorters.add(sorter);
+        return sorter;
+    }
+
+    protected synchronized TempDir getTempDir() throws IOException {
+        if (tmpDir == null) {
+            tmpDir = new TempDir(tmpDirName == null ? null : new File(tmpDirName), "sort-");
+        }
+        return tmpDir;
+    }
+
+    @Cleanup
+    public void closeSorters() {
+        for (ExternalSorter<?> sorter: sorters) {
+            sorter.close();
+        }
+        sorters.clear();
+        if (tmpDir != null) {
+            tmpDir.close();
+            tmpDir = null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for a running command. MainBuilder injects one into
+ * each command (setCancellationToken) and cancels it when the --timeout passes,
+ * or on SIGINT/SIGTERM. Cancelling also interrupts the @Exec thread, which will
+ * stop most blocking waits, but long-running loops should check
+ * isCancelled() or call throwIfCancelled().
+ */
+public class CancellationToken {
+    private volatile String reason = null;
+    private volatile boolean timedOut = false;
+    private long timeoutMillis = 0;
+
+    private Thread execThread = null;
+    private Thread watchdog = null;
+
+    /**
+     * @param timeoutMillis time allowed for the @Exec method (0 for no limit)
+     */
+    public synchronized void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public synchronized long getTimeout() {
+        return timeoutMillis;
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void throwIfCancelled() throws CancellationException {
+        if (reason != null) {
+            throw new CancellationException(reason);
+        }
+    }
+
+    public synchronized void cancel(String reason) {
+        if (this.reason != null) {
+            return;
+        }
+        this.reason = reason;
+        if (execThread != null) {
+            execThread.interrupt();
+        }
+    }
+
+    /**
+     * Called by MainBuilder when @Exec starts. Starts the timeout, and cancel()
+     * will now interrupt this thread.
+     */
+    public synchronized void start(Thread thread) {
+        this.execThread = thread;
+        if (reason != null) {
+            thread.interrupt();
+        }
+        if (timeoutMillis > 0) {
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            watchdog = new Thread("timeout-watchdog") {
+                public void run() {
+                    try {
+                        long remaining;
+                        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                            Thread.sleep(remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (CancellationToken.this) {
+                        if (execThread == null) {
+                            return;
+                        }
+                        timedOut = true;
+                        cancel("Timed out after " + formatDuration(timeoutMillis));
+                    }
+                }
+            };
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+    }
+
+    /**
+     * Called by MainBuilder when @Exec is done. The thread won't be interrupted again.
+     */
+    public synchronized void stop() {
+        execThread = null;
+        if (watchdog != null) {
+            watchdog.interrupt();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * @param duration ex: 90, 90s, 15m, 2h, 1d (default unit: seconds)
+     * @return milliseconds
+     */
+    public static long parseDuration(String duration) throws CommandArgumentException {
+        String s = duration.trim().toLowerCase();
+        long mult = 1000;
+        if (s.endsWith("ms")) {
+            mult = 1;
+            s = s.substring(0, s.length() - 2);
+        } else if (s.endsWith("s")) {
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("m")) {
+            mult = 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("h")) {
+            mult = 60 * 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("d")) {
+            mult = 24 * 60 * 60 * 1000;
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            long val = (long) (Double.parseDouble(s) * mult);
+            if (val <= 0) {
+                throw new CommandArgumentException("Invalid duration: " + duration);
+            }
+            return val;
+        } catch (NumberFormatException e) {
+            throw new CommandArgumentException("Invalid duration: " + duration);
+        }
+    }
+
+    private static String formatDuration(long millis) {
+        if (millis % 1000 != 0) {
+            return millis + "ms";
+        }
+        return (millis / 1000) + "s";
+    }
+}
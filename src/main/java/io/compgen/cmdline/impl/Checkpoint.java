@@ -0,0 +1,432 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the progress of a long-running command, so that it can be resumed
+ * (--checkpoint fname --resume) after it is killed.
+ *
+ * MainBuilder injects one into each command (setCheckpoint). The command
+ * commits its progress every so often:
+ *
+ *   if (checkpoint.isDue()) {
+ *       checkpoint.commit(inputOffset, records, state);
+ *   }
+ *
+ * and when it starts, it skips ahead to getOffset() if isResumed(). Outputs
+ * opened with openOutput() (AbstractOutputCommand does this) are flushed at
+ * each commit, and on resume they are truncated to the committed length and
+ * appended to. Gzip outputs start a new gzip member at each commit.
+ *
+ * commit() only flushes the outputs. The outputs are synced and the checkpoint
+ * file is written by a background thread (write to a temp file, fsync, rename),
+ * so the checkpoint file is always either the previous or the new commit, and
+ * never points past what is on disk. The file is removed when the command
+ * finishes successfully.
+ */
+public class Checkpoint implements Closeable {
+    public static final Checkpoint NONE = new Checkpoint();
+
+    private static final int MAGIC = 0x434b5054;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static class Snapshot {
+        private final long offset;
+        private final long records;
+        private final byte[] state;
+        private final Map<String, Long> positions = new HashMap<String, Long>();
+
+        private Snapshot(long offset, long records, byte[] state) {
+            this.offset = offset;
+            this.records = records;
+            this.state = state;
+        }
+    }
+
+    private final File file;
+    private Snapshot restored = null;
+    private final List<Output> outputs = new ArrayList<Output>();
+
+    private long intervalNanos = 60 * 1000000000L;
+    private long lastCommit = System.nanoTime();
+
+    private Snapshot pending = null;
+    private boolean writing = false;
+    private boolean closed = false;
+    private IOException error = null;
+    private Thread writer = null;
+
+    private Checkpoint() {
+        this.file = null;
+    }
+
+    /**
+     * @param resume restore the last commit from this file (if it exists)
+     */
+    public Checkpoint(File file, boolean resume) throws CommandArgumentException {
+        this.file = file;
+        if (resume && file.exists()) {
+            try {
+                restored = read(file);
+            } catch (IOException e) {
+                throw new CommandArgumentException("Unable to read checkpoint: " + file + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the command is continuing from an earlier commit
+     */
+    public boolean isResumed() {
+        return restored != null;
+    }
+
+    /**
+     * @return the input offset from the last commit (0 if not resumed)
+     */
+    public long getOffset() {
+        return restored == null ? 0 : restored.offset;
+    }
+
+    /**
+     * @return the record count from the last commit (0 if not resumed)
+     */
+    public long getRecords() {
+        return restored == null ? 0 : restored.records;
+    }
+
+    /**
+     * @return the command's own state from the last commit (or null)
+     */
+    public byte[] getState() {
+        return restored == null ? null : restored.state;
+    }
+
+    /**
+     * How often isDue() returns true (default: 60 sec)
+     */
+    public void setInterval(long millis) {
+        this.intervalNanos = millis * 1000000L;
+    }
+
+    public boolean isDue() {
+        return file != null && System.nanoTime() - lastCommit >= intervalNanos;
+    }
+
+    /**
+     * Opens an output file that is kept in step with the checkpoint. If resuming,
+     * the file is truncated to its committed length and appended to. Files
+     * ending in .gz are gzip compressed.
+     */
+    public OutputStream openOutput(String filename) throws IOException {
+        File f = new File(filename);
+        long pos = 0;
+        if (restored != null && restored.positions.containsKey(f.getAbsolutePath())) {
+            pos = restored.positions.get(f.getAbsolutePath());
+            if (!f.exists() || f.length() < pos) {
+                throw new IOException("Output file is shorter than the checkpoint: " + filename);
+            }
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(pos);
+            } finally {
+                raf.close();
+            }
+        }
+        Output out = new Output(f, pos, filename.endsWith(".gz"));
+        synchronized (outputs) {
+            outputs.add(out);
+        }
+        return out;
+    }
+
+    /**
+     * Commits the command's progress. Outputs from openOutput() are flushed here;
+     * the rest happens in the background. Any error from an earlier (background)
+     * commit is thrown from here.
+     *
+     * @param offset where to restart reading the input
+     * @param records records processed so far
+     * @param state any other state the command needs to restart (can be null)
+     */
+    public void commit(long offset, long records, byte[] state) throws IOException {
+        if (file == null) {
+            return;
+        }
+        Snapshot snap = new Snapshot(offset, records, state == null ? null : state.clone());
+        synchronized (outputs) {
+            for (Output out: outputs) {
+                snap.positions.put(out.file.getAbsolutePath(), out.sync());
+            }
+        }
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            pending = snap;
+            if (writer == null) {
+                writer = new Thread("checkpoint-writer") {
+                    public void run() {
+                        writeLoop();
+                    }
+                };
+                writer.setDaemon(true);
+                writer.start();
+            }
+            notifyAll();
+        }
+        lastCommit = System.nanoTime();
+    }
+
+    /**
+     * Waits for any pending commit to be written.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            while (pending != null || writing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Removes the checkpoint file (called once the command has finished)
+     */
+    public void delete() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Snapshot snap;
+            synchronized (this) {
+                while (pending == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending == null) {
+                    writer = null;
+                    return;
+                }
+                snap = pending;
+                pending = null;
+                writing = true;
+            }
+            try {
+                write(snap);
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void write(Snapshot snap) throws IOException {
+        // the outputs have to be on disk before the checkpoint that points to them
+        for (String name: snap.positions.keySet()) {
+            FileChannel ch = FileChannel.open(new File(name).toPath(), StandardOpenOption.WRITE);
+            try {
+                ch.force(true);
+            } finally {
+                ch.close();
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+            DataOutputStream dos = new DataOutputStream(cos);
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(snap.offset);
+            dos.writeLong(snap.records);
+            if (snap.state == null) {
+                dos.writeInt(-1);
+            } else {
+                dos.writeInt(snap.state.length);
+                dos.write(snap.state);
+            }
+            dos.writeInt(snap.positions.size());
+            for (Map.Entry<String, Long> e: snap.positions.entrySet()) {
+                dos.writeUTF(e.getKey());
+                dos.writeLong(e.getValue());
+            }
+            dos.flush();
+            dos.writeLong(cos.getChecksum().getValue());
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            try {
+                FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+                try {
+                    ch.force(true);
+                } finally {
+                    ch.close();
+                }
+            } catch (IOException e) {
+                // not supported on all platforms
+            }
+        }
+    }
+
+    private static Snapshot read(File file) throws IOException {
+        CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+        DataInputStream dis = new DataInputStream(cis);
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                throw new IOException("not a checkpoint file");
+            }
+            long offset = dis.readLong();
+            long records = dis.readLong();
+            byte[] state = null;
+            int len = dis.readInt();
+            if (len >= 0) {
+                state = new byte[len];
+                dis.readFully(state);
+            }
+            Snapshot snap = new Snapshot(offset, records, state);
+            int n = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = dis.readUTF();
+                snap.positions.put(name, dis.readLong());
+            }
+            long crc = cis.getChecksum().getValue();
+            if (dis.readLong() != crc) {
+                throw new IOException("checksum mismatch");
+            }
+            return snap;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * An output file that knows how many bytes have been written to it.
+     */
+    private static class Output extends OutputStream {
+        private final File file;
+        private final boolean gzip;
+        private long position;
+        private final OutputStream buffered;
+        private OutputStream out;
+
+        private Output(File file, long start, boolean gzip) throws IOException {
+            this.file = file;
+            this.gzip = gzip;
+            this.position = start;
+            this.buffered = new BufferedOutputStream(new FilterOutputStream(new FileOutputStream(file, start > 0)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    position += len;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    position++;
+                }
+            }, BUFFER_SIZE);
+            this.out = gzip ? new GZIPOutputStream(buffered, BUFFER_SIZE) : buffered;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @return the length of the file, up to a point where it can be truncated
+         */
+        private synchronized long sync() throws IOException {
+            if (gzip) {
+                // each commit ends a gzip member (concatenated members are still valid gzip)
+                ((GZIPOutputStream) out).finish();
+                buffered.flush();
+                long pos = position;
+                out = new GZIPOutputStream(buffered, BUFFER_SIZE);
+                return pos;
+            }
+            buffered.flush();
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
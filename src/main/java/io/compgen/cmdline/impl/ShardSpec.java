@@ -0,0 +1,158 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+
+/**
+ * Deterministic slice of the work for one of N nodes (--shard i/n, 1-based).
+ *
+ * Input-reading code can select its slice in one of three ways:
+ *
+ *   by record index: includesRecord(recordNum)
+ *   by key hash:     includesKey(key) -- all records for a key go to the same shard
+ *   by byte range:   getStart(size)/getEnd(size) -- for splittable inputs, a shard
+ *                    owns the records that *start* in [start, end). Readers should
+ *                    skip to the first record boundary after start (unless start is
+ *                    0) and keep reading until they pass end.
+ *
+ * All three methods partition the input: every record belongs to exactly one shard.
+ */
+public class ShardSpec {
+    public static final ShardSpec ALL = new ShardSpec(1, 1);
+
+    private final int index;
+    private final int count;
+
+    public ShardSpec(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard: " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param spec i/n, ex: 3/16
+     */
+    public static ShardSpec parse(String spec) throws CommandArgumentException {
+        int slash = spec.indexOf('/');
+        if (slash < 1) {
+            throw new CommandArgumentException("Invalid shard (expected i/n): " + spec);
+        }
+        try {
+            int index = Integer.parseInt(spec.substring(0, slash).trim());
+            int count = Integer.parseInt(spec.substring(slash + 1).trim());
+            return new ShardSpec(index, count);
+        } catch (NumberFormatException e) {
+            throw new CommandArgumentException("Invalid shard (expected i/n): " + spec);
+        } catch (IllegalArgumentException e) {
+            throw new CommandArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return 1-based shard number
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isAll() {
+        return count == 1;
+    }
+
+    /**
+     * @param recordNum 0-based record number
+     */
+    public boolean includesRecord(long recordNum) {
+        return count == 1 || (recordNum % count) == index - 1;
+    }
+
+    public boolean includesKey(CharSequence key) {
+        if (count == 1) {
+            return true;
+        }
+        // FNV-1a, so the shard for a key is the same on every JVM
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return includesHash(h);
+    }
+
+    public boolean includesKey(long key) {
+        if (count == 1) {
+            return true;
+        }
+        return includesHash(key * 0x9e3779b97f4a7c15L);
+    }
+
+    private boolean includesHash(long h) {
+        // mix the high bits in before taking the modulus
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return Math.floorMod(h, (long) count) == index - 1;
+    }
+
+    /**
+     * @return the first byte offset for this shard
+     */
+    public long getStart(long totalSize) {
+        return offset(totalSize, index - 1);
+    }
+
+    /**
+     * @return the byte offset where the next shard starts
+     */
+    public long getEnd(long totalSize) {
+        return offset(totalSize, index);
+    }
+
+    private long offset(long totalSize, int i) {
+        if (i >= count) {
+            return totalSize;
+        }
+        // totalSize * i / count, without overflowing for large files
+        return (totalSize / count) * i + ((totalSize % count) * i) / count;
+    }
+
+    /**
+     * Adds the shard to a filename, so outputs sort and merge in shard order.
+     * Ex: out.txt.gz => out.shard-03-of-16.txt.gz (stdout, "-", is left alone)
+     */
+    public String shardName(String filename) {
+        if (count == 1 || filename.equals("-")) {
+            return filename;
+        }
+        String width = Integer.toString(Integer.toString(count).length());
+        String tag = String.format(".shard-%0" + width + "d-of-%d", index, count);
+
+        int slash = filename.lastIndexOf('/');
+        int dot = filename.indexOf('.', slash + 1);
+        if (dot <= slash + 1) {
+            // no extension (or a hidden file)
+            return filename + tag;
+        }
+        return filename.substring(0, dot) + tag + filename.substring(dot);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ShardSpec && ((ShardSpec) o).index == index && ((ShardSpec) o).count == count;
+    }
+
+    @Override
+    public int hashCode() {
+        return index * 31 + count;
+    }
+}
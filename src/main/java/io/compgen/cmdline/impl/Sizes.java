@@ -0,0 +1,38 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+
+/**
+ * Parses size options (--sort-mem, --expected-size, etc).
+ */
+public class Sizes {
+    /**
+     * @param size bytes, with an optional K, M, or G suffix (ex: 512M, 2G, 1.5GB)
+     */
+    public static long parse(String size) throws CommandArgumentException {
+        String s = size.trim().toUpperCase();
+        long mult = 1;
+        if (s.endsWith("B")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        if (s.endsWith("K")) {
+            mult = 1024L;
+        } else if (s.endsWith("M")) {
+            mult = 1024L * 1024;
+        } else if (s.endsWith("G")) {
+            mult = 1024L * 1024 * 1024;
+        }
+        if (mult > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            long val = (long) (Double.parseDouble(s) * mult);
+            if (val <= 0) {
+                throw new CommandArgumentException("Invalid size: " + size);
+            }
+            return val;
+        } catch (NumberFormatException e) {
+            throw new CommandArgumentException("Invalid size: " + size);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.compgen.cmdline.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A buffered file output that Transfer can write to directly.
+ */
+public class BufferedFileOutputStream extends BufferedOutputStream implements Transfer.Target {
+	private final FileOutputStream fos;
+
+	public BufferedFileOutputStream(String filename) throws FileNotFoundException {
+		this(new FileOutputStream(filename));
+	}
+
+	private BufferedFileOutputStream(FileOutputStream fos) {
+		super(fos);
+		this.fos = fos;
+	}
+
+	@Override
+	public FileChannel getChannel() throws IOException {
+		flush();
+		return fos.getChannel();
+	}
+}
@@ -0,0 +1,192 @@
+package io.compgen.cmdline.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory byte pipe between one writer thread and one reader thread.
+ *
+ * The writer blocks when the buffer is full and the reader blocks when it is
+ * empty. Closing the output stream signals EOF to the reader (after the
+ * remaining bytes are read). Closing the input stream makes further writes fail
+ * with a PipeClosedException, the same way a write to a closed OS pipe would
+ * raise SIGPIPE.
+ */
+public class ByteRingBuffer {
+	private final byte[] buf;
+	private long head = 0; // total bytes written
+	private long tail = 0; // total bytes read
+
+	private boolean writerClosed = false;
+	private boolean readerClosed = false;
+	private IOException writerError = null;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return ByteRingBuffer.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			lock.lock();
+			try {
+				return (int) (head - tail);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			closeReader();
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteRingBuffer.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			closeWriter(null);
+		}
+	};
+
+	public ByteRingBuffer(int capacity) {
+		this.buf = new byte[capacity];
+	}
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	/**
+	 * Close the writing side. If err is given, the reader will get it (wrapped in an
+	 * IOException, unless it is one) instead of EOF once the buffered bytes are read.
+	 */
+	public void closeWriter(Throwable err) {
+		lock.lock();
+		try {
+			writerClosed = true;
+			if (err != null && writerError == null) {
+				if (err instanceof IOException) {
+					writerError = (IOException) err;
+				} else {
+					writerError = new IOException("Upstream pipeline stage failed", err);
+				}
+			}
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void closeReader() {
+		lock.lock();
+		try {
+			readerClosed = true;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isReaderClosed() {
+		lock.lock();
+		try {
+			return readerClosed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		lock.lock();
+		try {
+			while (len > 0) {
+				if (readerClosed) {
+					throw new PipeClosedException();
+				}
+				if (writerClosed) {
+					throw new IOException("Stream closed");
+				}
+				int free = buf.length - (int) (head - tail);
+				if (free == 0) {
+					notFull.await();
+					continue;
+				}
+				int pos = (int) (head % buf.length);
+				int n = Math.min(len, Math.min(free, buf.length - pos));
+				System.arraycopy(b, off, buf, pos, n);
+				head += n;
+				off += n;
+				len -= n;
+				notEmpty.signal();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			while (head == tail) {
+				if (readerClosed) {
+					throw new IOException("Stream closed");
+				}
+				if (writerClosed) {
+					if (writerError != null) {
+						throw writerError;
+					}
+					return -1;
+				}
+				notEmpty.await();
+			}
+			int pos = (int) (tail % buf.length);
+			int n = Math.min(len, Math.min((int) (head - tail), buf.length - pos));
+			System.arraycopy(buf, pos, b, off, n);
+			tail += n;
+			notFull.signal();
+			return n;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
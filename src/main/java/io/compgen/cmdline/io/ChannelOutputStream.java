@@ -0,0 +1,312 @@
+package io.compgen.cmdline.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An output file for very large sequential writes. Data is collected in a large
+ * (aligned, direct) buffer and written to a FileChannel in big blocks, and the
+ * file is forced to disk every syncInterval bytes, so dirty pages don't pile up
+ * and get written back all at once.
+ *
+ * Options (set before the first write):
+ *
+ *   expectedSize - when the file is opened, fail early if the filesystem doesn't
+ *                  have this much free space. The file isn't preallocated: Java
+ *                  has no portable fallocate(), and extending the file with
+ *                  setLength() only makes a sparse file, which reserves nothing
+ *                  and leaves zero padding at the end if the process is killed.
+ *   direct       - write with O_DIRECT (ExtendedOpenOption.DIRECT, Java 10+),
+ *                  so the output doesn't push other files out of the page cache.
+ *                  If the JVM or filesystem doesn't support it, normal writes
+ *                  are used (see isDirect()).
+ *
+ * The file is opened on the first write (or close), so options can be set in
+ * any order.
+ */
+public class ChannelOutputStream extends OutputStream implements Transfer.Target {
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+	public static final long DEFAULT_SYNC_INTERVAL = 256L * 1024 * 1024;
+	private static final int DEFAULT_ALIGN = 4096;
+
+	private final File file;
+	private long expectedSize = -1;
+	private boolean direct = false;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+	private FileChannel channel = null;
+	private ByteBuffer buffer = null;
+	private int align = 1;
+	private long position = 0;
+	private long unsynced = 0;
+	private boolean closed = false;
+	private boolean transferred = false;
+
+	public ChannelOutputStream(File file) {
+		this.file = file;
+	}
+
+	public ChannelOutputStream(String filename) {
+		this(new File(filename));
+	}
+
+	public void setExpectedSize(long expectedSize) {
+		checkNotOpen();
+		this.expectedSize = expectedSize;
+	}
+
+	public void setDirect(boolean direct) {
+		checkNotOpen();
+		this.direct = direct;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		checkNotOpen();
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param syncInterval force the file to disk after this many bytes (0 to only write)
+	 */
+	public void setSyncInterval(long syncInterval) {
+		this.syncInterval = syncInterval;
+	}
+
+	/**
+	 * @return true if the file is being written with O_DIRECT (only known once opened)
+	 */
+	public boolean isDirect() {
+		return direct && channel != null && align > 1;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getPosition() throws IOException {
+		syncPosition();
+		return position + (buffer == null ? 0 : buffer.position());
+	}
+
+	/**
+	 * For Transfer: the channel, after writing out the buffer (null with O_DIRECT,
+	 * since writes have to be aligned).
+	 */
+	@Override
+	public FileChannel getChannel() throws IOException {
+		open();
+		if (align > 1) {
+			return null;
+		}
+		writeBuffer(false);
+		channel.position(position);
+		transferred = true;
+		return channel;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		open();
+		if (!buffer.hasRemaining()) {
+			writeBuffer(false);
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		open();
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				writeBuffer(false);
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes out the buffer. With O_DIRECT, only whole blocks can be written, so
+	 * up to one block stays buffered until close().
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (channel != null && !closed) {
+			writeBuffer(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		open();
+		try {
+			writeBuffer(true);
+			channel.truncate(position);
+			if (syncInterval > 0) {
+				channel.force(false);
+			}
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	private void writeBuffer(boolean last) throws IOException {
+		syncPosition();
+		buffer.flip();
+		int end = buffer.limit();
+		int aligned = end - (end % align);
+		buffer.limit(aligned);
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		unsynced += aligned;
+		buffer.limit(end);
+
+		if (last && buffer.hasRemaining()) {
+			// the last partial block can't be written with O_DIRECT
+			FileChannel tail = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			try {
+				while (buffer.hasRemaining()) {
+					position += tail.write(buffer, position);
+				}
+			} finally {
+				tail.close();
+			}
+		}
+		buffer.compact();
+
+		if (syncInterval > 0 && unsynced >= syncInterval) {
+			channel.force(false);
+			unsynced = 0;
+		}
+	}
+
+	/*
+	 * Data is written at our own position, unless it was written to the channel
+	 * directly (getChannel).
+	 */
+	private void syncPosition() throws IOException {
+		if (transferred) {
+			long pos = channel.position();
+			unsynced += pos - position;
+			position = pos;
+			transferred = false;
+		}
+	}
+
+	private void open() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed: " + file);
+		}
+		if (channel != null) {
+			return;
+		}
+
+		if (expectedSize > 0) {
+			// 0 if unknown
+			long free = file.getAbsoluteFile().getParentFile().getUsableSpace();
+			if (free > 0 && free < expectedSize) {
+				throw new IOException("Not enough free space for " + file + ": " + expectedSize + " bytes expected, " + free + " available");
+			}
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+		} finally {
+			raf.close();
+		}
+
+		if (direct) {
+			OpenOption opt = directOption();
+			int blockSize = blockSize(file);
+			ByteBuffer buf = alignedBuffer(roundUp(bufferSize, blockSize), blockSize);
+			if (opt != null && buf != null) {
+				try {
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, opt);
+					buffer = buf;
+					align = blockSize;
+				} catch (IOException e) {
+					// not supported by this filesystem (ex: tmpfs)
+				} catch (UnsupportedOperationException e) {
+				}
+			}
+		}
+		if (channel == null) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			align = 1;
+		}
+	}
+
+	private void checkNotOpen() {
+		if (channel != null) {
+			throw new IllegalStateException("Output is already open: " + file);
+		}
+	}
+
+	private static int roundUp(int size, int align) {
+		return Math.max(align, (size + align - 1) / align * align);
+	}
+
+	/*
+	 * ExtendedOpenOption.DIRECT, FileStore.getBlockSize() and
+	 * ByteBuffer.alignedSlice() are Java 9/10+, so they are looked up by
+	 * reflection (null or the default if missing).
+	 */
+	private static OpenOption directOption() {
+		try {
+			Class<?> clazz = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+			for (Object opt: clazz.getEnumConstants()) {
+				if (((Enum<?>) opt).name().equals("DIRECT")) {
+					return (OpenOption) opt;
+				}
+			}
+		} catch (ClassNotFoundException e) {
+		}
+		return null;
+	}
+
+	private static int blockSize(File file) {
+		try {
+			FileStore store = Files.getFileStore(file.toPath());
+			Method m = FileStore.class.getMethod("getBlockSize");
+			long size = (Long) m.invoke(store);
+			if (size > 0 && size <= 1024 * 1024) {
+				return (int) size;
+			}
+		} catch (Exception e) {
+		}
+		return DEFAULT_ALIGN;
+	}
+
+	private static ByteBuffer alignedBuffer(int size, int align) {
+		try {
+			Method m = ByteBuffer.class.getMethod("alignedSlice", int.class);
+			ByteBuffer buf = (ByteBuffer) m.invoke(ByteBuffer.allocateDirect(size + align), align);
+			buf.limit(size);
+			return buf.slice();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package io.compgen.cmdline.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A set of input files (ex: from an @UnnamedArg) that are opened and
+ * decompressed in the background.
+ *
+ * While one file is being read, the next K files are opened and read ahead by
+ * background threads into bounded in-memory buffers, so slow opens (network
+ * filesystems) and decompression overlap with the command's own work. The
+ * memory budget is split evenly between the current file and the prefetched
+ * ones. Files ending in .gz are decompressed; "-" is stdin.
+ *
+ * The files can be read one at a time:
+ *
+ *   InputSet inputs = new InputSet(files, stdin);
+ *   for (InputSet.Input in: inputs) {
+ *       read(in.getName(), in.getInputStream());
+ *   }
+ *   inputs.close();
+ *
+ * or as one concatenated stream, with getInputStream(). Moving to the next file
+ * closes the previous one.
+ */
+public class InputSet implements Iterable<InputSet.Input>, Closeable {
+	public static final int DEFAULT_PREFETCH = 2;
+	public static final long DEFAULT_MEMORY = 16 * 1024 * 1024;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	public class Input implements Closeable {
+		private final String name;
+		private final ByteRingBuffer buf;
+
+		private Input(String name, ByteRingBuffer buf) {
+			this.name = name;
+			this.buf = buf;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the (decompressed) contents of the file. Errors opening or reading
+		 * the file are thrown from here.
+		 */
+		public InputStream getInputStream() {
+			return buf.getInputStream();
+		}
+
+		/**
+		 * Stops reading the file (the background thread will exit)
+		 */
+		@Override
+		public void close() {
+			buf.closeReader();
+		}
+	}
+
+	private final List<String> names;
+	private final InputStream stdin;
+	private final int prefetch;
+	private final int bufferSize;
+
+	private final ArrayDeque<Input> started = new ArrayDeque<Input>();
+	private int nextToStart = 0;
+	private Input current = null;
+	private boolean iterating = false;
+	private final AtomicInteger activeReaders = new AtomicInteger();
+
+	public InputSet(List<String> names, InputStream stdin) {
+		this(names, stdin, DEFAULT_PREFETCH, DEFAULT_MEMORY);
+	}
+
+	/**
+	 * @param prefetch number of files to open ahead of the current one
+	 * @param memBytes total memory for read-ahead buffers
+	 */
+	public InputSet(List<String> names, InputStream stdin, int prefetch, long memBytes) {
+		this.names = names == null ? Collections.<String>emptyList() : names;
+		this.stdin = stdin;
+		this.prefetch = Math.max(0, prefetch);
+		this.bufferSize = (int) Math.max(CHUNK_SIZE, Math.min(Integer.MAX_VALUE, memBytes / (this.prefetch + 1)));
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Can only be called once (the files are read as they are returned).
+	 */
+	@Override
+	public synchronized Iterator<Input> iterator() {
+		if (iterating) {
+			throw new IllegalStateException("An InputSet can only be read once");
+		}
+		iterating = true;
+		return new Iterator<Input>() {
+			public boolean hasNext() {
+				synchronized (InputSet.this) {
+					return !started.isEmpty() || nextToStart < names.size();
+				}
+			}
+
+			public Input next() {
+				synchronized (InputSet.this) {
+					if (current != null) {
+						current.close();
+					}
+					startAhead(1);
+					current = started.poll();
+					if (current == null) {
+						throw new NoSuchElementException();
+					}
+					// the current file + prefetch files share the memory budget
+					startAhead(prefetch);
+					return current;
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return all of the files as one stream
+	 */
+	public InputStream getInputStream() {
+		final Iterator<Input> it = iterator();
+		return new InputStream() {
+			private InputStream cur = null;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int n = read(b, 0, 1);
+				return n == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				while (true) {
+					if (cur == null) {
+						if (!it.hasNext()) {
+							return -1;
+						}
+						cur = it.next().getInputStream();
+					}
+					int n = cur.read(b, off, len);
+					if (n != -1) {
+						return n;
+					}
+					cur = null;
+				}
+			}
+
+			@Override
+			public void close() {
+				InputSet.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Stops any background reads
+	 */
+	@Override
+	public synchronized void close() {
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+		for (Input in: started) {
+			in.close();
+		}
+		started.clear();
+		nextToStart = names.size();
+	}
+
+	/**
+	 * @return the number of files being read (current + prefetched)
+	 */
+	synchronized int getOpenCount() {
+		return started.size() + (current == null ? 0 : 1);
+	}
+
+	/**
+	 * @return the number of background readers still running
+	 */
+	int getActiveReaders() {
+		return activeReaders.get();
+	}
+
+	private void startAhead(int count) {
+		while (started.size() < count && nextToStart < names.size()) {
+			started.add(start(names.get(nextToStart++)));
+		}
+	}
+
+	private Input start(final String name) {
+		final ByteRingBuffer buf = new ByteRingBuffer(bufferSize);
+		activeReaders.incrementAndGet();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				Throwable err = null;
+				InputStream is = null;
+				try {
+					if (name.equals("-")) {
+						is = stdin;
+					} else {
+						is = new FileInputStream(name);
+						if (name.endsWith(".gz")) {
+							is = new GZIPInputStream(is, CHUNK_SIZE);
+						} else {
+							is = new BufferedInputStream(is, CHUNK_SIZE);
+						}
+					}
+					OutputStream out = buf.getOutputStream();
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int n;
+					while ((n = is.read(chunk)) != -1) {
+						out.write(chunk, 0, n);
+					}
+				} catch (Throwable e) {
+					err = e;
+				} finally {
+					if (is != null && is != stdin) {
+						try {
+							is.close();
+						} catch (IOException e) {
+						}
+					}
+					buf.closeWriter(err);
+					activeReaders.decrementAndGet();
+				}
+			}
+		}, "prefetch-" + name);
+		t.setDaemon(true);
+		t.start();
+		return new Input(name, buf);
+	}
+}
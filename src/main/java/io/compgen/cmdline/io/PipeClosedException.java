@@ -0,0 +1,34 @@
+package io.compgen.cmdline.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when writing to a pipe whose reader has gone away (the in-process
+ * version of SIGPIPE). It isn't an error for the writer: the downstream stage
+ * just didn't need the rest of the data.
+ */
+public class PipeClosedException extends IOException {
+	/**
+	 * The exit code for a stage stopped this way (128 + SIGPIPE, as a shell
+	 * would report it).
+	 */
+	public static final int EXIT_CODE = 141;
+
+	public PipeClosedException() {
+		super("Pipe closed");
+	}
+
+	/**
+	 * @return true if t, or one of its causes, is a PipeClosedException
+	 */
+	public static boolean isCause(Throwable t) {
+		for (; t != null; t = t.getCause()) {
+			if (t instanceof PipeClosedException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final long serialVersionUID = 3217658917602284114L;
+}
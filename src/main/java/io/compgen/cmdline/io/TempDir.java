@@ -0,0 +1,94 @@
+package io.compgen.cmdline.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A private temporary directory for spill files.
+ *
+ * The directory (and everything in it) is removed by close(). Any directories
+ * that are still open when the JVM exits (after an error, or on SIGINT/SIGTERM)
+ * are removed by a shutdown hook. Only a hard kill (-9) will leave files behind.
+ */
+public class TempDir implements Closeable {
+	private static final Set<TempDir> open = new HashSet<TempDir>();
+	private static boolean hookAdded = false;
+
+	private final File dir;
+	private final AtomicLong counter = new AtomicLong();
+	private boolean closed = false;
+
+	/**
+	 * @param parent where to create the directory (null for java.io.tmpdir)
+	 */
+	public TempDir(File parent, String prefix) throws IOException {
+		if (parent == null) {
+			parent = new File(System.getProperty("java.io.tmpdir"));
+		}
+		if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create temporary directory: " + parent);
+		}
+		this.dir = Files.createTempDirectory(parent.toPath(), prefix).toFile();
+		register(this);
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * @return a new (unique) file in this directory. The file isn't created.
+	 */
+	public File newFile(String prefix, String suffix) {
+		return new File(dir, prefix + counter.incrementAndGet() + suffix);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		delete(dir);
+		synchronized (open) {
+			open.remove(this);
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child: children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+
+	private static void register(TempDir tmp) {
+		synchronized (open) {
+			open.add(tmp);
+			if (!hookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread("tempdir-cleanup") {
+					public void run() {
+						TempDir[] dirs;
+						synchronized (open) {
+							dirs = open.toArray(new TempDir[open.size()]);
+						}
+						for (TempDir d: dirs) {
+							d.close();
+						}
+					}
+				});
+				hookAdded = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package io.compgen.cmdline.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copies bytes from an input to an output unchanged (ex: headers, cat, split or
+ * merge), without going through the command.
+ *
+ *   Transfer.copy(new File(name), out);
+ *
+ * If the input is a file and the output is a plain file (or pipe) opened by
+ * AbstractOutputCommand (or a FileOutputStream), the kernel copies the data
+ * (FileChannel.transferTo: sendfile/copy_file_range). Otherwise, the data is
+ * copied through a pooled direct buffer. Compressed inputs/outputs are always
+ * copied (their bytes change).
+ */
+public class Transfer {
+	public static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int MAX_POOLED = 16;
+
+	/**
+	 * An output stream that can be written to directly with a FileChannel
+	 */
+	public interface Target {
+		/**
+		 * Writes out any buffered data, and returns the channel to write to
+		 * directly (at its current position), or null if this stream can't be
+		 * written to directly.
+		 */
+		public FileChannel getChannel() throws IOException;
+	}
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Copies a whole file
+	 */
+	public static long copy(File file, OutputStream out) throws IOException {
+		return copy(file, 0, Long.MAX_VALUE, out);
+	}
+
+	/**
+	 * Copies count bytes of a file, starting at position (or up to the end of
+	 * the file)
+	 */
+	public static long copy(File file, long position, long count, OutputStream out) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel src = fis.getChannel();
+			src.position(position);
+			return copy(src, count, out);
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Copies the rest of the input stream
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		return copy(in, out, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Copies count bytes (or up to the end) of the input stream. Neither stream
+	 * is closed.
+	 */
+	public static long copy(InputStream in, OutputStream out, long count) throws IOException {
+		if (in instanceof FileInputStream) {
+			return copy(((FileInputStream) in).getChannel(), count, out);
+		}
+		FileChannel dest = targetChannel(out);
+		return bufferCopy(Channels.newChannel(in), dest != null ? dest : Channels.newChannel(out), count);
+	}
+
+	private static long copy(FileChannel src, long count, OutputStream out) throws IOException {
+		FileChannel dest = targetChannel(out);
+		long position = position(src);
+		if (dest == null || position < 0) {
+			// not a regular file (ex: a pipe), or the output has to be written as a stream
+			return bufferCopy(src, dest != null ? dest : Channels.newChannel(out), count);
+		}
+
+		long end = Math.min(src.size(), position + Math.min(count, Long.MAX_VALUE - position));
+		long pos = position;
+		while (pos < end) {
+			long n = src.transferTo(pos, end - pos, dest);
+			if (n <= 0) {
+				break;
+			}
+			pos += n;
+		}
+		src.position(pos);
+		return pos - position;
+	}
+
+	private static long bufferCopy(ReadableByteChannel src, WritableByteChannel dest, long count) throws IOException {
+		ByteBuffer buf = pool.poll();
+		if (buf == null) {
+			buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		long total = 0;
+		try {
+			while (total < count) {
+				buf.clear();
+				if (count - total < buf.capacity()) {
+					buf.limit((int) (count - total));
+				}
+				int n = src.read(buf);
+				if (n < 0) {
+					break;
+				}
+				buf.flip();
+				while (buf.hasRemaining()) {
+					dest.write(buf);
+				}
+				total += n;
+			}
+		} finally {
+			if (pool.size() < MAX_POOLED) {
+				pool.offer(buf);
+			}
+		}
+		return total;
+	}
+
+	private static FileChannel targetChannel(OutputStream out) throws IOException {
+		if (out instanceof Target) {
+			return ((Target) out).getChannel();
+		} else if (out instanceof FileOutputStream) {
+			return ((FileOutputStream) out).getChannel();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the position of a file channel, or -1 if it can't seek (pipe)
+	 */
+	private static long position(FileChannel ch) {
+		try {
+			ch.size();
+			return ch.position();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+}
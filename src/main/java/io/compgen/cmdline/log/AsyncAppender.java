@@ -0,0 +1,151 @@
+package io.compgen.cmdline.log;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multi-producer, single-consumer ring buffer of log lines.
+ *
+ * Producers claim a slot with a CAS and publish it with a per-slot sequence
+ * number; they never take a lock or wait on I/O. If the buffer is full, the line
+ * is dropped (and counted) rather than blocking the caller. A single daemon
+ * thread writes whole lines to the output stream, so lines from different
+ * threads never interleave. When there is nothing to write, it is parked until
+ * the next line is appended.
+ */
+public class AsyncAppender {
+	private final String[] slots;
+	private final AtomicLongArray published;
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong(0);
+	private volatile long tail = 0;
+	private final LongAdder dropped = new LongAdder();
+
+	private final PrintStream out;
+	private final Thread consumer;
+	private volatile boolean closed = false;
+	// set while the consumer is parked (or about to be), so producers know to wake it
+	private volatile boolean waiting = false;
+
+	public AsyncAppender(PrintStream out, int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new String[size];
+		this.published = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.out = out;
+
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+
+		consumer = new Thread(new Runnable() {
+			public void run() {
+				drainLoop();
+			}
+		}, "log-appender");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * @return false if the buffer was full (or closed) and the line was dropped
+	 */
+	public boolean append(String line) {
+		if (closed) {
+			dropped.increment();
+			return false;
+		}
+		long h;
+		do {
+			h = head.get();
+			if (h - tail >= slots.length) {
+				dropped.increment();
+				return false;
+			}
+		} while (!head.compareAndSet(h, h + 1));
+
+		int idx = (int) h & mask;
+		slots[idx] = line;
+		published.set(idx, h);
+		if (waiting) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Wait (up to timeoutMillis) until all lines appended so far have been written.
+	 */
+	public void flush(long timeoutMillis) {
+		long target = head.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (tail < target && System.currentTimeMillis() < deadline) {
+			LockSupport.unpark(consumer);
+			LockSupport.parkNanos(100000);
+		}
+		out.flush();
+	}
+
+	public void close() {
+		flush(1000);
+		closed = true;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drainLoop() {
+		long next = tail;
+		long reportedDrops = 0;
+		boolean written = false;
+		while (true) {
+			int idx = (int) next & mask;
+			if (published.get(idx) == next) {
+				String line = slots[idx];
+				slots[idx] = null;
+				out.println(line);
+				// only counted as written once it has been printed (see flush)
+				next++;
+				tail = next;
+				written = true;
+				continue;
+			}
+
+			long drops = dropped.sum();
+			if (drops > reportedDrops) {
+				out.println("WARNING: " + (drops - reportedDrops) + " log message(s) dropped");
+				reportedDrops = drops;
+				written = true;
+			}
+			if (written) {
+				out.flush();
+				written = false;
+			}
+			if (closed) {
+				return;
+			}
+
+			// check again after setting waiting, so a line published in between
+			// isn't missed (the producer either sees waiting, or we see the line)
+			waiting = true;
+			if (published.get(idx) != next && !closed) {
+				LockSupport.park(this);
+			}
+			waiting = false;
+		}
+	}
+}
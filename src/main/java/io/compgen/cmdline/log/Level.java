@@ -0,0 +1,25 @@
+package io.compgen.cmdline.log;
+
+public enum Level {
+	ERROR,
+	WARN,
+	INFO,
+	DEBUG,
+	TRACE;
+	
+	/**
+	 * Maps the number of times -v was given to a level (0 => WARN, 1 => INFO, 2 => DEBUG, 3+ => TRACE)
+	 */
+	public static Level fromVerbosity(int verbosity) {
+		switch (verbosity) {
+		case 0:
+			return WARN;
+		case 1:
+			return INFO;
+		case 2:
+			return DEBUG;
+		default:
+			return verbosity < 0 ? ERROR : TRACE;
+		}
+	}
+}
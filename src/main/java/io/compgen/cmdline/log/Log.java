@@ -0,0 +1,124 @@
+package io.compgen.cmdline.log;
+
+import java.io.PrintStream;
+import java.util.function.Supplier;
+
+/**
+ * Small level-gated logger.
+ *
+ * Messages are only formatted if the level is enabled. Formatted lines are
+ * handed off to an AsyncAppender, so writing to stderr never happens on the
+ * calling thread. For messages that are expensive to build, either check
+ * isEnabled() first or pass a Supplier.
+ *
+ * Commands receive the MainBuilder's Log by defining a <code>setLog(Log)</code>
+ * method (AbstractCommand already does this, and maps -v/-vv/-vvv to INFO/DEBUG/TRACE).
+ */
+public class Log {
+	private static final int BUFFER_SIZE = 8192;
+
+	private volatile Level level;
+	private final PrintStream out;
+	private volatile AsyncAppender appender = null;
+
+	public Log(PrintStream out, Level level) {
+		this.out = out;
+		this.level = level;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	public boolean isEnabled(Level l) {
+		return l.ordinal() <= level.ordinal();
+	}
+
+	public boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	public boolean isTraceEnabled() {
+		return isEnabled(Level.TRACE);
+	}
+
+	public void log(Level l, String msg) {
+		if (isEnabled(l)) {
+			write(l, msg);
+		}
+	}
+
+	public void log(Level l, String fmt, Object... args) {
+		if (isEnabled(l)) {
+			write(l, String.format(fmt, args));
+		}
+	}
+
+	public void log(Level l, Supplier<String> msg) {
+		if (isEnabled(l)) {
+			write(l, msg.get());
+		}
+	}
+
+	public void error(String msg) { log(Level.ERROR, msg); }
+	public void error(String fmt, Object... args) { log(Level.ERROR, fmt, args); }
+	public void error(Supplier<String> msg) { log(Level.ERROR, msg); }
+
+	public void warn(String msg) { log(Level.WARN, msg); }
+	public void warn(String fmt, Object... args) { log(Level.WARN, fmt, args); }
+	public void warn(Supplier<String> msg) { log(Level.WARN, msg); }
+
+	public void info(String msg) { log(Level.INFO, msg); }
+	public void info(String fmt, Object... args) { log(Level.INFO, fmt, args); }
+	public void info(Supplier<String> msg) { log(Level.INFO, msg); }
+
+	public void debug(String msg) { log(Level.DEBUG, msg); }
+	public void debug(String fmt, Object... args) { log(Level.DEBUG, fmt, args); }
+	public void debug(Supplier<String> msg) { log(Level.DEBUG, msg); }
+
+	public void trace(String msg) { log(Level.TRACE, msg); }
+	public void trace(String fmt, Object... args) { log(Level.TRACE, fmt, args); }
+	public void trace(Supplier<String> msg) { log(Level.TRACE, msg); }
+
+	/**
+	 * Block (briefly) until all pending messages are written.
+	 */
+	public void flush() {
+		AsyncAppender a = appender;
+		if (a != null) {
+			a.flush(1000);
+		}
+	}
+
+	/**
+	 * Write any pending messages and stop the writer thread. The Log can still be
+	 * used afterwards (a new writer thread is started).
+	 */
+	public void close() {
+		AsyncAppender a;
+		synchronized (this) {
+			a = appender;
+			appender = null;
+		}
+		if (a != null) {
+			a.close();
+		}
+	}
+
+	private void write(Level l, String msg) {
+		AsyncAppender a = appender;
+		if (a == null) {
+			synchronized (this) {
+				if (appender == null) {
+					appender = new AsyncAppender(out, BUFFER_SIZE);
+				}
+				a = appender;
+			}
+		}
+		a.append(l.name() + ": " + msg);
+	}
+}
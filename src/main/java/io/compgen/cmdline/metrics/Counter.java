@@ -0,0 +1,28 @@
+package io.compgen.cmdline.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter backed by a striped LongAdder, so it can be incremented
+ * from many worker threads without contending on a single cache line.
+ */
+public class Counter {
+	public final String name;
+	private final LongAdder adder = new LongAdder();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public void inc() {
+		adder.increment();
+	}
+
+	public void add(long n) {
+		adder.add(n);
+	}
+
+	public long get() {
+		return adder.sum();
+	}
+}
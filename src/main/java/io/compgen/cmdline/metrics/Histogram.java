@@ -0,0 +1,90 @@
+package io.compgen.cmdline.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR-style histogram of non-negative long values.
+ *
+ * Values are stored in log-linear buckets (32 linear sub-buckets per power of two),
+ * giving a relative error of ~3% over the full range of a long. Each recording
+ * thread updates its own stripe of buckets, selected by thread id, so recording
+ * never allocates and threads rarely share a cache line.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+	private static final int STRIPES;
+	static {
+		int cpus = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+		int stripes = 1;
+		while (stripes < cpus) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	public final String name;
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+	private final LongAdder sum = new LongAdder();
+
+	Histogram(String name) {
+		this.name = name;
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+		AtomicLongArray buckets = stripes.get(stripe);
+		if (buckets == null) {
+			stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKET_COUNT));
+			buckets = stripes.get(stripe);
+		}
+		buckets.incrementAndGet(bucketIndex(value));
+		sum.add(value);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < (SUB_COUNT << 1)) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift * SUB_COUNT) + (int) (value >>> shift);
+	}
+
+	static long bucketLow(int idx) {
+		if (idx < (SUB_COUNT << 1)) {
+			return idx;
+		}
+		int shift = (idx / SUB_COUNT) - 1;
+		return ((long) (idx - (shift * SUB_COUNT))) << shift;
+	}
+
+	static long bucketHigh(int idx) {
+		if (idx < (SUB_COUNT << 1)) {
+			return idx;
+		}
+		int shift = (idx / SUB_COUNT) - 1;
+		long top = idx - (shift * SUB_COUNT);
+		// for the top-most bucket this wraps around to Long.MAX_VALUE
+		return ((top + 1) << shift) - 1;
+	}
+
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray buckets = stripes.get(i);
+			if (buckets != null) {
+				for (int j = 0; j < BUCKET_COUNT; j++) {
+					counts[j] += buckets.get(j);
+				}
+			}
+		}
+		return new HistogramSnapshot(name, counts, sum.sum());
+	}
+}
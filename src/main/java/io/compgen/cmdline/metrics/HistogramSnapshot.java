@@ -0,0 +1,75 @@
+package io.compgen.cmdline.metrics;
+
+/**
+ * Point-in-time copy of a Histogram (or Timer) that can be queried without
+ * touching the live buckets.
+ */
+public class HistogramSnapshot {
+	public final String name;
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+
+	HistogramSnapshot(String name, long[] counts, long sum) {
+		this.name = name;
+		this.counts = counts;
+		this.sum = sum;
+		long total = 0;
+		for (long c: counts) {
+			total += c;
+		}
+		this.count = total;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	public long getMin() {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				return Histogram.bucketLow(i);
+			}
+		}
+		return 0;
+	}
+
+	public long getMax() {
+		for (int i = counts.length - 1; i >= 0; i--) {
+			if (counts[i] > 0) {
+				return Histogram.bucketHigh(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param quantile between 0.0 and 1.0
+	 * @return the upper bound of the bucket holding the given quantile
+	 */
+	public long getValueAtQuantile(double quantile) {
+		if (count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(quantile * count);
+		if (target < 1) {
+			target = 1;
+		}
+		long acc = 0;
+		for (int i = 0; i < counts.length; i++) {
+			acc += counts[i];
+			if (acc >= target) {
+				return Histogram.bucketHigh(i);
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,198 @@
+package io.compgen.cmdline.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A local log of command invocations (see MainBuilder.setJournal), with one
+ * tab-delimited line per run:
+ *
+ *   J1, start time (epoch ms), command, options (sorted, comma-delimited), input
+ *   files, input bytes, parse/bind/exec/cleanup/total time (ms), exit code,
+ *   peak memory (bytes)
+ *
+ * Each record is written with one write() to a file opened for append
+ * (O_APPEND) and is at most MAX_RECORD bytes, so many processes on the same
+ * node can write to the same journal without locking. The journal-report
+ * command summarizes it.
+ */
+public class Journal {
+	public static final String VERSION = "J1";
+	public static final int MAX_RECORD = 4096;
+	private static final int FIELDS = 13;
+
+	public static class Entry {
+		public long startTime = System.currentTimeMillis();
+		public String command = "";
+		public List<String> options = new ArrayList<String>();
+		public int inputs = 0;
+		public long inputBytes = 0;
+		public long parseNanos = 0;
+		public long bindNanos = 0;
+		public long execNanos = 0;
+		public long cleanupNanos = 0;
+		public long totalNanos = 0;
+		public int exitCode = 0;
+		public long peakMemory = 0;
+
+		public String format() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(VERSION);
+			sb.append('\t').append(startTime);
+			sb.append('\t').append(clean(command));
+			sb.append('\t');
+			if (options.isEmpty()) {
+				sb.append('-');
+			}
+			for (int i = 0; i < options.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(clean(options.get(i)));
+			}
+			sb.append('\t').append(inputs);
+			sb.append('\t').append(inputBytes);
+			sb.append('\t').append(millis(parseNanos));
+			sb.append('\t').append(millis(bindNanos));
+			sb.append('\t').append(millis(execNanos));
+			sb.append('\t').append(millis(cleanupNanos));
+			sb.append('\t').append(millis(totalNanos));
+			sb.append('\t').append(exitCode);
+			sb.append('\t').append(peakMemory);
+			return sb.toString();
+		}
+
+		/**
+		 * @return the entry for this journal line, or null if it isn't a valid record
+		 */
+		public static Entry parse(String line) {
+			String[] cols = line.split("\t", -1);
+			if (cols.length != FIELDS || !cols[0].equals(VERSION)) {
+				return null;
+			}
+			try {
+				Entry e = new Entry();
+				e.startTime = Long.parseLong(cols[1]);
+				e.command = cols[2];
+				if (!cols[3].equals("-")) {
+					for (String opt: cols[3].split(",")) {
+						e.options.add(opt);
+					}
+				}
+				e.inputs = Integer.parseInt(cols[4]);
+				e.inputBytes = Long.parseLong(cols[5]);
+				e.parseNanos = nanos(cols[6]);
+				e.bindNanos = nanos(cols[7]);
+				e.execNanos = nanos(cols[8]);
+				e.cleanupNanos = nanos(cols[9]);
+				e.totalNanos = nanos(cols[10]);
+				e.exitCode = Integer.parseInt(cols[11]);
+				e.peakMemory = Long.parseLong(cols[12]);
+				return e;
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+	}
+
+	private final File file;
+
+	public Journal(String filename) {
+		this.file = new File(filename);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Appends one record. If the record is too long, the options are dropped.
+	 */
+	public void append(Entry entry) throws IOException {
+		byte[] buf = (entry.format() + "\n").getBytes(StandardCharsets.UTF_8);
+		if (buf.length > MAX_RECORD) {
+			List<String> options = entry.options;
+			entry.options = Collections.singletonList("...");
+			buf = (entry.format() + "\n").getBytes(StandardCharsets.UTF_8);
+			entry.options = options;
+			if (buf.length > MAX_RECORD) {
+				return;
+			}
+		}
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			fos.write(buf);
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Reads a journal. Lines that aren't valid records (ex: a partial line from a
+	 * full disk) are skipped.
+	 */
+	public static List<Entry> read(File file) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Entry e = Entry.parse(line);
+				if (e != null) {
+					entries.add(e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the peak resident memory of this process (Linux), or the heap in use
+	 */
+	public static long peakMemory() {
+		File status = new File("/proc/self/status");
+		if (status.exists()) {
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(status), StandardCharsets.UTF_8));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.startsWith("VmHWM:")) {
+							String[] cols = line.substring(6).trim().split("\\s+");
+							return Long.parseLong(cols[0]) * 1024;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+			} catch (NumberFormatException e) {
+			}
+		}
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static String clean(String s) {
+		return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+	}
+
+	private static long nanos(String millis) {
+		return (long) (Double.parseDouble(millis) * 1000000);
+	}
+}
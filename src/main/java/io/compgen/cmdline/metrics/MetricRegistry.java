@@ -0,0 +1,257 @@
+package io.compgen.cmdline.metrics;
+
+import io.compgen.cmdline.log.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of named counters, timers and histograms for a single run.
+ *
+ * Commands receive the registry by defining a <code>setMetrics(MetricRegistry)</code>
+ * method (the same way <code>setMainBuilder</code> is injected). Metric lookups go
+ * through a ConcurrentHashMap, so hot loops should look up a metric once and keep
+ * the reference.
+ */
+public class MetricRegistry {
+	public enum Format {
+		PROMETHEUS,
+		JSON
+	}
+
+	private static final double[] QUANTILES = new double[] { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] QUANTILE_LABELS = new String[] { "p50", "p90", "p99", "p999" };
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private ScheduledExecutorService reporter = null;
+	// runs using the reporter (concurrent runs share one registry)
+	private int reporterUsers = 0;
+
+	public Counter counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			Counter created = new Counter(name);
+			c = counters.putIfAbsent(name, created);
+			if (c == null) {
+				c = created;
+			}
+		}
+		return c;
+	}
+
+	public Timer timer(String name) {
+		Timer t = timers.get(name);
+		if (t == null) {
+			Timer created = new Timer(name);
+			t = timers.putIfAbsent(name, created);
+			if (t == null) {
+				t = created;
+			}
+		}
+		return t;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			Histogram created = new Histogram(name);
+			h = histograms.putIfAbsent(name, created);
+			if (h == null) {
+				h = created;
+			}
+		}
+		return h;
+	}
+
+	synchronized boolean isReporting() {
+		return reporter != null;
+	}
+
+	public boolean isEmpty() {
+		return counters.isEmpty() && timers.isEmpty() && histograms.isEmpty();
+	}
+
+	public void write(OutputStream out, Format format) {
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(out));
+		if (format == Format.JSON) {
+			writeJson(pw);
+		} else {
+			writePrometheus(pw);
+		}
+		pw.flush();
+	}
+
+	/**
+	 * Writes a snapshot to a file. The snapshot is written to a temporary file
+	 * first and then moved into place, so readers never see a partial file.
+	 */
+	public void writeFile(String filename, Format format) throws IOException {
+		File dest = new File(filename).getAbsoluteFile();
+		File tmp = new File(dest.getParentFile(), "." + dest.getName() + ".tmp");
+		OutputStream os = new FileOutputStream(tmp);
+		try {
+			write(os, format);
+		} finally {
+			os.close();
+		}
+		Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Periodically write a snapshot to a file from a daemon thread. Each call
+	 * needs a matching stopReporter(); the reporter keeps running until the
+	 * last one. Write errors are logged to log (from the first call).
+	 */
+	public synchronized void startReporter(final String filename, final Format format, long intervalSecs, final Log log) {
+		reporterUsers++;
+		if (reporter != null) {
+			return;
+		}
+		ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		exec.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					writeFile(filename, format);
+				} catch (IOException e) {
+					log.warn("Unable to write metrics: %s", e.getMessage());
+				}
+			}
+		}, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+		reporter = exec;
+	}
+
+	public synchronized void stopReporter() {
+		if (reporterUsers > 0) {
+			reporterUsers--;
+		}
+		if (reporterUsers == 0 && reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	private void writePrometheus(PrintWriter pw) {
+		for (Counter c: new TreeMap<String, Counter>(counters).values()) {
+			String name = promName(c.name);
+			pw.println("# TYPE " + name + " counter");
+			pw.println(name + " " + c.get());
+		}
+		for (Timer t: new TreeMap<String, Timer>(timers).values()) {
+			writePromSummary(pw, promName(t.name) + "_seconds", t.snapshot(), 1e-9);
+		}
+		for (Histogram h: new TreeMap<String, Histogram>(histograms).values()) {
+			writePromSummary(pw, promName(h.name), h.snapshot(), 1);
+		}
+	}
+
+	private void writePromSummary(PrintWriter pw, String name, HistogramSnapshot snap, double scale) {
+		pw.println("# TYPE " + name + " summary");
+		for (double q: QUANTILES) {
+			pw.println(name + "{quantile=\"" + q + "\"} " + fmt(snap.getValueAtQuantile(q) * scale));
+		}
+		pw.println(name + "_sum " + fmt(snap.getSum() * scale));
+		pw.println(name + "_count " + snap.getCount());
+	}
+
+	private void writeJson(PrintWriter pw) {
+		pw.print("{\"counters\":{");
+		boolean first = true;
+		for (Counter c: new TreeMap<String, Counter>(counters).values()) {
+			if (!first) {
+				pw.print(",");
+			}
+			first = false;
+			pw.print(jsonString(c.name) + ":" + c.get());
+		}
+		pw.print("},\"timers\":");
+		SortedMap<String, HistogramSnapshot> snaps = new TreeMap<String, HistogramSnapshot>();
+		for (Timer t: timers.values()) {
+			snaps.put(t.name, t.snapshot());
+		}
+		writeJsonSnapshots(pw, snaps);
+		pw.print(",\"histograms\":");
+		snaps.clear();
+		for (Histogram h: histograms.values()) {
+			snaps.put(h.name, h.snapshot());
+		}
+		writeJsonSnapshots(pw, snaps);
+		pw.println("}");
+	}
+
+	private void writeJsonSnapshots(PrintWriter pw, SortedMap<String, HistogramSnapshot> snaps) {
+		pw.print("{");
+		boolean first = true;
+		for (HistogramSnapshot snap: snaps.values()) {
+			if (!first) {
+				pw.print(",");
+			}
+			first = false;
+			pw.print(jsonString(snap.name) + ":{\"count\":" + snap.getCount() + ",\"sum\":" + snap.getSum() + ",\"min\":" + snap.getMin() + ",\"max\":" + snap.getMax() + ",\"mean\":" + fmt(snap.getMean()));
+			for (int i = 0; i < QUANTILES.length; i++) {
+				pw.print(",\"" + QUANTILE_LABELS[i] + "\":" + snap.getValueAtQuantile(QUANTILES[i]));
+			}
+			pw.print("}");
+		}
+		pw.print("}");
+	}
+
+	private static String fmt(double d) {
+		if (d == Math.rint(d) && !Double.isInfinite(d)) {
+			return Long.toString((long) d);
+		}
+		return Double.toString(d);
+	}
+
+	private static String promName(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || (i > 0 && c >= '0' && c <= '9')) {
+				sb.append(c);
+			} else {
+				sb.append('_');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String jsonString(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+}
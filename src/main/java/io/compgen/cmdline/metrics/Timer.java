@@ -0,0 +1,39 @@
+package io.compgen.cmdline.metrics;
+
+/**
+ * Latency timer. Durations are kept in nanoseconds in an HDR-style histogram.
+ *
+ * Usage (no allocation per call):
+ * <pre>
+ *   long start = timer.start();
+ *   ...
+ *   timer.stop(start);
+ * </pre>
+ */
+public class Timer {
+	public final String name;
+	private final Histogram histogram;
+
+	Timer(String name) {
+		this.name = name;
+		this.histogram = new Histogram(name);
+	}
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	public long stop(long start) {
+		long elapsed = System.nanoTime() - start;
+		histogram.record(elapsed);
+		return elapsed;
+	}
+
+	public void record(long nanos) {
+		histogram.record(nanos);
+	}
+
+	public HistogramSnapshot snapshot() {
+		return histogram.snapshot();
+	}
+}
@@ -0,0 +1,224 @@
+package io.compgen.cmdline.progress;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress reporter for long-running commands.
+ *
+ * Worker threads only update counters (a LongAdder for records and a single
+ * position for byte offsets). A single daemon thread renders records/s, MB/s and
+ * an ETA (when the total size is known) to stderr at a fixed rate.
+ *
+ * Progress is disabled when stderr is not a terminal (or TERM=dumb), or when
+ * the command is run with --quiet. To override the terminal check, set the
+ * io.compgen.cmdline.progress system property (or the CMDLINE_PROGRESS
+ * environment variable) to "always" or "never".
+ *
+ * Commands receive the instance by defining a <code>setProgress(Progress)</code>
+ * method (AbstractCommand already does this).
+ */
+public class Progress {
+	public static final String PROPERTY = "io.compgen.cmdline.progress";
+	public static final String ENV = "CMDLINE_PROGRESS";
+
+	private final LongAdder records = new LongAdder();
+	private final AtomicLong position = new AtomicLong(0);
+
+	private final PrintStream err;
+	private final long intervalMillis;
+
+	private volatile boolean quiet = false;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	private String label = "";
+	private long total = -1;
+	private long startTime = 0;
+	private int lastLineLength = 0;
+
+	public Progress(PrintStream err, long intervalMillis) {
+		this.err = err;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * @return true if this process's stderr is (likely) a terminal
+	 */
+	public static boolean isTerminal() {
+		String force = System.getProperty(PROPERTY);
+		if (force == null) {
+			force = System.getenv(ENV);
+		}
+		if (force != null && force.equalsIgnoreCase("always")) {
+			return true;
+		} else if (force != null && force.equalsIgnoreCase("never")) {
+			return false;
+		}
+
+		String term = System.getenv("TERM");
+		if (term != null && term.equals("dumb")) {
+			return false;
+		}
+		Boolean tty = isStderrTty();
+		if (tty != null) {
+			return tty;
+		}
+		// System.console() checks stdin and stdout, so this is only a guess for stderr
+		return System.console() != null;
+	}
+
+	/**
+	 * @return true if fd 2 is a tty, or null if this can't be checked (no /proc)
+	 */
+	private static Boolean isStderrTty() {
+		try {
+			String target = Files.readSymbolicLink(Paths.get("/proc/self/fd/2")).toString();
+			return target.startsWith("/dev/pts/") || target.startsWith("/dev/tty") || target.equals("/dev/console");
+		} catch (IOException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	public boolean isEnabled() {
+		return !quiet && isTerminal();
+	}
+
+	/**
+	 * Start reporting records processed.
+	 */
+	public void start(String label) {
+		start(label, -1);
+	}
+
+	/**
+	 * Start reporting, with an input of a known size (in bytes). Callers should
+	 * update the input position with setPosition() so an ETA can be shown.
+	 */
+	public synchronized void start(String label, long totalBytes) {
+		this.label = label;
+		this.total = totalBytes;
+		this.startTime = System.nanoTime();
+		records.reset();
+		position.set(0);
+
+		if (running || !isEnabled()) {
+			return;
+		}
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					try {
+						Thread.sleep(intervalMillis);
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (running && !quiet) {
+						render(false);
+					}
+				}
+			}
+		}, "progress");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void inc() {
+		records.increment();
+	}
+
+	public void add(long n) {
+		records.add(n);
+	}
+
+	/**
+	 * @param pos current byte offset in the input
+	 */
+	public void setPosition(long pos) {
+		position.lazySet(pos);
+	}
+
+	public long getRecords() {
+		return records.sum();
+	}
+
+	/**
+	 * Stop the reporting thread and print the final totals.
+	 */
+	public void done() {
+		Thread t;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			t = thread;
+			thread = null;
+		}
+		t.interrupt();
+		try {
+			t.join(intervalMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!quiet) {
+			render(true);
+		}
+	}
+
+	private synchronized void render(boolean last) {
+		double secs = (System.nanoTime() - startTime) / 1e9;
+		if (secs <= 0) {
+			return;
+		}
+		long recs = records.sum();
+		long pos = position.get();
+
+		StringBuilder sb = new StringBuilder(80);
+		if (!label.equals("")) {
+			sb.append(label).append(": ");
+		}
+		sb.append(recs).append(" records (").append(String.format("%.1f", recs / secs)).append("/s)");
+		if (pos > 0) {
+			sb.append(", ").append(String.format("%.1f", pos / secs / (1024 * 1024))).append(" MB/s");
+		}
+		if (total > 0 && pos > 0) {
+			double frac = Math.min(1.0, (double) pos / total);
+			sb.append(", ").append(String.format("%.1f", frac * 100)).append("%");
+			if (!last && frac > 0) {
+				sb.append(", ETA ").append(formatTime((long) (secs / frac - secs)));
+			}
+		}
+		if (last) {
+			sb.append(", ").append(formatTime((long) secs)).append(" elapsed");
+		}
+
+		int len = sb.length();
+		for (int i = len; i < lastLineLength; i++) {
+			sb.append(' ');
+		}
+		lastLineLength = len;
+
+		err.print("\r" + sb.toString());
+		if (last) {
+			err.println();
+		}
+		err.flush();
+	}
+
+	private static String formatTime(long secs) {
+		return String.format("%02d:%02d:%02d", secs / 3600, (secs / 60) % 60, secs % 60);
+	}
+}
@@ -0,0 +1,385 @@
+package io.compgen.cmdline.sort;
+
+import io.compgen.cmdline.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounded-memory sort for more records than fit in the heap.
+ *
+ * Records are added to an in-memory buffer. When the buffer is full, it is
+ * sorted and written to a (gzip compressed) run file by a background thread
+ * while the next buffer fills. The memory limit is split between the buffer
+ * being filled and one buffer per thread.
+ * sorted() then merges the runs (and the last buffer, which is never written)
+ * with a priority queue. If there are more runs than the fan-in, they are
+ * first merged in groups to keep the number of open files bounded.
+ *
+ * The sort is stable: equal records are returned in the order they were added.
+ *
+ * Usage:
+ *   ExternalSorter<String> sorter = new ExternalSorter<String>(cmp, new StringCodec(), tmp, mem, threads);
+ *   for (...) { sorter.add(rec); }
+ *   Iterator<String> it = sorter.sorted();
+ *   ...
+ *   sorter.close(); // removes the run files
+ */
+public class ExternalSorter<T> implements Closeable {
+	public static final int DEFAULT_FAN_IN = 64;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// per record: reference in the buffer list
+	private static final int REF_SIZE = 8;
+
+	private final Comparator<? super T> comparator;
+	private final RecordCodec<T> codec;
+	private final TempDir tmp;
+	private final long runBytes;
+	private final ExecutorService pool;
+	private final Semaphore buffers;
+
+	private final List<Future<File>> pending = new ArrayList<Future<File>>();
+	private final List<File> files = Collections.synchronizedList(new ArrayList<File>());
+	private final List<Merger> mergers = new ArrayList<Merger>();
+
+	private List<T> buffer = new ArrayList<T>();
+	private long bufferBytes = 0;
+	private long count = 0;
+	private int fanIn = DEFAULT_FAN_IN;
+	private boolean sorting = false;
+
+	/**
+	 * @param memBytes total memory to use for in-memory buffers
+	 * @param threads number of threads to sort and write runs
+	 */
+	public ExternalSorter(Comparator<? super T> comparator, RecordCodec<T> codec, TempDir tmp, long memBytes, int threads) {
+		if (threads < 1) {
+			threads = 1;
+		}
+		this.comparator = comparator;
+		this.codec = codec;
+		this.tmp = tmp;
+		// one buffer filling, plus one being sorted/written per thread
+		this.runBytes = Math.max(1, memBytes / (threads + 1));
+		this.buffers = new Semaphore(threads);
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "external-sort");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Maximum number of runs to merge at once (default: 64)
+	 */
+	public void setFanIn(int fanIn) {
+		this.fanIn = Math.max(2, fanIn);
+	}
+
+	/**
+	 * @return the number of records added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of run files written (so far)
+	 */
+	public int getRunCount() {
+		return pending.size();
+	}
+
+	public void add(T record) throws IOException {
+		if (sorting) {
+			throw new IllegalStateException("Records can't be added after sorted() is called");
+		}
+		buffer.add(record);
+		bufferBytes += codec.size(record) + REF_SIZE;
+		count++;
+		if (bufferBytes >= runBytes) {
+			spill();
+		}
+	}
+
+	private void spill() throws IOException {
+		checkErrors();
+
+		// wait for a free thread, so at most threads + 1 buffers are in memory
+		try {
+			buffers.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		final List<T> full = buffer;
+		final File run = newFile();
+		buffer = new ArrayList<T>(full.size());
+		bufferBytes = 0;
+
+		pending.add(pool.submit(new Callable<File>() {
+			public File call() throws Exception {
+				try {
+					Collections.sort(full, comparator);
+					DataOutputStream out = openWriter(run);
+					try {
+						for (T rec: full) {
+							codec.write(out, rec);
+						}
+					} finally {
+						out.close();
+					}
+					return run;
+				} finally {
+					buffers.release();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Fail early if writing a run failed (ex: the disk is full)
+	 */
+	private void checkErrors() throws IOException {
+		for (Future<File> f: pending) {
+			if (f.isDone()) {
+				waitFor(f);
+			}
+		}
+	}
+
+	/**
+	 * @return all added records, in sorted order. The iterator throws an
+	 * UncheckedIOException if a run file can't be read.
+	 */
+	public Iterator<T> sorted() throws IOException {
+		if (sorting) {
+			throw new IllegalStateException("sorted() can only be called once");
+		}
+		sorting = true;
+
+		Collections.sort(buffer, comparator);
+		if (pending.size() == 0) {
+			return buffer.iterator();
+		}
+
+		List<File> runs = new ArrayList<File>();
+		for (Future<File> f: pending) {
+			runs.add(waitFor(f));
+		}
+
+		while (runs.size() >= fanIn) {
+			runs = mergePass(runs);
+		}
+
+		Merger merger = new Merger(runs, buffer);
+		mergers.add(merger);
+		return merger;
+	}
+
+	/**
+	 * Merges consecutive groups of runs (in parallel), so equal records stay in order.
+	 */
+	private List<File> mergePass(List<File> runs) throws IOException {
+		List<Future<File>> merged = new ArrayList<Future<File>>();
+		for (int i = 0; i < runs.size(); i += fanIn) {
+			final List<File> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+			final File out = newFile();
+			merged.add(pool.submit(new Callable<File>() {
+				public File call() throws Exception {
+					Merger m = new Merger(group, null);
+					try {
+						DataOutputStream dos = openWriter(out);
+						try {
+							while (m.hasNext()) {
+								codec.write(dos, m.next());
+							}
+						} finally {
+							dos.close();
+						}
+					} finally {
+						m.close();
+					}
+					for (File f: group) {
+						f.delete();
+					}
+					return out;
+				}
+			}));
+		}
+		List<File> out = new ArrayList<File>();
+		for (Future<File> f: merged) {
+			out.add(waitFor(f));
+		}
+		return out;
+	}
+
+	/**
+	 * Closes any open run files and removes them.
+	 */
+	@Override
+	public void close() {
+		pool.shutdownNow();
+		for (Merger m: mergers) {
+			m.close();
+		}
+		synchronized (files) {
+			for (File f: files) {
+				f.delete();
+			}
+			files.clear();
+		}
+		buffer = null;
+	}
+
+	private File newFile() {
+		File f = tmp.newFile("sort-", ".gz");
+		files.add(f);
+		return f;
+	}
+
+	private static File waitFor(Future<File> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static DataOutputStream openWriter(File f) throws IOException {
+		// runs are read back once, so favor speed over size
+		return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f), BUFFER_SIZE) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		}, BUFFER_SIZE));
+	}
+
+	private static DataInputStream openReader(File f) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f), BUFFER_SIZE), BUFFER_SIZE));
+	}
+
+	/**
+	 * k-way merge of sorted run files (and an optional sorted in-memory list, which
+	 * is treated as the last run).
+	 */
+	private class Merger implements Iterator<T>, Closeable {
+		private class Head {
+			final int idx;
+			final DataInputStream in;
+			final Iterator<T> it;
+			T value;
+
+			Head(int idx, DataInputStream in, Iterator<T> it) {
+				this.idx = idx;
+				this.in = in;
+				this.it = it;
+			}
+
+			boolean advance() throws IOException {
+				if (in != null) {
+					value = codec.read(in);
+				} else {
+					value = it.hasNext() ? it.next() : null;
+				}
+				return value != null;
+			}
+		}
+
+		private final PriorityQueue<Head> queue;
+		private final List<DataInputStream> readers = new ArrayList<DataInputStream>();
+
+		Merger(List<File> runs, List<T> last) throws IOException {
+			queue = new PriorityQueue<Head>(runs.size() + 1, new Comparator<Head>() {
+				public int compare(Head o1, Head o2) {
+					int c = comparator.compare(o1.value, o2.value);
+					return c != 0 ? c : Integer.compare(o1.idx, o2.idx);
+				}
+			});
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					DataInputStream in = openReader(runs.get(i));
+					readers.add(in);
+					offer(new Head(i, in, null));
+				}
+				if (last != null) {
+					offer(new Head(runs.size(), null, last.iterator()));
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		private void offer(Head h) throws IOException {
+			if (h.advance()) {
+				queue.add(h);
+			} else if (h.in != null) {
+				h.in.close();
+			}
+		}
+
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		public T next() {
+			Head h = queue.poll();
+			if (h == null) {
+				throw new NoSuchElementException();
+			}
+			T value = h.value;
+			try {
+				offer(h);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return value;
+		}
+
+		public void close() {
+			for (DataInputStream in: readers) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+			queue.clear();
+		}
+	}
+}
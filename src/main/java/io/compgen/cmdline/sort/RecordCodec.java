@@ -0,0 +1,22 @@
+package io.compgen.cmdline.sort;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes records to the sorted run files used by ExternalSorter.
+ */
+public interface RecordCodec<T> {
+	public void write(DataOutputStream out, T record) throws IOException;
+
+	/**
+	 * @return the next record, or null at the end of the stream
+	 */
+	public T read(DataInputStream in) throws IOException;
+
+	/**
+	 * @return approximate heap size of the record in bytes (used to decide when to spill)
+	 */
+	public long size(T record);
+}
@@ -0,0 +1,35 @@
+package io.compgen.cmdline.sort;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec for String records (ex: lines of text), stored as length-prefixed UTF-8.
+ */
+public class StringCodec implements RecordCodec<String> {
+	public void write(DataOutputStream out, String record) throws IOException {
+		byte[] b = record.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	public String read(DataInputStream in) throws IOException {
+		int len;
+		try {
+			len = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public long size(String record) {
+		// object header + array + chars (assuming compact strings are off)
+		return 56 + 2L * record.length();
+	}
+}
@@ -0,0 +1,58 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.exceptions.MissingExecException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+public class CdsTrainTest extends TestCase {
+	private static final String OUTPUT = "cds-train-test.out";
+
+	@Command(name = "report", desc="Write a report")
+	public static class Report {
+		private static int opened = 0;
+		private OutputStream out;
+		private String title;
+
+		@Option(desc="Report filename", name="report", defaultValue=OUTPUT, output=true)
+		public void setReport(String fname) throws IOException {
+			opened++;
+			out = new FileOutputStream(fname);
+		}
+
+		@Option(desc="Title", name="title", defaultValue="Report")
+		public void setTitle(String title) {
+			this.title = title;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			out.write(title.getBytes());
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		new File(OUTPUT).delete();
+	}
+
+	public void testNoOutputs() throws Exception {
+		MainBuilder builder = new MainBuilder().setProgName("prog").addCommand(Report.class)
+			.addGroup("sub", "Sub commands", new CommandGroup() {
+				public void register(MainBuilder sub) throws MissingExecException {
+					sub.addCommand(Report.class);
+				}
+			});
+		Report.opened = 0;
+		CdsTrain.exerciseCommands(builder);
+		assertEquals(0, Report.opened);
+		assertFalse(new File(OUTPUT).exists());
+	}
+}
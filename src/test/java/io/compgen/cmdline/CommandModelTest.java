@@ -0,0 +1,141 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+public class CommandModelTest extends TestCase {
+	@Command(name = "opts", desc="Print the options")
+	public static class Opts {
+		private OutputStream stdout;
+		private String output = null;
+		private String mode = null;
+		private String model = null;
+		private boolean verbose = false;
+
+		public void setStdout(OutputStream stdout) {
+			this.stdout = stdout;
+		}
+
+		@Option(desc="Output", name="output")
+		public void setOutput(String output) {
+			this.output = output;
+		}
+
+		@Option(desc="Mode", name="mode")
+		public void setMode(String mode) {
+			this.mode = mode;
+		}
+
+		@Option(desc="Model", name="model")
+		public void setModel(String model) {
+			this.model = model;
+		}
+
+		@Option(desc="Verbose", name="verbose")
+		public void setVerbose(boolean verbose) {
+			this.verbose = verbose;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			stdout.write(("output=" + output + " mode=" + mode + " model=" + model + " verbose=" + verbose + "\n").getBytes());
+		}
+	}
+
+	@Command(name = "opts-extra", desc="Another command")
+	public static class Extra {
+		private OutputStream stdout;
+
+		public void setStdout(OutputStream stdout) {
+			this.stdout = stdout;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			stdout.write("extra\n".getBytes());
+		}
+	}
+
+	@Command(name = "other", desc="A hidden command", hidden=true)
+	public static class Other {
+		private OutputStream stdout;
+
+		public void setStdout(OutputStream stdout) {
+			this.stdout = stdout;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			stdout.write("other\n".getBytes());
+		}
+	}
+
+	private CommandHarness harness() throws Exception {
+		return new CommandHarness(new MainBuilder().setProgName("test").addCommand(Opts.class).addCommand(Extra.class).addCommand(Other.class));
+	}
+
+	private String run(String... args) throws Exception {
+		CommandResult r = harness().run(args);
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		return r.getStdout();
+	}
+
+	public void testUniquePrefix() throws Exception {
+		assertEquals("output=a mode=null model=null verbose=false\n", run("opts", "--out", "a"));
+		assertEquals("output=a mode=null model=null verbose=false\n", run("opts", "--o", "a"));
+		assertEquals("output=null mode=null model=null verbose=true\n", run("opts", "--verb"));
+	}
+
+	public void testPrefixWithValue() throws Exception {
+		assertEquals("output=a=b mode=null model=null verbose=false\n", run("opts", "--out=a=b"));
+		assertEquals("output=null mode=null model=null verbose=true\n", run("opts", "--verb=true"));
+		assertEquals("output=null mode=null model=null verbose=false\n", run("opts", "--verb=false"));
+		assertEquals("output=c mode=null model=null verbose=false\n", run("opts", "--outpu=c"));
+	}
+
+	public void testExactName() throws Exception {
+		// --mode is also a prefix of --model, but an exact name wins
+		assertEquals("output=null mode=x model=null verbose=false\n", run("opts", "--mode", "x"));
+		assertEquals("output=null mode=x model=null verbose=false\n", run("opts", "--mode=x"));
+		assertEquals("output=null mode=null model=y verbose=false\n", run("opts", "--model", "y"));
+	}
+
+	public void testAmbiguousPrefix() throws Exception {
+		CommandResult r = harness().run("opts", "--mod", "x");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr(), r.getStderr().contains("Ambiguous argument: --mod (--mode, --model)"));
+
+		r = harness().run("opts", "--mo=x");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr(), r.getStderr().contains("Ambiguous argument: --mo=x (--mode, --model)"));
+
+		r = harness().run("opts", "--x");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr(), r.getStderr().contains("Unknown argument: --x"));
+	}
+
+	public void testCommandPrefix() throws Exception {
+		// an exact name wins over a longer command it is a prefix of
+		assertEquals("output=null mode=null model=null verbose=false\n", run("opts"));
+		assertEquals("extra\n", run("opts-"));
+		assertEquals("extra\n", run("opts-e"));
+
+		CommandResult r = harness().run("op");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr(), r.getStderr().contains("ERROR: Ambiguous command: op (opts, opts-extra)"));
+
+		// hidden commands have to be given in full
+		assertEquals("other\n", run("other"));
+		r = harness().run("oth");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr(), r.getStderr().contains("ERROR: Unknown command: oth"));
+	}
+}
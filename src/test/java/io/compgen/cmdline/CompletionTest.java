@@ -0,0 +1,40 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+
+import junit.framework.TestCase;
+
+public class CompletionTest extends TestCase {
+	private CommandHarness harness() throws Exception {
+		return new CommandHarness(new MainBuilder().setProgName("prog").addCommand(License.class).addCommand(Completion.class));
+	}
+
+	public void testBash() throws Exception {
+		CommandResult r = harness().run("completion", "bash");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertTrue(r.getStdout().contains("compgen -W \"help license\""));
+		assertTrue(r.getStdout().contains("complete -o filenames -F _prog_complete prog"));
+	}
+
+	public void testZsh() throws Exception {
+		CommandResult r = harness().run("completion", "zsh");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertTrue(r.getStdout().startsWith("#compdef prog\n"));
+		assertTrue(r.getStdout().contains("'help:Help for a specific command'"));
+		assertTrue(r.getStdout().contains("'license:Show the license'"));
+	}
+
+	public void testFish() throws Exception {
+		CommandResult r = harness().run("completion", "fish");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertTrue(r.getStdout().contains("complete -c prog -n __fish_use_subcommand -a help"));
+		assertTrue(r.getStdout().contains("-a license"));
+	}
+
+	public void testUnknownShell() throws Exception {
+		CommandResult r = harness().run("completion", "csh");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("Unknown shell: csh"));
+	}
+}
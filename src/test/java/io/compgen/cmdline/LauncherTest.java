@@ -0,0 +1,125 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.exceptions.MissingExecException;
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LauncherTest extends TestCase {
+	@Command(name = "big", desc="Long running", gc="Parallel", maxHeap="8g", jvmArgs={"-Dtmp=/tmp/with space", "-Dq=it's"})
+	public static class Big {
+		@Exec
+		public void exec() {
+		}
+	}
+
+	@Command(name = "small", desc="Short running", quickStart=true)
+	public static class Small {
+		@Exec
+		public void exec() {
+		}
+	}
+
+	@Command(name = "plain", desc="No hints")
+	public static class Plain {
+		@Exec
+		public void exec() {
+		}
+	}
+
+	private File dir;
+	private File script;
+	private File java;
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("launcher test").toFile();
+		script = new File(dir, "prog.sh");
+		// a stand-in for java that prints its arguments, one per line
+		java = new File(dir, "my java");
+		FileOutputStream fos = new FileOutputStream(java);
+		fos.write("#!/bin/sh\nfor a in \"$@\"; do echo \"$a\"; done\n".getBytes());
+		fos.close();
+		java.setExecutable(true);
+
+		MainBuilder builder = new MainBuilder().setProgName("prog").addCommand(Big.class).addCommand(Plain.class)
+			.addGroup("grp", "A group", new CommandGroup() {
+				public void register(MainBuilder grp) throws MissingExecException {
+					grp.addCommand(Small.class);
+				}
+			});
+		Launcher.write(builder, script, java.getPath(), Arrays.asList("-cp", "/opt/my app/app.jar", "Main"), "/opt/my app/prog.jsa");
+	}
+
+	protected void tearDown() throws Exception {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private List<String> launch(String... args) throws Exception {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add("/bin/sh");
+		cmd.add(script.getPath());
+		cmd.addAll(Arrays.asList(args));
+		Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+		byte[] out = readAll(p);
+		assertEquals(new String(out), 0, p.waitFor());
+		return Arrays.asList(new String(out).split("\n"));
+	}
+
+	private static byte[] readAll(Process p) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = p.getInputStream().read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	public void testIndex() throws Exception {
+		List<String> lines = Files.readAllLines(new File(script.getPath() + ".cmdidx").toPath());
+		assertEquals(Arrays.asList(
+				"*\t'-XX:SharedArchiveFile=/opt/my app/prog.jsa' '-Xshare:auto'",
+				"big\t'-XX:+UseParallelGC' '-Xmx8g' '-Dtmp=/tmp/with space' '-Dq=it'\\''s' '-XX:SharedArchiveFile=/opt/my app/prog.jsa' '-Xshare:auto'",
+				"grp small\t'-XX:TieredStopAtLevel=1' '-XX:SharedArchiveFile=/opt/my app/prog.jsa' '-Xshare:auto'",
+				"plain\t'-XX:SharedArchiveFile=/opt/my app/prog.jsa' '-Xshare:auto'"), lines);
+	}
+
+	public void testCommand() throws Exception {
+		File other = new File(dir, "other.sh");
+		CommandHarness harness = new CommandHarness(new MainBuilder().setProgName("prog").addCommand(Big.class).addCommand(Launcher.class));
+		CommandResult r = harness.run("launcher", "--main", "Main", "--launcher", other.getPath());
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("Wrote launcher: " + other.getAbsolutePath() + "\n", r.getStderr());
+		assertTrue(other.canExecute());
+		assertTrue(new File(other.getPath() + ".cmdidx").exists());
+	}
+
+	public void testScript() throws Exception {
+		assertEquals(Arrays.asList("-XX:+UseParallelGC", "-Xmx8g", "-Dtmp=/tmp/with space", "-Dq=it's",
+				"-XX:SharedArchiveFile=/opt/my app/prog.jsa", "-Xshare:auto", "-cp", "/opt/my app/app.jar", "Main", "big", "an arg", "$HOME"),
+				launch("big", "an arg", "$HOME"));
+
+		assertEquals(Arrays.asList("-XX:TieredStopAtLevel=1", "-XX:SharedArchiveFile=/opt/my app/prog.jsa", "-Xshare:auto",
+				"-cp", "/opt/my app/app.jar", "Main", "grp", "small"), launch("grp", "small"));
+
+		// no hints, or no command: the defaults
+		assertEquals(Arrays.asList("-XX:SharedArchiveFile=/opt/my app/prog.jsa", "-Xshare:auto", "-cp", "/opt/my app/app.jar", "Main", "help"),
+				launch("help"));
+		assertEquals(Arrays.asList("-XX:SharedArchiveFile=/opt/my app/prog.jsa", "-Xshare:auto", "-cp", "/opt/my app/app.jar", "Main"),
+				launch());
+	}
+}
@@ -0,0 +1,175 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Cleanup;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnknownArgs;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.MissingExecException;
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class NativeImageConfigTest extends TestCase {
+	@Command(name = "native-test", desc="Test command")
+	public static class NativeTestCommand extends AbstractOutputCommand {
+		// the methods MainBuilder called (reflectively) on this class
+		private static final Set<String> called = Collections.synchronizedSet(new TreeSet<String>());
+
+		@Option(desc="Count", charName="n")
+		public void setCount(int n) {
+			called.add("setCount(int)");
+		}
+
+		@UnnamedArg(name="FILE")
+		public void setFiles(List<String> files) {
+			called.add("setFiles(java.util.List)");
+		}
+
+		@UnknownArgs
+		public void setUnknown(String k, String v) {
+			called.add("setUnknown(java.lang.String,java.lang.String)");
+		}
+
+		public void setMainBuilder(MainBuilder builder) {
+			called.add("setMainBuilder(io.compgen.cmdline.MainBuilder)");
+		}
+
+		@Exec
+		public void exec() {
+			called.add("exec()");
+		}
+
+		@Cleanup
+		public void done() {
+			called.add("done()");
+		}
+	}
+
+	@Command(name = "grouped", desc="Command in a group")
+	public static class GroupedCommand {
+		@Option(desc="Name")
+		public void setName(String name) {
+		}
+
+		@Exec
+		public void exec() {
+		}
+	}
+
+	/*
+	 * Inherited methods MainBuilder calls, listed by hand (class: method(params))
+	 */
+	private static final String[] INHERITED = new String[] {
+		"io.compgen.cmdline.impl.AbstractCommand: setVerbose(boolean)",
+		"io.compgen.cmdline.impl.AbstractCommand: setQuiet(boolean)",
+		"io.compgen.cmdline.impl.AbstractCommand: setShard(java.lang.String)",
+		"io.compgen.cmdline.impl.AbstractCommand: setTimeout(java.lang.String)",
+		"io.compgen.cmdline.impl.AbstractCommand: setCheckpointFile(java.lang.String)",
+		"io.compgen.cmdline.impl.AbstractCommand: setResume(boolean)",
+		"io.compgen.cmdline.impl.AbstractCommand: showHelp()",
+		"io.compgen.cmdline.impl.AbstractCommand: setCheckpoint(io.compgen.cmdline.impl.Checkpoint)",
+		"io.compgen.cmdline.impl.AbstractCommand: setCancellationToken(io.compgen.cmdline.impl.CancellationToken)",
+		"io.compgen.cmdline.impl.AbstractCommand: setShardSpec(io.compgen.cmdline.impl.ShardSpec)",
+		"io.compgen.cmdline.impl.AbstractCommand: setProgress(io.compgen.cmdline.progress.Progress)",
+		"io.compgen.cmdline.impl.AbstractCommand: setLog(io.compgen.cmdline.log.Log)",
+		"io.compgen.cmdline.impl.AbstractCommand: setStdin(java.io.InputStream)",
+		"io.compgen.cmdline.impl.AbstractCommand: setStdout(java.io.OutputStream)",
+		"io.compgen.cmdline.impl.AbstractCommand: setStderr(java.io.PrintStream)",
+		"io.compgen.cmdline.impl.AbstractOutputCommand: setOutputName(java.lang.String)",
+		"io.compgen.cmdline.impl.AbstractOutputCommand: setLargeOutput(boolean)",
+		"io.compgen.cmdline.impl.AbstractOutputCommand: setDirectIO(boolean)",
+		"io.compgen.cmdline.impl.AbstractOutputCommand: setExpectedSize(java.lang.String)",
+		"io.compgen.cmdline.impl.AbstractOutputCommand: close()",
+	};
+
+	public void testReflectConfigIsComplete() throws Exception {
+		MainBuilder builder = new MainBuilder();
+		builder.addCommand(NativeTestCommand.class);
+		builder.addCommand(License.class);
+
+		String config = NativeImageConfig.reflectConfig(builder);
+
+		// run the command, so every kind of reflective call is made
+		NativeTestCommand.called.clear();
+		CommandResult r = new CommandHarness(builder).run("native-test", "-n", "3", "a.txt");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals(5, NativeTestCommand.called.size());
+
+		String entry = entryFor(config, NativeTestCommand.class.getName());
+		assertNotNull("Missing command class", entry);
+		assertTrue(entry.contains("{\"name\":\"<init>\",\"parameterTypes\":[]}"));
+		for (String m: NativeTestCommand.called) {
+			assertTrue("Missing method: " + m, entry.contains(json(m)));
+		}
+		// only called for arguments that aren't otherwise used
+		assertTrue(entry.contains(json("setUnknown(java.lang.String,java.lang.String)")));
+
+		for (String expected: INHERITED) {
+			String[] parts = expected.split(": ");
+			String owner = entryFor(config, parts[0]);
+			assertNotNull("Missing declaring class: " + parts[0], owner);
+			assertTrue("Missing method: " + expected, owner.contains(json(parts[1])));
+		}
+
+		entry = entryFor(config, License.class.getName());
+		assertNotNull(entry);
+		assertTrue(entry.contains(json("exec()")));
+		assertTrue(entry.contains(json("setStdout(java.io.OutputStream)")));
+
+		assertNotNull(entryFor(config, Option.class.getName()));
+		assertNotNull(entryFor(config, Command.class.getName()));
+	}
+
+	public void testGroupedCommands() throws Exception {
+		MainBuilder builder = new MainBuilder();
+		builder.addCommand(License.class);
+		builder.addGroup("sub", "Subcommands", new CommandGroup() {
+			public void register(MainBuilder sub) throws MissingExecException {
+				sub.addCommand(GroupedCommand.class);
+			}
+		});
+
+		String entry = entryFor(NativeImageConfig.reflectConfig(builder), GroupedCommand.class.getName());
+		assertNotNull("Missing grouped command class", entry);
+		assertTrue(entry.contains("{\"name\":\"<init>\",\"parameterTypes\":[]}"));
+		assertTrue(entry.contains(json("setName(java.lang.String)")));
+		assertTrue(entry.contains(json("exec()")));
+	}
+
+	/**
+	 * name(type,type) => {"name":"name","parameterTypes":["type","type"]}
+	 */
+	private static String json(String method) {
+		String name = method.substring(0, method.indexOf('('));
+		String params = method.substring(method.indexOf('(') + 1, method.length() - 1);
+		StringBuilder sb = new StringBuilder("{\"name\":\"" + name + "\",\"parameterTypes\":[");
+		if (params.length() > 0) {
+			sb.append("\"" + params.replace(",", "\",\"") + "\"");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	public void testResourceConfig() {
+		String config = NativeImageConfig.resourceConfig(null);
+		assertTrue(config.contains("\\\\QLICENSE\\\\E"));
+	}
+
+	private static String entryFor(String config, String className) {
+		for (String line: config.split("\n")) {
+			if (line.contains("{\"name\":\"" + className + "\"")) {
+				return line;
+			}
+		}
+		return null;
+	}
+}
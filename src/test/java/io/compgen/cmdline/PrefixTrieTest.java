@@ -0,0 +1,29 @@
+package io.compgen.cmdline;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PrefixTrieTest extends TestCase {
+	public void testFind() {
+		PrefixTrie<String> trie = new PrefixTrie<String>();
+		trie.put("output", "OUT");
+		trie.put("outputfile", "OUT");
+		trie.put("other", "OTHER");
+		trie.put("out", "SHORT");
+
+		assertEquals("SHORT", trie.find("out"));
+		assertEquals("OUT", trie.find("outp"));
+		assertEquals("OUT", trie.find("output"));
+		assertEquals("OTHER", trie.find("oth"));
+		assertNull(trie.find("o"));
+		assertTrue(trie.isAmbiguous("o"));
+		assertFalse(trie.isAmbiguous("outp"));
+		assertNull(trie.find("x"));
+		assertFalse(trie.isAmbiguous("x"));
+
+		assertNull(trie.get("outp"));
+		assertEquals("OUT", trie.find("--outp", 2, 6));
+		assertEquals(Arrays.asList("other", "out", "output", "outputfile"), trie.complete("o"));
+	}
+}
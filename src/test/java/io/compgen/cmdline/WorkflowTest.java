@@ -0,0 +1,190 @@
+package io.compgen.cmdline;
+
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WorkflowTest extends TestCase {
+	@Command(name = "wf-echo", desc="Write the arguments, separated by |")
+	public static class Echo extends AbstractOutputCommand {
+		private List<String> words;
+
+		@UnnamedArg(name="WORD...")
+		public void setWords(List<String> words) {
+			this.words = words;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			out.write((String.join("|", words) + "\n").getBytes());
+		}
+	}
+
+	@Command(name = "wf-cat", desc="Copy a file")
+	public static class Cat extends AbstractOutputCommand {
+		private String input;
+
+		@UnnamedArg(name="FILE")
+		public void setInput(String input) {
+			this.input = input;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			out.write(Files.readAllBytes(new File(input).toPath()));
+		}
+	}
+
+	@Command(name = "wf-fail", desc="Write part of the output, then fail")
+	public static class Fail extends AbstractOutputCommand {
+		@Exec
+		public void exec() throws IOException {
+			out.write("partial\n".getBytes());
+			out.flush();
+			throw new IOException("failed");
+		}
+	}
+
+	@Command(name = "wf-lines", desc="Write numbered lines, one at a time")
+	public static class Lines extends AbstractOutputCommand {
+		private String name;
+
+		@UnnamedArg(name="NAME")
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			for (int i = 0; i < 200; i++) {
+				out.write((name + " " + i + "\n").getBytes());
+				out.flush();
+				Thread.yield();
+			}
+		}
+	}
+
+	private File dir;
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("workflow").toFile();
+	}
+
+	protected void tearDown() throws Exception {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private CommandResult run(String workflow, String... opts) throws Exception {
+		File wf = new File(dir, "workflow.txt");
+		FileWriter w = new FileWriter(wf);
+		w.write(workflow.replace("$DIR", dir.getPath()));
+		w.close();
+
+		String[] args = new String[opts.length + 2];
+		args[0] = "workflow";
+		System.arraycopy(opts, 0, args, 1, opts.length);
+		args[args.length - 1] = wf.getPath();
+		CommandHarness harness = new CommandHarness(new MainBuilder().setProgName("test").addCommand(Echo.class)
+				.addCommand(Cat.class).addCommand(Fail.class).addCommand(Lines.class).addCommand(Workflow.class));
+		return harness.run(args);
+	}
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(new File(dir, name).toPath()));
+	}
+
+	public void testUpToDate() throws Exception {
+		String wf = "# test\n"
+				+ "[b]\nin: $DIR/a.txt\nout: $DIR/b.txt\nrun: wf-cat -o $DIR/b.txt $DIR/a.txt\n\n"
+				+ "[a]\nout: $DIR/a.txt\nrun: wf-echo -o $DIR/a.txt 'x y' \"z\" w\n\n"
+				+ "[c]\nafter: b\nrun: wf-echo c\nstdout: $DIR/c.txt\n";
+
+		CommandResult r = run(wf, "--threads", "2");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("x y|z|w\n", read("a.txt"));
+		assertEquals("x y|z|w\n", read("b.txt"));
+		assertEquals("c\n", read("c.txt"));
+
+		r = run(wf);
+		assertEquals(0, r.getExitCode());
+		assertTrue(r.getStderr().contains("[a] up to date"));
+		assertTrue(r.getStderr().contains("[b] up to date"));
+		// no outputs, so always run
+		assertTrue(r.getStderr().contains("[c] done"));
+
+		assertTrue(new File(dir, "a.txt").setLastModified(System.currentTimeMillis() + 10000));
+		r = run(wf);
+		assertTrue(r.getStderr().contains("[a] up to date"));
+		assertTrue(r.getStderr().contains("[b] done"));
+
+		r = run(wf, "--force");
+		assertTrue(r.getStderr().contains("[a] done"));
+	}
+
+	public void testFailure() throws Exception {
+		String wf = "[bad]\nout: $DIR/bad.txt\nrun: wf-fail -o $DIR/bad.txt\n\n"
+				+ "[dep]\nin: $DIR/bad.txt\nout: $DIR/dep.txt\nrun: wf-cat -o $DIR/dep.txt $DIR/bad.txt\n\n"
+				+ "[dep2]\nafter: dep\nrun: wf-echo dep2\n\n"
+				+ "[other]\nout: $DIR/other.txt\nrun: wf-echo -o $DIR/other.txt ok\n";
+
+		CommandResult r = run(wf, "--threads", "1");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("[bad] FAILED"));
+		assertTrue(r.getStderr().contains("[dep] not run"));
+		assertTrue(r.getStderr().contains("[dep2] not run"));
+		assertTrue(r.getStderr().contains("ERROR: 1 workflow step(s) failed"));
+		assertFalse(r.getStderr().contains("Usage:"));
+		// partial outputs are removed
+		assertFalse(new File(dir, "bad.txt").exists());
+		assertFalse(new File(dir, "dep.txt").exists());
+		assertEquals("ok\n", read("other.txt"));
+
+		// and the failed step runs again
+		r = run(wf);
+		assertTrue(r.getStderr().contains("[other] up to date"));
+		assertTrue(r.getStderr().contains("[bad] FAILED"));
+	}
+
+	public void testParallelStdout() throws Exception {
+		String wf = "[a]\nrun: wf-lines a\n\n[b]\nrun: wf-lines b\n\n[c]\nrun: wf-lines c\n";
+		CommandResult r = run(wf, "--threads", "3");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+
+		// each step's output is written in one piece
+		String[] lines = r.getStdout().split("\n");
+		assertEquals(600, lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			assertEquals(lines[i - i % 200].split(" ")[0] + " " + (i % 200), lines[i]);
+		}
+	}
+
+	public void testInvalid() throws Exception {
+		CommandResult r = run("[a]\nin: $DIR/b.txt\nout: $DIR/a.txt\nrun: wf-cat -o $DIR/a.txt $DIR/b.txt\n\n"
+				+ "[b]\nin: $DIR/a.txt\nout: $DIR/b.txt\nrun: wf-cat -o $DIR/b.txt $DIR/a.txt\n\n"
+				+ "[c]\nout: $DIR/c.txt\nrun: wf-echo -o $DIR/c.txt c\n");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("Workflow has a cycle: a, b"));
+		assertFalse(new File(dir, "c.txt").exists());
+
+		r = run("[a]\nrun: wf-echo 'unterminated\n");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("Unmatched quote on workflow line 2"));
+
+		r = run("[a]\nafter: missing\nrun: wf-echo a\n");
+		assertTrue(r.getStderr().contains("Unknown workflow step: missing"));
+	}
+}
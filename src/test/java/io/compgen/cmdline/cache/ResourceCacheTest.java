@@ -0,0 +1,68 @@
+package io.compgen.cmdline.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ResourceCacheTest extends TestCase {
+	private static ResourceCache.Loader<String> loader(final String value, final long size, final AtomicInteger calls) {
+		return new ResourceCache.Loader<String>() {
+			public String load() throws Exception {
+				calls.incrementAndGet();
+				Thread.sleep(50);
+				return value;
+			}
+
+			public long size(String s) {
+				return size;
+			}
+		};
+	}
+
+	public void testConcurrentLoad() throws Exception {
+		final ResourceCache cache = new ResourceCache(1000);
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger ok = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int i = 0; i < 8; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						ResourceCache.Lease<String> lease = cache.acquire("a", loader("A", 10, calls));
+						if (lease.get().equals("A")) {
+							ok.incrementAndGet();
+						}
+						lease.close();
+					} catch (Exception e) {
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		assertEquals(8, ok.get());
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getLoads());
+	}
+
+	public void testEviction() throws Exception {
+		ResourceCache cache = new ResourceCache(100);
+		AtomicInteger calls = new AtomicInteger();
+
+		ResourceCache.Lease<String> a = cache.acquire("a", loader("A", 60, calls));
+		cache.acquire("b", loader("B", 60, calls)).close();
+		// a is in use, so b is evicted
+		assertEquals(1, cache.size());
+		assertEquals("A", a.get());
+
+		a.close();
+		cache.acquire("c", loader("C", 60, calls)).close();
+		// a is the least recently used
+		assertEquals(1, cache.size());
+		cache.acquire("c", loader("C", 60, calls)).close();
+		assertEquals(3, calls.get());
+		assertEquals(1, cache.getHits());
+	}
+}
@@ -0,0 +1,245 @@
+package io.compgen.cmdline.cache;
+
+import io.compgen.cmdline.MainBuilder;
+import io.compgen.cmdline.annotation.Cleanup;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.harness.CommandHarness;
+import io.compgen.cmdline.harness.CommandResult;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ResultCacheTest extends TestCase {
+	@Command(name = "cache-upper", desc="Upper-case a file", cacheable=true)
+	public static class Upper extends AbstractOutputCommand {
+		private static final AtomicInteger runs = new AtomicInteger();
+		private String input;
+		private String mode = "ok";
+
+		@Option(desc="ok, fail, or hang (until cancelled)", name="mode")
+		public void setMode(String mode) {
+			this.mode = mode;
+		}
+
+		@UnnamedArg(name="FILE")
+		public void setInput(String input) {
+			this.input = input;
+		}
+
+		@Exec
+		public void exec() throws Exception {
+			runs.incrementAndGet();
+			out.write(new String(Files.readAllBytes(new File(input).toPath())).toUpperCase().getBytes());
+			out.flush();
+			if (mode.equals("fail")) {
+				throw new IOException("failed");
+			}
+			while (mode.equals("hang")) {
+				cancel.throwIfCancelled();
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Command(name = "cache-split", desc="Write upper- and lower-case copies of a file", cacheable=true)
+	public static class Split {
+		private static final AtomicInteger runs = new AtomicInteger();
+		private String input;
+		private FileOutputStream upper;
+		private FileOutputStream lower;
+
+		@Option(desc="Upper-case output", name="upper", output=true, required=true)
+		public void setUpper(String fname) throws IOException {
+			upper = new FileOutputStream(fname);
+		}
+
+		@Option(desc="Lower-case output", name="lower", output=true, required=true)
+		public void setLower(String fname) throws IOException {
+			lower = new FileOutputStream(fname);
+		}
+
+		@UnnamedArg(name="FILE")
+		public void setInput(String input) {
+			this.input = input;
+		}
+
+		@Exec
+		public void exec() throws Exception {
+			runs.incrementAndGet();
+			String s = new String(Files.readAllBytes(new File(input).toPath()));
+			upper.write(s.toUpperCase().getBytes());
+			lower.write(s.toLowerCase().getBytes());
+		}
+
+		@Cleanup
+		public void close() throws IOException {
+			upper.close();
+			lower.close();
+		}
+	}
+
+	private File dir;
+	private File cacheDir;
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("resultcache").toFile();
+		cacheDir = new File(dir, "cache");
+		Upper.runs.set(0);
+		Split.runs.set(0);
+	}
+
+	protected void tearDown() throws Exception {
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child: children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+
+	private File write(String name, String contents) throws IOException {
+		File f = new File(dir, name);
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(contents.getBytes());
+		fos.close();
+		return f;
+	}
+
+	private static String read(File f) throws IOException {
+		return new String(Files.readAllBytes(f.toPath()));
+	}
+
+	private int entries() {
+		String[] names = cacheDir.list();
+		return names == null ? 0 : names.length;
+	}
+
+	public void testStoreRestore() throws Exception {
+		ResultCache cache = new ResultCache(cacheDir, 1000);
+		File in = write("in.txt", "abc");
+		File out = write("out.txt", "ABC");
+
+		String key = cache.key("upper", Arrays.asList("-o", out.getPath()), Arrays.asList(in));
+		assertEquals(key, cache.key("upper", Arrays.asList("-o", out.getPath()), Arrays.asList(in)));
+		assertFalse(key.equals(cache.key("upper", Arrays.asList("-o", "other.txt"), Arrays.asList(in))));
+		assertFalse(key.equals(cache.key("lower", Arrays.asList("-o", out.getPath()), Arrays.asList(in))));
+
+		assertFalse(cache.restore(key, Arrays.asList(out)));
+		cache.store(key, Arrays.asList(out));
+		assertEquals(1, entries());
+
+		write("out.txt", "changed");
+		assertTrue(cache.restore(key, Arrays.asList(out)));
+		assertEquals("ABC", read(out));
+
+		// the input changed, so it's a new key
+		write("in.txt", "abcd");
+		assertFalse(key.equals(cache.key("upper", Arrays.asList("-o", out.getPath()), Arrays.asList(in))));
+	}
+
+	public void testEviction() throws Exception {
+		ResultCache cache = new ResultCache(cacheDir, 10);
+		File out = write("out.txt", "1234");
+		cache.store("a", Arrays.asList(out));
+		cache.store("b", Arrays.asList(out));
+		new File(cacheDir, "a").setLastModified(System.currentTimeMillis() - 20000);
+		new File(cacheDir, "b").setLastModified(System.currentTimeMillis() - 10000);
+
+		// a hit makes "a" the most recently used, so "b" is evicted
+		assertTrue(cache.restore("a", Arrays.asList(out)));
+		cache.store("c", Arrays.asList(out));
+		assertEquals(2, entries());
+		assertTrue(new File(cacheDir, "a").isDirectory());
+		assertFalse(new File(cacheDir, "b").exists());
+		assertTrue(new File(cacheDir, "c").isDirectory());
+	}
+
+	private CommandHarness harness() throws Exception {
+		return new CommandHarness(new MainBuilder().setProgName("test").setResultCache(cacheDir.getPath(), 1024 * 1024, false)
+				.addCommand(Upper.class).addCommand(Split.class));
+	}
+
+	public void testCommand() throws Exception {
+		File in = write("in.txt", "abc");
+		File out = new File(dir, "out.txt");
+		CommandHarness harness = harness();
+
+		CommandResult r = harness.run("cache-upper", "-o", out.getPath(), in.getPath());
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("ABC", read(out));
+		assertEquals(1, Upper.runs.get());
+		assertEquals(1, entries());
+
+		out.delete();
+		r = harness.run("cache-upper", "-o", out.getPath(), in.getPath());
+		assertEquals(0, r.getExitCode());
+		assertEquals("ABC", read(out));
+		assertEquals(1, Upper.runs.get());
+
+		// options that don't change the output aren't part of the key
+		out.delete();
+		r = harness.run("cache-upper", "-v", "--quiet", "--timeout", "1h", "--large-output", "-o", out.getPath(), in.getPath());
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("ABC", read(out));
+		assertEquals(1, Upper.runs.get());
+
+		r = harness.run("cache-upper", "--mode", "ok", "-o", out.getPath(), in.getPath());
+		assertEquals(0, r.getExitCode());
+		assertEquals(2, Upper.runs.get());
+		assertEquals(2, entries());
+	}
+
+	public void testTwoOutputs() throws Exception {
+		File in = write("in.txt", "aBc");
+		File upper = new File(dir, "upper.txt");
+		File lower = new File(dir, "lower.txt");
+		CommandHarness harness = harness();
+
+		CommandResult r = harness.run("cache-split", "--upper", upper.getPath(), "--lower", lower.getPath(), in.getPath());
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals(1, Split.runs.get());
+
+		// each output is restored to its own file, whatever order they're given in
+		upper.delete();
+		lower.delete();
+		r = harness.run("cache-split", "--lower", lower.getPath(), "--upper", upper.getPath(), in.getPath());
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals(1, Split.runs.get());
+		assertEquals("ABC", read(upper));
+		assertEquals("abc", read(lower));
+	}
+
+	public void testNoStore() throws Exception {
+		File in = write("in.txt", "abc");
+		File out = new File(dir, "out.txt");
+		CommandHarness harness = harness();
+
+		CommandResult r = harness.run("cache-upper", "--mode", "fail", "-o", out.getPath(), in.getPath());
+		assertEquals(1, r.getExitCode());
+		assertEquals(0, entries());
+
+		r = harness.run("cache-upper", "--mode", "hang", "--timeout", "100ms", "-o", out.getPath(), in.getPath());
+		assertEquals(124, r.getExitCode());
+		assertFalse(out.exists());
+		assertEquals(0, entries());
+
+		// and both run again
+		harness.run("cache-upper", "--mode", "fail", "-o", out.getPath(), in.getPath());
+		assertEquals(3, Upper.runs.get());
+	}
+}
@@ -0,0 +1,329 @@
+package io.compgen.cmdline.harness;
+
+import io.compgen.cmdline.CommandGroup;
+import io.compgen.cmdline.MainBuilder;
+import io.compgen.cmdline.annotation.Command;
+import io.compgen.cmdline.annotation.Exec;
+import io.compgen.cmdline.annotation.Option;
+import io.compgen.cmdline.annotation.UnnamedArg;
+import io.compgen.cmdline.exceptions.CommandFailedException;
+import io.compgen.cmdline.exceptions.MissingExecException;
+import io.compgen.cmdline.impl.AbstractCommand;
+import io.compgen.cmdline.impl.AbstractOutputCommand;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CommandHarnessTest extends TestCase {
+	@Command(name = "harness-greet", desc="Greet someone")
+	public static class Greet extends AbstractOutputCommand {
+		private String name = null;
+		private int count = 1;
+
+		@Option(desc="Times", name="count")
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		@UnnamedArg(name="NAME", required=true)
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			log.info("greeting " + name);
+			for (int i = 0; i < count; i++) {
+				out.write(("hello " + name + "\n").getBytes());
+			}
+		}
+	}
+
+	@Command(name = "harness-upper", desc="Uppercase stdin")
+	public static class Upper extends AbstractOutputCommand {
+		@Exec
+		public void exec() throws IOException {
+			BufferedReader r = new BufferedReader(new InputStreamReader(stdin));
+			String line;
+			while ((line = r.readLine()) != null) {
+				out.write((line.toUpperCase() + "\n").getBytes());
+			}
+		}
+	}
+
+	@Command(name = "harness-plain", desc="A command with its own --shard, --checkpoint and --resume options")
+	public static class Plain {
+		private OutputStream stdout;
+		private String shard = null;
+		private String checkpoint = null;
+		private boolean resume = false;
+
+		public void setStdout(OutputStream stdout) {
+			this.stdout = stdout;
+		}
+
+		@Option(desc="Shard name", name="shard")
+		public void setShard(String shard) {
+			this.shard = shard;
+		}
+
+		@Option(desc="Checkpoint name", name="checkpoint")
+		public void setCheckpoint(String checkpoint) {
+			this.checkpoint = checkpoint;
+		}
+
+		@Option(desc="Resume", name="resume")
+		public void setResume(boolean resume) {
+			this.resume = resume;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			stdout.write(("shard=" + shard + " checkpoint=" + checkpoint + " resume=" + resume + "\n").getBytes());
+		}
+	}
+
+	@Command(name = "harness-yes", desc="Write lines until the output is closed")
+	public static class Yes extends AbstractOutputCommand {
+		@Exec
+		public void exec() throws IOException {
+			while (true) {
+				out.write("y\n".getBytes());
+			}
+		}
+	}
+
+	@Command(name = "harness-head", desc="Copy the first lines of stdin")
+	public static class Head extends AbstractOutputCommand {
+		private int lines = 1;
+		private int exitCode = 0;
+
+		@Option(desc="Lines", name="lines")
+		public void setLines(int lines) {
+			this.lines = lines;
+		}
+
+		@Option(desc="Exit code", name="exit")
+		public void setExitCode(int exitCode) {
+			this.exitCode = exitCode;
+		}
+
+		@Exec
+		public void exec() throws Exception {
+			BufferedReader r = new BufferedReader(new InputStreamReader(stdin));
+			for (int i = 0; i < lines; i++) {
+				String line = r.readLine();
+				if (line == null) {
+					break;
+				}
+				out.write((line + "\n").getBytes());
+			}
+			if (exitCode != 0) {
+				throw new CommandFailedException("head failed", exitCode);
+			}
+		}
+	}
+
+	@Command(name = "harness-own", desc="An AbstractCommand with its own --checkpoint option")
+	public static class Own extends AbstractOutputCommand {
+		private String name = null;
+
+		@Option(desc="Checkpoint name", name="checkpoint")
+		public void setCheckpointName(String name) {
+			this.name = name;
+		}
+
+		@Exec
+		public void exec() throws IOException {
+			out.write(("checkpoint=" + name + "\n").getBytes());
+		}
+	}
+
+	@Command(name = "harness-resumable", desc="A command that can be resumed", checkpoint=true)
+	public static class Resumable extends AbstractOutputCommand {
+		@Exec
+		public void exec() throws IOException {
+			out.write(("resumed=" + checkpoint.isResumed() + "\n").getBytes());
+		}
+	}
+
+	@Command(name = "harness-clash", desc="Declares --timeout again")
+	public static class Clash extends AbstractCommand {
+		@Option(desc="Time limit", name="timeout")
+		public void setLimit(String limit) {
+		}
+
+		@Exec
+		public void exec() {
+		}
+	}
+
+	private CommandHarness harness() throws Exception {
+		return new CommandHarness(new MainBuilder().setProgName("test").setPipelineSeparator("::").setPipelineBufferSize(64)
+				.addCommand(Greet.class).addCommand(Upper.class).addCommand(Plain.class).addCommand(Yes.class).addCommand(Head.class)
+				.addCommand(Own.class).addCommand(Resumable.class));
+	}
+
+	public void testRun() throws Exception {
+		CommandResult r = harness().run("harness-greet", "--count", "2", "-v", "world");
+		assertEquals(0, r.getExitCode());
+		assertEquals("hello world\nhello world\n", r.getStdout());
+		assertTrue(r.getStderr().contains("INFO: greeting world"));
+	}
+
+	public void testErrors() throws Exception {
+		CommandResult r = harness().run("harness-greet");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("ERROR: Missing argument: NAME"));
+		assertEquals("", r.getStdout());
+
+		r = harness().run("missing-command");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("ERROR: Unknown command: missing-command"));
+
+		r = harness().run("harness-greet", "-h");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("Greet someone"));
+	}
+
+	public void testOwnOptions() throws Exception {
+		// not an AbstractCommand, so these aren't the framework's options
+		CommandResult r = harness().run("harness-plain", "--shard", "north", "--resume");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("shard=north checkpoint=null resume=true\n", r.getStdout());
+
+		r = harness().run("harness-plain", "--checkpoint", "c1");
+		assertEquals("shard=null checkpoint=c1 resume=false\n", r.getStdout());
+		assertFalse(new File("c1").exists());
+	}
+
+	public void testCheckpointOptions() throws Exception {
+		// only commands with @Command(checkpoint=true) take --checkpoint and --resume
+		CommandResult r = harness().run("harness-greet", "-h");
+		assertFalse(r.getStderr().contains("--checkpoint"));
+		assertFalse(r.getStderr().contains("--resume"));
+		r = harness().run("harness-greet", "--resume", "you");
+		assertEquals(1, r.getExitCode());
+
+		r = harness().run("harness-resumable", "-h");
+		assertTrue(r.getStderr().contains("--checkpoint"));
+		assertTrue(r.getStderr().contains("--resume"));
+		r = harness().run("harness-resumable", "--resume");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("--resume requires --checkpoint"));
+
+		// so other commands can have their own
+		r = harness().run("harness-own", "--checkpoint", "c1");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("checkpoint=c1\n", r.getStdout());
+		assertFalse(new File("c1").exists());
+	}
+
+	public void testDuplicateOption() throws Exception {
+		try {
+			new MainBuilder().addCommand(Clash.class);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Duplicate option --timeout"));
+			assertTrue(e.getMessage(), e.getMessage().contains("AbstractCommand.setTimeout"));
+			assertTrue(e.getMessage(), e.getMessage().contains("Clash.setLimit"));
+		}
+	}
+
+	public void testStdinAndPipeline() throws Exception {
+		CommandResult r = harness().runWithInput("a\nb\n", "harness-upper");
+		assertEquals("A\nB\n", r.getStdout());
+
+		r = harness().run("harness-greet", "you", "::", "harness-upper");
+		assertEquals(0, r.getExitCode());
+		assertEquals("HELLO YOU\n", r.getStdout());
+	}
+
+	public void testPipelineEarlyExit() throws Exception {
+		// harness-yes never stops on its own, and isn't an error when head quits
+		CommandResult r = harness().run("harness-yes", "::", "harness-head", "--lines", "3");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("y\ny\ny\n", r.getStdout());
+		assertFalse(r.getStderr(), r.getStderr().contains("ERROR"));
+
+		r = harness().run("harness-yes", "::", "harness-head", "--lines", "1000", "::", "harness-head", "--lines", "2", "::", "harness-upper");
+		assertEquals(r.getStderr(), 0, r.getExitCode());
+		assertEquals("Y\nY\n", r.getStdout());
+		assertEquals("", r.getStderr());
+	}
+
+	public void testPipelineExitCode() throws Exception {
+		// the last stage to fail sets the exit code
+		CommandResult r = harness().run("harness-greet", "--count", "3", "you", "::", "harness-head", "--exit", "3");
+		assertEquals(3, r.getExitCode());
+		assertEquals("hello you\n", r.getStdout());
+		assertTrue(r.getStderr().contains("ERROR: head failed"));
+
+		r = harness().run("harness-greet", "you", "::", "harness-head", "--exit", "3", "::", "harness-head", "--exit", "4");
+		assertEquals(4, r.getExitCode());
+
+		// harness-yes is stopped by the closed pipe, but head's exit code is kept
+		r = harness().run("harness-yes", "::", "harness-head", "--exit", "5");
+		assertEquals(5, r.getExitCode());
+		assertFalse(r.getStderr().contains("Pipe closed"));
+	}
+
+	public void testPipelineError() throws Exception {
+		// a failed upstream stage is an error for the stage reading from it
+		CommandResult r = harness().run("harness-head", "--exit", "2", "::", "harness-upper");
+		assertEquals(1, r.getExitCode());
+		assertTrue(r.getStderr().contains("ERROR: head failed"));
+		assertTrue(r.getStderr(), r.getStderr().contains("Upstream pipeline stage failed (2)"));
+	}
+
+	public void testGroup() throws Exception {
+		final int[] loaded = new int[1];
+		MainBuilder builder = new MainBuilder().setProgName("test").setPipelineSeparator("::").addCommand(Greet.class)
+			.addGroup("text", "Text tools", new CommandGroup() {
+				public void register(MainBuilder text) throws MissingExecException {
+					loaded[0]++;
+					text.addCommand(Upper.class);
+				}
+			});
+		CommandHarness harness = new CommandHarness(builder);
+
+		CommandResult r = harness.run("harness-greet", "you");
+		assertEquals("hello you\n", r.getStdout());
+		assertEquals(0, loaded[0]);
+
+		r = harness.run("harness-greet", "you", "::", "text", "harness-up");
+		assertEquals("HELLO YOU\n", r.getStdout());
+
+		r = harness.run("help", "te");
+		assertTrue(r.getStderr().contains("harness-upper"));
+		assertFalse(r.getStderr().contains("harness-greet"));
+
+		r = harness.run("help", "text", "harness-upper");
+		assertTrue(r.getStderr().contains("Usage: test text harness-upper"));
+		assertEquals(1, loaded[0]);
+	}
+
+	public void testParallel() throws Exception {
+		List<String[]> cases = new ArrayList<String[]>();
+		for (int i = 0; i < 200; i++) {
+			cases.add(new String[] { "harness-greet", "--count", Integer.toString(i % 3 + 1), "n" + i });
+		}
+		List<CommandResult> results = harness().runAll(cases, 8);
+		assertEquals(cases.size(), results.size());
+		for (int i = 0; i < results.size(); i++) {
+			StringBuilder expected = new StringBuilder();
+			for (int j = 0; j < i % 3 + 1; j++) {
+				expected.append("hello n" + i + "\n");
+			}
+			assertEquals(0, results.get(i).getExitCode());
+			assertEquals(expected.toString(), results.get(i).getStdout());
+		}
+	}
+}
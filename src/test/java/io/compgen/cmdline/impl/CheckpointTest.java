@@ -0,0 +1,54 @@
+package io.compgen.cmdline.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class CheckpointTest extends TestCase {
+    public void testResume() throws Exception {
+        File dir = File.createTempFile("checkpoint", "");
+        dir.delete();
+        dir.mkdir();
+        File ckfile = new File(dir, "ck");
+        File outfile = new File(dir, "out.txt.gz");
+
+        Checkpoint ck = new Checkpoint(ckfile, true);
+        assertFalse(ck.isResumed());
+        OutputStream out = ck.openOutput(outfile.getPath());
+        out.write("one\n".getBytes());
+        ck.commit(10, 1, new byte[] { 42 });
+        out.write("lost\n".getBytes());
+        out.flush();
+        ck.close();
+        // "crash" without closing the output
+
+        ck = new Checkpoint(ckfile, true);
+        assertTrue(ck.isResumed());
+        assertEquals(10, ck.getOffset());
+        assertEquals(1, ck.getRecords());
+        assertEquals(42, ck.getState()[0]);
+        out = ck.openOutput(outfile.getPath());
+        out.write("two\n".getBytes());
+        out.close();
+        ck.close();
+        ck.delete();
+        assertFalse(ckfile.exists());
+
+        InputStream in = new GZIPInputStream(new FileInputStream(outfile));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            baos.write(c);
+        }
+        in.close();
+        assertEquals("one\ntwo\n", baos.toString());
+
+        outfile.delete();
+        dir.delete();
+    }
+}
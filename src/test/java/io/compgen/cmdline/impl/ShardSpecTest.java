@@ -0,0 +1,53 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import junit.framework.TestCase;
+
+public class ShardSpecTest extends TestCase {
+    public void testParse() throws CommandArgumentException {
+        ShardSpec s = ShardSpec.parse("3/16");
+        assertEquals(3, s.getIndex());
+        assertEquals(16, s.getCount());
+        assertTrue(ShardSpec.parse("1/1").isAll());
+
+        for (String bad: new String[] { "0/4", "5/4", "1/0", "3", "a/b", "/4" }) {
+            try {
+                ShardSpec.parse(bad);
+                fail("Expected an error for: " + bad);
+            } catch (CommandArgumentException e) {
+            }
+        }
+    }
+
+    public void testPartitions() {
+        int n = 7;
+        long size = 1000003;
+        long covered = 0;
+        for (int i = 1; i <= n; i++) {
+            ShardSpec s = new ShardSpec(i, n);
+            assertEquals(covered, s.getStart(size));
+            covered = s.getEnd(size);
+        }
+        assertEquals(size, covered);
+
+        for (long rec = 0; rec < 1000; rec++) {
+            int recHits = 0;
+            int keyHits = 0;
+            for (int i = 1; i <= n; i++) {
+                ShardSpec s = new ShardSpec(i, n);
+                recHits += s.includesRecord(rec) ? 1 : 0;
+                keyHits += s.includesKey("key" + rec) ? 1 : 0;
+            }
+            assertEquals(1, recHits);
+            assertEquals(1, keyHits);
+        }
+    }
+
+    public void testShardName() {
+        ShardSpec s = new ShardSpec(3, 16);
+        assertEquals("out.shard-03-of-16.txt.gz", s.shardName("out.txt.gz"));
+        assertEquals("dir.x/out.shard-03-of-16", s.shardName("dir.x/out"));
+        assertEquals("-", s.shardName("-"));
+        assertEquals("out.txt", ShardSpec.ALL.shardName("out.txt"));
+    }
+}
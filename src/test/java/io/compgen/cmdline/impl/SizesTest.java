@@ -0,0 +1,24 @@
+package io.compgen.cmdline.impl;
+
+import io.compgen.cmdline.exceptions.CommandArgumentException;
+import junit.framework.TestCase;
+
+public class SizesTest extends TestCase {
+    public void testParse() throws CommandArgumentException {
+        assertEquals(100, Sizes.parse("100"));
+        assertEquals(100, Sizes.parse("100b"));
+        assertEquals(2048, Sizes.parse("2K"));
+        assertEquals(512L * 1024 * 1024, Sizes.parse("512M"));
+        assertEquals(512L * 1024 * 1024, Sizes.parse(" 512mb "));
+        assertEquals(3L * 1024 * 1024 * 1024 / 2, Sizes.parse("1.5G"));
+        assertEquals(200L * 1024 * 1024 * 1024, Sizes.parse("200GB"));
+
+        for (String bad: new String[] { "", "G", "0", "-1M", "2T", "abc" }) {
+            try {
+                Sizes.parse(bad);
+                fail("Expected an error for: " + bad);
+            } catch (CommandArgumentException e) {
+            }
+        }
+    }
+}
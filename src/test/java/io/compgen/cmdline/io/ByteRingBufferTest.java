@@ -0,0 +1,138 @@
+package io.compgen.cmdline.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ByteRingBufferTest extends TestCase {
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] b = new byte[7];
+		int n;
+		while ((n = in.read(b)) != -1) {
+			out.write(b, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	public void testEOF() throws Exception {
+		ByteRingBuffer pipe = new ByteRingBuffer(16);
+		pipe.getOutputStream().write("abc".getBytes());
+		pipe.getOutputStream().write('d');
+		pipe.getOutputStream().close();
+		assertEquals(4, pipe.getInputStream().available());
+		assertEquals("abcd", new String(readAll(pipe.getInputStream())));
+		assertEquals(-1, pipe.getInputStream().read());
+
+		try {
+			pipe.getOutputStream().write('e');
+			fail();
+		} catch (IOException e) {
+			assertFalse(e instanceof PipeClosedException);
+		}
+	}
+
+	public void testBlocking() throws Exception {
+		// much more data than fits, so both sides have to wait for the other
+		final ByteRingBuffer pipe = new ByteRingBuffer(10);
+		final byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					OutputStream out = pipe.getOutputStream();
+					for (int i = 0; i < data.length; i += 333) {
+						out.write(data, i, Math.min(333, data.length - i));
+					}
+					out.close();
+				} catch (IOException e) {
+					pipe.closeWriter(e);
+				}
+			}
+		};
+		writer.start();
+		assertTrue(Arrays.equals(data, readAll(pipe.getInputStream())));
+		writer.join();
+	}
+
+	public void testWakeup() throws Exception {
+		final ByteRingBuffer pipe = new ByteRingBuffer(4);
+		final Throwable[] error = new Throwable[1];
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					pipe.getOutputStream().write("123456".getBytes());
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		};
+		writer.start();
+		// the writer is blocked on the full buffer until the reader goes away
+		writer.join(100);
+		assertTrue(writer.isAlive());
+		pipe.getInputStream().close();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertTrue(error[0] instanceof PipeClosedException);
+		assertTrue(pipe.isReaderClosed());
+
+		final ByteRingBuffer pipe2 = new ByteRingBuffer(4);
+		final int[] read = new int[1];
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					read[0] = pipe2.getInputStream().read();
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		};
+		reader.start();
+		reader.join(100);
+		assertTrue(reader.isAlive());
+		pipe2.getOutputStream().write('x');
+		reader.join(5000);
+		assertEquals('x', read[0]);
+	}
+
+	public void testError() throws Exception {
+		ByteRingBuffer pipe = new ByteRingBuffer(16);
+		pipe.getOutputStream().write("ab".getBytes());
+		pipe.closeWriter(new IllegalStateException("boom"));
+
+		// the buffered bytes are still read first
+		InputStream in = pipe.getInputStream();
+		assertEquals('a', in.read());
+		assertEquals('b', in.read());
+		try {
+			in.read();
+			fail();
+		} catch (IOException e) {
+			assertEquals("Upstream pipeline stage failed", e.getMessage());
+			assertEquals("boom", e.getCause().getMessage());
+		}
+
+		IOException err = new IOException("failed");
+		pipe = new ByteRingBuffer(16);
+		pipe.closeWriter(err);
+		try {
+			pipe.getInputStream().read();
+			fail();
+		} catch (IOException e) {
+			assertSame(err, e);
+		}
+	}
+
+	public void testIsCause() {
+		assertTrue(PipeClosedException.isCause(new PipeClosedException()));
+		assertTrue(PipeClosedException.isCause(new RuntimeException(new IOException(new PipeClosedException()))));
+		assertFalse(PipeClosedException.isCause(new IOException("Pipe closed")));
+		assertFalse(PipeClosedException.isCause(null));
+	}
+}
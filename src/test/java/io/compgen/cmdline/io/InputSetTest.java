@@ -0,0 +1,108 @@
+package io.compgen.cmdline.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class InputSetTest extends TestCase {
+	private File dir;
+	private List<String> names;
+	private List<byte[]> contents;
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("inputset").toFile();
+		names = new ArrayList<String>();
+		contents = new ArrayList<byte[]>();
+		for (int i = 0; i < 6; i++) {
+			// larger than the read-ahead buffers, so readers block until read
+			byte[] data = new byte[256 * 1024 + i];
+			Arrays.fill(data, (byte) ('a' + i));
+			File f = new File(dir, "f" + i + (i % 2 == 0 ? ".txt" : ".txt.gz"));
+			OutputStream os = new FileOutputStream(f);
+			if (i % 2 == 1) {
+				os = new GZIPOutputStream(os);
+			}
+			os.write(data);
+			os.close();
+			names.add(f.getPath());
+			contents.add(data);
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static byte[] readAll(InputStream is) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = is.read(buf)) != -1) {
+			baos.write(buf, 0, n);
+		}
+		return baos.toByteArray();
+	}
+
+	private static void waitForReaders(InputSet inputs, int expected) throws Exception {
+		for (int i = 0; i < 200 && inputs.getActiveReaders() != expected; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, inputs.getActiveReaders());
+	}
+
+	public void testConcatenated() throws Exception {
+		List<String> all = new ArrayList<String>(names);
+		all.add(2, "-");
+		InputSet inputs = new InputSet(all, new ByteArrayInputStream("stdin".getBytes()), 2, 3 * 64 * 1024);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < contents.size(); i++) {
+			if (i == 2) {
+				expected.write("stdin".getBytes());
+			}
+			expected.write(contents.get(i));
+		}
+		InputStream is = inputs.getInputStream();
+		assertTrue(Arrays.equals(expected.toByteArray(), readAll(is)));
+		is.close();
+		waitForReaders(inputs, 0);
+	}
+
+	public void testIterator() throws Exception {
+		InputSet inputs = new InputSet(names, null, 2, 3 * 64 * 1024);
+		int i = 0;
+		for (InputSet.Input in: inputs) {
+			assertEquals(names.get(i), in.getName());
+			// the current file and 2 prefetched ones (fewer at the end)
+			assertEquals(Math.min(3, names.size() - i), inputs.getOpenCount());
+			waitForReaders(inputs, Math.min(3, names.size() - i));
+			assertTrue(Arrays.equals(contents.get(i), readAll(in.getInputStream())));
+			i++;
+		}
+		assertEquals(names.size(), i);
+		inputs.close();
+	}
+
+	public void testCloseWithPendingReads() throws Exception {
+		InputSet inputs = new InputSet(names, null, 2, 3 * 64 * 1024);
+		InputStream is = inputs.getInputStream();
+		assertEquals('a', is.read());
+		waitForReaders(inputs, 3);
+		is.close();
+		assertEquals(0, inputs.getOpenCount());
+		waitForReaders(inputs, 0);
+	}
+}
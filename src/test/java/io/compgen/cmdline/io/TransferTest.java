@@ -0,0 +1,95 @@
+package io.compgen.cmdline.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TransferTest extends TestCase {
+	private File dir;
+	private File src;
+	private byte[] data;
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("transfer").toFile();
+		src = new File(dir, "src.bin");
+		data = new byte[3 * Transfer.BUFFER_SIZE + 123];
+		new Random(1).nextBytes(data);
+		Files.write(src.toPath(), data);
+	}
+
+	protected void tearDown() throws Exception {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private void check(OutputStream out, File dest) throws Exception {
+		out.write("head".getBytes());
+		assertEquals(data.length, Transfer.copy(src, out));
+		assertEquals(10, Transfer.copy(src, 100, 10, out));
+		out.write("tail".getBytes());
+		out.close();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write("head".getBytes());
+		expected.write(data);
+		expected.write(data, 100, 10);
+		expected.write("tail".getBytes());
+		assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(dest.toPath())));
+	}
+
+	public void testFileOutputs() throws Exception {
+		File dest = new File(dir, "a.bin");
+		check(new BufferedFileOutputStream(dest.getPath()), dest);
+
+		dest = new File(dir, "b.bin");
+		ChannelOutputStream cos = new ChannelOutputStream(dest);
+		cos.setExpectedSize(10 * Transfer.BUFFER_SIZE);
+		check(cos, dest);
+
+		dest = new File(dir, "c.bin");
+		check(new FileOutputStream(dest), dest);
+	}
+
+	public void testExpectedSize() throws Exception {
+		File dest = new File(dir, "big.bin");
+		ChannelOutputStream cos = new ChannelOutputStream(dest);
+		cos.setExpectedSize(Long.MAX_VALUE);
+		try {
+			cos.write(1);
+			fail("Expected an error for too little space");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Not enough free space"));
+		}
+
+		// the file isn't extended (no sparse hole to leave behind)
+		cos = new ChannelOutputStream(dest);
+		cos.setExpectedSize(1024 * 1024);
+		cos.write("abc".getBytes());
+		cos.flush();
+		assertTrue(dest.length() < 1024 * 1024);
+		cos.close();
+		assertEquals(3, dest.length());
+	}
+
+	public void testStreams() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(data.length - 5, Transfer.copy(new ByteArrayInputStream(data), out, data.length - 5));
+		assertTrue(Arrays.equals(Arrays.copyOf(data, data.length - 5), out.toByteArray()));
+
+		File dest = new File(dir, "d.bin");
+		OutputStream fout = new BufferedFileOutputStream(dest.getPath());
+		assertEquals(data.length, Transfer.copy(new ByteArrayInputStream(data), fout));
+		fout.close();
+		assertTrue(Arrays.equals(data, Files.readAllBytes(dest.toPath())));
+	}
+}
@@ -0,0 +1,92 @@
+package io.compgen.cmdline.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+public class AsyncAppenderTest extends TestCase {
+	private static class CountingStream extends PrintStream {
+		private int flushes = 0;
+
+		public CountingStream(ByteArrayOutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public synchronized void flush() {
+			flushes++;
+			super.flush();
+		}
+	}
+
+	public void testAppend() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		CountingStream out = new CountingStream(buf);
+		AsyncAppender appender = new AsyncAppender(out, 16);
+		try {
+			assertTrue(appender.append("one"));
+			assertTrue(appender.append("two"));
+			appender.flush(1000);
+			assertEquals("one\ntwo\n", buf.toString());
+
+			// when idle, the writer is parked and doesn't keep flushing
+			Thread.sleep(50);
+			int flushes = out.flushes;
+			Thread.sleep(50);
+			assertEquals(flushes, out.flushes);
+
+			// and is woken up by the next line
+			assertTrue(appender.append("three"));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!buf.toString().endsWith("three\n") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals("one\ntwo\nthree\n", buf.toString());
+		} finally {
+			appender.close();
+		}
+		assertFalse(appender.append("four"));
+		assertEquals(1, appender.getDropped());
+	}
+
+	public void testThreads() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		final AsyncAppender appender = new AsyncAppender(new PrintStream(buf), 1 << 16);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int t = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						appender.append("t" + t + " " + j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		appender.close();
+		assertEquals(0, appender.getDropped());
+		String[] lines = buf.toString().split("\n");
+		assertEquals(4000, lines.length);
+		for (String line: lines) {
+			assertTrue(line, line.matches("t[0-3] [0-9]+"));
+		}
+	}
+
+	public void testLogClose() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		Log log = new Log(new PrintStream(buf), Level.INFO);
+		log.info("before");
+		log.close();
+		assertEquals("INFO: before\n", buf.toString());
+
+		// a closed log starts a new writer if it is used again
+		log.info("after");
+		log.close();
+		assertEquals("INFO: before\nINFO: after\n", buf.toString());
+	}
+}
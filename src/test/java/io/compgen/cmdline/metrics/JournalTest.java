@@ -0,0 +1,139 @@
+package io.compgen.cmdline.metrics;
+
+import io.compgen.cmdline.JournalReport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class JournalTest extends TestCase {
+	private File file;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("journal", ".txt");
+		file.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static Journal.Entry entry(String command, long totalMillis, int exitCode, String... options) {
+		Journal.Entry e = new Journal.Entry();
+		e.startTime = 1700000000000L;
+		e.command = command;
+		e.options.addAll(Arrays.asList(options));
+		e.inputs = 2;
+		e.inputBytes = 3 * 1024 * 1024;
+		e.parseNanos = 1000000;
+		e.bindNanos = 500000;
+		e.execNanos = (totalMillis - 2) * 1000000;
+		e.cleanupNanos = 250000;
+		e.totalNanos = totalMillis * 1000000;
+		e.exitCode = exitCode;
+		e.peakMemory = 64 * 1024 * 1024;
+		return e;
+	}
+
+	public void testRoundTrip() {
+		Journal.Entry e = entry("sort", 12, 3, "output", "threads");
+		e.parseNanos = 1000;
+		String line = e.format();
+		assertEquals("J1\t1700000000000\tsort\toutput,threads\t2\t3145728\t0.001\t0.500\t10.000\t0.250\t12.000\t3\t67108864", line);
+
+		Journal.Entry p = Journal.Entry.parse(line);
+		assertEquals(e.startTime, p.startTime);
+		assertEquals("sort", p.command);
+		assertEquals(Arrays.asList("output", "threads"), p.options);
+		assertEquals(2, p.inputs);
+		assertEquals(e.inputBytes, p.inputBytes);
+		assertEquals(1000, p.parseNanos);
+		assertEquals(500000, p.bindNanos);
+		assertEquals(10000000, p.execNanos);
+		assertEquals(250000, p.cleanupNanos);
+		assertEquals(12000000, p.totalNanos);
+		assertEquals(3, p.exitCode);
+		assertEquals(e.peakMemory, p.peakMemory);
+
+		// no options, and tabs/newlines in values
+		e = entry("a\tb\nc", 5, 0);
+		p = Journal.Entry.parse(e.format());
+		assertEquals("a b c", p.command);
+		assertTrue(p.options.isEmpty());
+	}
+
+	public void testTruncate() throws Exception {
+		Journal journal = new Journal(file.getPath());
+		String[] options = new String[500];
+		for (int i = 0; i < options.length; i++) {
+			options[i] = "option-number-" + i;
+		}
+		Journal.Entry e = entry("big", 5, 0, options);
+		journal.append(e);
+		// the entry itself isn't changed
+		assertEquals(500, e.options.size());
+
+		// too long, even without the options
+		char[] name = new char[Journal.MAX_RECORD];
+		Arrays.fill(name, 'x');
+		journal.append(entry(new String(name), 5, 0));
+
+		journal.append(entry("small", 5, 0, "n"));
+
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0).length() <= Journal.MAX_RECORD);
+		List<Journal.Entry> entries = Journal.read(file);
+		assertEquals("big", entries.get(0).command);
+		assertEquals(Arrays.asList("..."), entries.get(0).options);
+		assertEquals("small", entries.get(1).command);
+		assertEquals(Arrays.asList("n"), entries.get(1).options);
+	}
+
+	public void testSkipMalformed() throws Exception {
+		String good = entry("ok", 5, 0).format();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write((good + "\n"
+				+ "\n"
+				+ "J0" + good.substring(2) + "\n"
+				+ good.replace("\t5.000\t", "\tfive\t") + "\n"
+				+ good + "\textra\n"
+				+ good.substring(0, good.length() / 2) + "\n"
+				+ good + "\n"
+				+ good.substring(0, 10)).getBytes());
+		fos.close();
+
+		List<Journal.Entry> entries = Journal.read(file);
+		assertEquals(2, entries.size());
+		assertEquals("ok", entries.get(1).command);
+	}
+
+	public void testReport() throws Exception {
+		Journal journal = new Journal(file.getPath());
+		for (int i = 1; i <= 10; i++) {
+			journal.append(entry("cmd", i * 10, i % 5 == 0 ? 1 : 0, i % 2 == 0 ? "even" : "odd"));
+		}
+		journal.append(entry("other", 7, 0));
+
+		JournalReport report = new JournalReport();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		report.setStdout(out);
+		report.setByOption(true);
+		report.setFilenames(Arrays.asList(file.getPath()));
+		report.exec();
+
+		String[] lines = out.toString().split("\n");
+		assertEquals(5, lines.length);
+		assertTrue(lines[0].startsWith("command\truns\tfailed\ttotal_p50_ms\ttotal_p90_ms\ttotal_p99_ms\t"));
+		// nearest-rank: p50 of 10..100 is the 5th value, p90 the 9th, p99 the 10th
+		assertEquals("cmd\t10\t2\t50.0\t90.0\t100.0\t48.0\t1.5\t64.0\t3.0", lines[1]);
+		assertEquals("cmd --even\t5\t1\t60.0\t100.0\t100.0\t58.0\t1.5\t64.0\t3.0", lines[2]);
+		assertEquals("cmd --odd\t5\t1\t50.0\t90.0\t90.0\t48.0\t1.5\t64.0\t3.0", lines[3]);
+		assertEquals("other\t1\t0\t7.0\t7.0\t7.0\t5.0\t1.5\t64.0\t3.0", lines[4]);
+	}
+}
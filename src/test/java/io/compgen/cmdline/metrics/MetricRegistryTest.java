@@ -0,0 +1,170 @@
+package io.compgen.cmdline.metrics;
+
+import io.compgen.cmdline.log.Level;
+import io.compgen.cmdline.log.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MetricRegistryTest extends TestCase {
+	public void testBuckets() {
+		// small values are exact
+		for (long v = 0; v < 64; v++) {
+			int idx = Histogram.bucketIndex(v);
+			assertEquals(v, idx);
+			assertEquals(v, Histogram.bucketLow(idx));
+			assertEquals(v, Histogram.bucketHigh(idx));
+		}
+
+		assertEquals(64, Histogram.bucketLow(Histogram.bucketIndex(64)));
+		assertEquals(65, Histogram.bucketHigh(Histogram.bucketIndex(64)));
+		assertEquals(Histogram.bucketIndex(64), Histogram.bucketIndex(65));
+		assertEquals(Histogram.bucketIndex(64) + 1, Histogram.bucketIndex(66));
+
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Histogram.bucketHigh(Histogram.BUCKET_COUNT - 1));
+
+		Random rand = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long v = (rand.nextLong() >>> 1) >>> rand.nextInt(63);
+			int idx = Histogram.bucketIndex(v);
+			long low = Histogram.bucketLow(idx);
+			long high = Histogram.bucketHigh(idx);
+			assertTrue(v + " in [" + low + ", " + high + "]", low <= v && v <= high);
+			// within ~3%
+			assertTrue(v + ": " + low + "-" + high, (high - low) <= low / 32);
+			if (idx > 0) {
+				assertEquals(low - 1, Histogram.bucketHigh(idx - 1));
+			}
+		}
+	}
+
+	public void testSnapshot() {
+		Histogram h = new MetricRegistry().histogram("h");
+		assertEquals(0, h.snapshot().getCount());
+		assertEquals(0, h.snapshot().getValueAtQuantile(0.5));
+
+		for (int i = 1; i <= 100; i++) {
+			h.record(i);
+		}
+		h.record(-5);
+
+		HistogramSnapshot snap = h.snapshot();
+		assertEquals(101, snap.getCount());
+		assertEquals(5050, snap.getSum());
+		assertEquals(0, snap.getMin());
+		// 100 is in the 100-101 bucket
+		assertEquals(101, snap.getMax());
+		assertEquals(50, snap.getValueAtQuantile(0.5));
+		// 91 is in the 90-91 bucket
+		assertEquals(91, snap.getValueAtQuantile(0.9));
+		assertEquals(101, snap.getValueAtQuantile(1.0));
+		assertEquals(0, snap.getValueAtQuantile(0.0));
+
+		// snapshots don't change
+		h.record(1000);
+		assertEquals(101, snap.getCount());
+		assertEquals(102, h.snapshot().getCount());
+	}
+
+	public void testThreads() throws Exception {
+		final Histogram h = new MetricRegistry().histogram("h");
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						h.record(j % 64);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		assertEquals(80000, h.snapshot().getCount());
+		assertEquals(8 * (10000 / 64 * 2016 + (10000 % 64) * (10000 % 64 - 1) / 2), h.snapshot().getSum());
+	}
+
+	public void testPrometheus() {
+		MetricRegistry metrics = new MetricRegistry();
+		assertTrue(metrics.isEmpty());
+		metrics.counter("reads.total").add(3);
+		metrics.timer("exec").record(2000000000L);
+		metrics.histogram("size").record(10);
+		assertSame(metrics.counter("reads.total"), metrics.counter("reads.total"));
+		assertFalse(metrics.isEmpty());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		metrics.write(out, MetricRegistry.Format.PROMETHEUS);
+		String s = out.toString();
+		assertTrue(s, s.contains("# TYPE reads_total counter\nreads_total 3\n"));
+		assertTrue(s, s.contains("# TYPE exec_seconds summary\n"));
+		assertTrue(s, s.contains("exec_seconds_count 1\n"));
+		assertTrue(s, s.contains("exec_seconds_sum 2\n"));
+		assertTrue(s, s.contains("# TYPE size summary\nsize{quantile=\"0.5\"} 10\n"));
+		assertTrue(s, s.contains("size{quantile=\"0.999\"} 10\n"));
+		assertTrue(s, s.contains("size_sum 10\nsize_count 1\n"));
+	}
+
+	public void testJson() {
+		MetricRegistry metrics = new MetricRegistry();
+		metrics.counter("a\"b").inc();
+		metrics.histogram("h").record(4);
+		metrics.histogram("h").record(8);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		metrics.write(out, MetricRegistry.Format.JSON);
+		assertEquals("{\"counters\":{\"a\\\"b\":1},\"timers\":{},\"histograms\":{\"h\":{\"count\":2,\"sum\":12,\"min\":4,\"max\":8,\"mean\":6,\"p50\":4,\"p90\":8,\"p99\":8,\"p999\":8}}}\n",
+				out.toString());
+	}
+
+	public void testReporter() throws Exception {
+		File f = File.createTempFile("metrics", ".prom");
+		try {
+			MetricRegistry metrics = new MetricRegistry();
+			metrics.counter("c").inc();
+
+			// two concurrent runs: the reporter runs until both have stopped
+			Log log = new Log(System.err, Level.WARN);
+			metrics.startReporter(f.getPath(), MetricRegistry.Format.PROMETHEUS, 3600, log);
+			metrics.startReporter(f.getPath(), MetricRegistry.Format.PROMETHEUS, 3600, log);
+			assertTrue(metrics.isReporting());
+			metrics.stopReporter();
+			assertTrue(metrics.isReporting());
+			metrics.stopReporter();
+			assertFalse(metrics.isReporting());
+			metrics.stopReporter();
+			assertFalse(metrics.isReporting());
+
+			metrics.writeFile(f.getPath(), MetricRegistry.Format.PROMETHEUS);
+			assertTrue(new String(Files.readAllBytes(f.toPath())).contains("c 1\n"));
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testReporterError() throws Exception {
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Log log = new Log(new PrintStream(err), Level.WARN);
+		MetricRegistry metrics = new MetricRegistry();
+		metrics.startReporter(new File("/nonexistent-dir/metrics.prom").getPath(), MetricRegistry.Format.PROMETHEUS, 1, log);
+		try {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (err.size() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+				log.flush();
+			}
+		} finally {
+			metrics.stopReporter();
+			log.close();
+		}
+		assertTrue(err.toString(), err.toString().startsWith("WARN: Unable to write metrics: "));
+	}
+}
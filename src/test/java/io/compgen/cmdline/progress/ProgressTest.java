@@ -0,0 +1,52 @@
+package io.compgen.cmdline.progress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+public class ProgressTest extends TestCase {
+	protected void tearDown() throws Exception {
+		System.clearProperty(Progress.PROPERTY);
+	}
+
+	public void testOverride() {
+		System.setProperty(Progress.PROPERTY, "never");
+		assertFalse(Progress.isTerminal());
+		assertFalse(new Progress(System.err, 1000).isEnabled());
+
+		System.setProperty(Progress.PROPERTY, "Always");
+		assertTrue(Progress.isTerminal());
+		Progress progress = new Progress(System.err, 1000);
+		assertTrue(progress.isEnabled());
+		progress.setQuiet(true);
+		assertFalse(progress.isEnabled());
+	}
+
+	public void testRender() throws Exception {
+		System.setProperty(Progress.PROPERTY, "always");
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Progress progress = new Progress(new PrintStream(err, true), 10);
+		progress.start("test", 100);
+		progress.add(5);
+		progress.setPosition(50);
+		Thread.sleep(50);
+		progress.done();
+		String s = err.toString();
+		assertTrue(s, s.startsWith("\rtest: "));
+		assertTrue(s, s.contains("test: 5 records ("));
+		assertTrue(s, s.contains("50.0%"));
+		assertTrue(s, s.endsWith(" elapsed" + System.lineSeparator()));
+
+		// nothing is written when disabled
+		System.setProperty(Progress.PROPERTY, "never");
+		err.reset();
+		progress = new Progress(new PrintStream(err, true), 10);
+		progress.start("test");
+		progress.inc();
+		Thread.sleep(30);
+		progress.done();
+		assertEquals(1, progress.getRecords());
+		assertEquals("", err.toString());
+	}
+}
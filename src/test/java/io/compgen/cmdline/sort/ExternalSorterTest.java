@@ -0,0 +1,52 @@
+package io.compgen.cmdline.sort;
+
+import io.compgen.cmdline.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ExternalSorterTest extends TestCase {
+	public void testSortSpillsAndMerges() throws IOException {
+		TempDir tmp = new TempDir(null, "sort-test-");
+		File dir = tmp.getDir();
+
+		// sort on the first character only, to check that the sort is stable
+		Comparator<String> cmp = new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				return Character.compare(o1.charAt(0), o2.charAt(0));
+			}
+		};
+
+		List<String> expected = new ArrayList<String>();
+		ExternalSorter<String> sorter = new ExternalSorter<String>(cmp, new StringCodec(), tmp, 64 * 1024, 3);
+		sorter.setFanIn(4);
+		Random rand = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			String s = (char) ('a' + rand.nextInt(26)) + Integer.toString(i);
+			expected.add(s);
+			sorter.add(s);
+		}
+		Collections.sort(expected, cmp);
+
+		Iterator<String> it = sorter.sorted();
+		assertTrue(sorter.getRunCount() > 4);
+		List<String> actual = new ArrayList<String>();
+		while (it.hasNext()) {
+			actual.add(it.next());
+		}
+		assertEquals(expected, actual);
+
+		sorter.close();
+		assertEquals(0, dir.listFiles().length);
+		tmp.close();
+		assertFalse(dir.exists());
+	}
+}